@@ -0,0 +1,138 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.bench;
+
+import java.util.Random;
+
+/**
+ * Generates synthetic POI names, so that the benchmarks scale to any number of keys without outside data.
+ * 
+ * A name is a district, a body and a category, like "海淀学院路中关大厦". The parts are drawn with a skewed
+ * distribution, so that, as in real POI data, a few substrings (common districts and categories) are shared by many
+ * keys while most are rare. The same seed always gives the same names.
+ */
+public class PoiNameGenerator
+{
+    public enum Alphabet
+    {
+        CJK, ASCII
+    }
+
+    private static final String[] CJK_DISTRICTS =
+    { "海淀", "朝阳", "东城", "西城", "丰台", "石景山", "通州", "昌平", "大兴", "顺义", "房山", "门头沟", "怀柔", "平谷", "密云", "延庆" };
+
+    private static final String CJK_CHARS = "五道口中关村学院路西直门东北京南大街天安华苑花园新城家国际科技文化商务金融人民"
+            + "和平建设光明长安胜利红星阳光幸福友谊望京亚运奥林匹克清河上地回龙观立水桥双井劲松潘家园十里河方庄蒲黄榆"
+            + "宋庄台湖永顺梨园九棵树果园土桥临河里次渠亦庄旧宫瀛海黄村高米店枣园清源西红门";
+
+    private static final String[] CJK_CATEGORIES =
+    { "站", "路", "大厦", "广场", "小区", "医院", "酒店", "公园", "地铁站", "城铁", "中学", "超市", "银行", "餐厅", "停车场", "加油站" };
+
+    private static final String[] ASCII_DISTRICTS =
+    { "north", "south", "east", "west", "central", "old town", "harbor", "hill", "park side", "lakeview" };
+
+    private static final String[] ASCII_SYLLABLES =
+    { "ba", "ko", "ri", "na", "to", "me", "lu", "sa", "vi", "de", "mo", "ka", "ne", "po", "ta", "li", "ro", "su", "ga",
+            "fe", "an", "el", "or", "un", "is" };
+
+    private static final String[] ASCII_CATEGORIES =
+    { " station", " road", " plaza", " mall", " hospital", " hotel", " park", " school", " bank", " cafe", " garage",
+            " market" };
+
+    private final Random random;
+
+    private final Alphabet alphabet;
+
+    private final int keyLength;
+
+    private final StringBuilder sb = new StringBuilder();
+
+    /**
+     * @param seed
+     * @param alphabet
+     * @param keyLength the approximate length of the names, in chars
+     */
+    public PoiNameGenerator(long seed, Alphabet alphabet, int keyLength)
+    {
+        this.random = new Random(seed);
+        this.alphabet = alphabet;
+        this.keyLength = keyLength;
+    }
+
+    /**
+     * Returns the next name
+     */
+    public String next()
+    {
+        sb.setLength(0);
+        boolean cjk = alphabet == Alphabet.CJK;
+        String[] districts = cjk ? CJK_DISTRICTS : ASCII_DISTRICTS;
+        String[] categories = cjk ? CJK_CATEGORIES : ASCII_CATEGORIES;
+        String category = pick(categories);
+        // short keys only get a body
+        if (keyLength >= 6)
+        {
+            sb.append(pick(districts));
+        }
+        int bodyLength = Math.max(1, keyLength - sb.length() - (keyLength >= 4 ? category.length() : 0));
+        while (bodyLength > 0)
+        {
+            if (cjk)
+            {
+                sb.append(CJK_CHARS.charAt(skewed(CJK_CHARS.length())));
+                bodyLength--;
+            }
+            else
+            {
+                String syllable = pick(ASCII_SYLLABLES);
+                sb.append(syllable);
+                bodyLength -= syllable.length();
+            }
+        }
+        if (keyLength >= 4)
+        {
+            sb.append(category);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the next n names
+     */
+    public String[] next(int n)
+    {
+        String[] ret = new String[n];
+        for (int i = 0; i < n; i++)
+        {
+            ret[i] = next();
+        }
+        return ret;
+    }
+
+    private String pick(String[] values)
+    {
+        return values[skewed(values.length)];
+    }
+
+    /**
+     * Returns a number in [0, n), small numbers being much more frequent
+     */
+    private int skewed(int n)
+    {
+        double r = random.nextDouble();
+        return (int) (n * r * r * r);
+    }
+}
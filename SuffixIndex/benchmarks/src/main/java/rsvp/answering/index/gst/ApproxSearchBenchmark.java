@@ -0,0 +1,172 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.gst;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import rsvp.answering.index.bench.PoiNameGenerator;
+import rsvp.answering.index.common.IntList;
+
+/**
+ * Latency of searchApprox against a scan of all the names computing the edit distance of the query to their best
+ * substring, as Sellers' algorithm does, stopping on a name as soon as its whole row is above maxEdits.
+ * 
+ * The queries are substrings of the indexed names with one char replaced by another char of the alphabet.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class ApproxSearchBenchmark
+{
+    private static final int QUERIES = 256;
+
+    @Param("100000")
+    public int keys;
+
+    @Param(
+    { "CJK", "ASCII" })
+    public PoiNameGenerator.Alphabet alphabet;
+
+    @Param(
+    { "1", "2" })
+    public int maxEdits;
+
+    private String[] names;
+
+    private GSuffixTree tree;
+
+    private String[] queries;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void build()
+    {
+        names = new PoiNameGenerator(42, alphabet, 12).next(keys);
+        tree = new GSuffixTree();
+        for (int i = 0; i < names.length; i++)
+        {
+            tree.addWord(names[i], i);
+        }
+        tree.flush();
+
+        Random random = new Random(7);
+        int length = alphabet == PoiNameGenerator.Alphabet.CJK ? 5 : 8;
+        queries = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++)
+        {
+            String name = names[random.nextInt(names.length)];
+            while (name.length() < length)
+            {
+                name = names[random.nextInt(names.length)];
+            }
+            int start = random.nextInt(name.length() - length + 1);
+            char[] query = name.substring(start, start + length).toCharArray();
+            String other = names[random.nextInt(names.length)];
+            query[random.nextInt(length)] = other.charAt(random.nextInt(other.length()));
+            queries[i] = new String(query);
+        }
+    }
+
+    private String nextQuery()
+    {
+        next = (next + 1) % QUERIES;
+        return queries[next];
+    }
+
+    @Benchmark
+    public ApproxResults searchApprox()
+    {
+        return tree.searchApprox(nextQuery(), maxEdits);
+    }
+
+    @Benchmark
+    public void bruteForce(Blackhole bh)
+    {
+        String query = nextQuery();
+        int[] row = new int[64];
+        IntList found = new IntList();
+        for (int i = 0; i < names.length; i++)
+        {
+            String name = names[i];
+            if (row.length <= name.length())
+            {
+                row = new int[name.length() + 1];
+            }
+            int distance = distance(query, name, row);
+            if (distance <= maxEdits)
+            {
+                found.add(i);
+                found.add(distance);
+            }
+        }
+        bh.consume(found);
+    }
+
+    /**
+     * Returns the smallest edit distance between query and a substring of name, maxEdits + 1 if it is above maxEdits
+     */
+    private int distance(String query, String name, int[] row)
+    {
+        int n = name.length();
+        for (int j = 0; j <= n; j++)
+        {
+            row[j] = 0;
+        }
+        for (int i = 1; i <= query.length(); i++)
+        {
+            char ch = query.charAt(i - 1);
+            int diagonal = row[0];
+            row[0] = i;
+            int min = i;
+            for (int j = 1; j <= n; j++)
+            {
+                int cell = Math.min(diagonal + (ch == name.charAt(j - 1) ? 0 : 1), Math.min(row[j], row[j - 1]) + 1);
+                diagonal = row[j];
+                row[j] = cell;
+                min = Math.min(min, cell);
+            }
+            if (min > maxEdits)
+            {
+                return maxEdits + 1;
+            }
+        }
+        int ret = row[0];
+        for (int j = 1; j <= n; j++)
+        {
+            ret = Math.min(ret, row[j]);
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.gst;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import rsvp.answering.index.bench.PoiNameGenerator;
+
+/**
+ * Throughput of searchBatch and matchBatch against search and match called in a loop, per query. The queries are
+ * prefixes of the indexed names, some with a char that matches nothing appended, so that many of them share prefixes
+ * like the address strings of a batch job.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class BatchQueryBenchmark
+{
+    private static final int QUERIES = 100000;
+
+    @Param("100000")
+    public int keys;
+
+    @Param(
+    { "CJK", "ASCII" })
+    public PoiNameGenerator.Alphabet alphabet;
+
+    private GSuffixTree tree;
+
+    private List<String> queries;
+
+    private ForkJoinPool pool;
+
+    @Setup(Level.Trial)
+    public void build()
+    {
+        String[] names = new PoiNameGenerator(42, alphabet, 12).next(keys);
+        tree = new GSuffixTree();
+        for (int i = 0; i < names.length; i++)
+        {
+            tree.addWord(names[i], i);
+        }
+        tree.flush();
+
+        Random random = new Random(7);
+        queries = new ArrayList<String>(QUERIES);
+        for (int i = 0; i < QUERIES; i++)
+        {
+            String name = names[random.nextInt(names.length)];
+            String query = name.substring(0, 1 + random.nextInt(name.length()));
+            queries.add(random.nextBoolean() ? query : query + '~');
+        }
+        pool = new ForkJoinPool();
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdown()
+    {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public void searchLoop(Blackhole bh)
+    {
+        for (String query : queries)
+        {
+            bh.consume(tree.search(query));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public List<Collection<Integer>> searchBatch()
+    {
+        return tree.searchBatch(queries);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public List<Collection<Integer>> searchBatchParallel()
+    {
+        return tree.searchBatch(queries, pool);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public void matchLoop(Blackhole bh)
+    {
+        for (String query : queries)
+        {
+            bh.consume(tree.match(query));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public List<String> matchBatch()
+    {
+        return tree.matchBatch(queries);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public List<String> matchBatchParallel()
+    {
+        return tree.matchBatch(queries, pool);
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.gst;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rsvp.answering.index.bench.PoiNameGenerator;
+
+/**
+ * Saving and loading a flushed tree, with the streamed binary format and the memory-mapped image.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class BinaryFormatBenchmark
+{
+    @Param("100000")
+    public int keys;
+
+    @Param(
+    { "CJK", "ASCII" })
+    public PoiNameGenerator.Alphabet alphabet;
+
+    private GSuffixTree tree;
+
+    private CompactGSuffixTree compact;
+
+    private File dir;
+
+    private String binPath;
+
+    private String imagePath;
+
+    @Setup(Level.Trial)
+    public void build() throws IOException
+    {
+        String[] names = new PoiNameGenerator(42, alphabet, 12).next(keys);
+        tree = new GSuffixTree();
+        for (int i = 0; i < names.length; i++)
+        {
+            tree.addWord(names[i], i);
+        }
+        tree.flush();
+        compact = new CompactGSuffixTree(tree);
+
+        dir = File.createTempFile("gst-bench", "");
+        dir.delete();
+        dir.mkdir();
+        binPath = new File(dir, "tree").getPath();
+        imagePath = new File(dir, "tree.img").getPath();
+        tree.writeToBinaryFile(binPath);
+        MappedGSuffixTree.write(compact, imagePath);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete()
+    {
+        for (File file : dir.listFiles())
+        {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    public void save() throws IOException
+    {
+        tree.writeToBinaryFile(binPath);
+    }
+
+    @Benchmark
+    public GSuffixTree load() throws IOException
+    {
+        return new GSuffixTree(binPath);
+    }
+
+    @Benchmark
+    public void saveImage() throws IOException
+    {
+        MappedGSuffixTree.write(compact, imagePath);
+    }
+
+    @Benchmark
+    public MappedGSuffixTree openImage() throws IOException
+    {
+        return new MappedGSuffixTree(imagePath);
+    }
+}
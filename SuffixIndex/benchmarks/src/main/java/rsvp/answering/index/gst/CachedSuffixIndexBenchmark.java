@@ -0,0 +1,147 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.gst;
+
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rsvp.answering.index.bench.PoiNameGenerator;
+
+/**
+ * Read throughput of a CachedSuffixIndex against the same queries on its tree, from 4 threads at once. The queries
+ * are short substrings of the names drawn from a Zipf-like distribution, so a few hot ones come again and again. With
+ * removed ids the tree has to skip the tombstones in every result, until it is compacted.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Threads(4)
+public class CachedSuffixIndexBenchmark
+{
+    private static final int QUERIES = 1 << 16;
+
+    private static final int DISTINCT_QUERIES = 4096;
+
+    @Param("100000")
+    public int keys;
+
+    @Param(
+    { "CJK", "ASCII" })
+    public PoiNameGenerator.Alphabet alphabet;
+
+    @Param(
+    { "0", "1000" })
+    public int removed;
+
+    private GSuffixTree tree;
+
+    private CachedSuffixIndex cached;
+
+    private String[] queries;
+
+    @State(Scope.Thread)
+    public static class Cursor
+    {
+        private int next;
+
+        @Setup(Level.Trial)
+        public void start()
+        {
+            next = (int) Thread.currentThread().getId() * 7919;
+        }
+
+        int next()
+        {
+            next = (next + 1) & (QUERIES - 1);
+            return next;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void build()
+    {
+        String[] names = new PoiNameGenerator(42, alphabet, 12).next(keys);
+        tree = new GSuffixTree();
+        for (int i = 0; i < names.length; i++)
+        {
+            tree.addWord(names[i], i);
+        }
+        tree.flush();
+        Random random = new Random(7);
+        for (int i = 0; i < removed; i++)
+        {
+            tree.remove(random.nextInt(names.length));
+        }
+        cached = new CachedSuffixIndex(tree, 64L << 20);
+
+        String[] distinct = new String[DISTINCT_QUERIES];
+        for (int i = 0; i < DISTINCT_QUERIES; i++)
+        {
+            String name = names[random.nextInt(names.length)];
+            int length = Math.min(name.length(), 1 + random.nextInt(3));
+            int start = random.nextInt(name.length() - length + 1);
+            distinct[i] = name.substring(start, start + length);
+        }
+        // the rank r query comes about 1 / r times as often as the first one
+        queries = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++)
+        {
+            queries[i] = distinct[(int) Math.pow(DISTINCT_QUERIES + 1, random.nextDouble()) - 1];
+        }
+    }
+
+    @Benchmark
+    public Collection<Integer> searchTree(Cursor cursor)
+    {
+        return tree.search(queries[cursor.next()]);
+    }
+
+    @Benchmark
+    public Collection<Integer> searchCached(Cursor cursor)
+    {
+        return cached.search(queries[cursor.next()]);
+    }
+
+    @Benchmark
+    public int countTree(Cursor cursor)
+    {
+        return tree.count(queries[cursor.next()]);
+    }
+
+    @Benchmark
+    public int countCached(Cursor cursor)
+    {
+        return cached.count(queries[cursor.next()]);
+    }
+}
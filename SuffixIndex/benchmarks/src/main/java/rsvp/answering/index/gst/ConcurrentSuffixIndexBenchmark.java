@@ -0,0 +1,135 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.gst;
+
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rsvp.answering.index.bench.PoiNameGenerator;
+
+/**
+ * Read throughput of a ConcurrentSuffixIndex while one thread keeps adding keys and committing them in batches. The
+ * readOnly group gives the throughput of the same reads without a writer.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class ConcurrentSuffixIndexBenchmark
+{
+    private static final int QUERIES = 256;
+
+    @Param("100000")
+    public int keys;
+
+    @Param(
+    { "CJK", "ASCII" })
+    public PoiNameGenerator.Alphabet alphabet;
+
+    @Param(
+    { "100", "1000" })
+    public int batchSize;
+
+    private ConcurrentSuffixIndex index;
+
+    private PoiNameGenerator generator;
+
+    private String[] queries;
+
+    private int nextId;
+
+    @Setup(Level.Trial)
+    public void build()
+    {
+        generator = new PoiNameGenerator(42, alphabet, 12);
+        index = new ConcurrentSuffixIndex();
+        String[] names = generator.next(keys);
+        for (nextId = 0; nextId < names.length; nextId++)
+        {
+            index.addWord(names[nextId], nextId);
+        }
+        index.commit();
+
+        Random random = new Random(7);
+        queries = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++)
+        {
+            String name = names[random.nextInt(names.length)];
+            int from = random.nextInt(name.length());
+            queries[i] = name.substring(from, Math.min(name.length(), from + 3));
+        }
+    }
+
+    /**
+     * The query cursor of every reader thread
+     */
+    @State(Scope.Thread)
+    public static class Cursor
+    {
+        int next;
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(3)
+    public Collection<Integer> search(Cursor cursor)
+    {
+        cursor.next = (cursor.next + 1) & (QUERIES - 1);
+        return index.search(queries[cursor.next]);
+    }
+
+    /**
+     * Adds one batch and commits it
+     */
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public ConcurrentSuffixIndex.Snapshot write()
+    {
+        for (int i = 0; i < batchSize; i++)
+        {
+            index.addWord(generator.next(), nextId++);
+        }
+        return index.commit();
+    }
+
+    @Benchmark
+    @Group("readOnly")
+    @GroupThreads(3)
+    public Collection<Integer> searchWithoutWriter(Cursor cursor)
+    {
+        cursor.next = (cursor.next + 1) & (QUERIES - 1);
+        return index.search(queries[cursor.next]);
+    }
+}
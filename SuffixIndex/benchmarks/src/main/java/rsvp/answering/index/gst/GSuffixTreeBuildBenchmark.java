@@ -0,0 +1,125 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.gst;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rsvp.answering.index.bench.PoiNameGenerator;
+
+/**
+ * Building and flushing a GSuffixTree of synthetic POI names.
+ * 
+ * Every invocation builds (or flushes) a whole tree, so the scores are the time of one build: divide by keys for the
+ * cost of one addWord.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class GSuffixTreeBuildBenchmark
+{
+    @Param("100000")
+    public int keys;
+
+    @Param(
+    { "CJK", "ASCII" })
+    public PoiNameGenerator.Alphabet alphabet;
+
+    @Param(
+    { "4", "8", "16" })
+    public int keyLength;
+
+    private String[] names;
+
+    @Setup(Level.Trial)
+    public void generate()
+    {
+        names = new PoiNameGenerator(42, alphabet, keyLength).next(keys);
+    }
+
+    private GSuffixTree addWords()
+    {
+        GSuffixTree ret = new GSuffixTree();
+        for (int i = 0; i < names.length; i++)
+        {
+            ret.addWord(names[i], i);
+        }
+        return ret;
+    }
+
+    /**
+     * An unflushed tree for the flush benchmarks, rebuilt before every iteration
+     */
+    @State(Scope.Thread)
+    public static class Unflushed
+    {
+        GSuffixTree tree;
+
+        @Setup(Level.Iteration)
+        public void build(GSuffixTreeBuildBenchmark state)
+        {
+            tree = null;
+            tree = state.addWords();
+        }
+    }
+
+    @Benchmark
+    public GSuffixTree addWord()
+    {
+        return addWords();
+    }
+
+    @Benchmark
+    public GSuffixTree buildParallel()
+    {
+        return GSuffixTree.buildParallel(Arrays.asList(names), ForkJoinPool.commonPool());
+    }
+
+    @Benchmark
+    public FlushStats flush(Unflushed unflushed)
+    {
+        return unflushed.tree.flush();
+    }
+
+    @Benchmark
+    public FlushStats flushParallel(Unflushed unflushed)
+    {
+        return unflushed.tree.flush(ForkJoinPool.commonPool());
+    }
+
+    @Benchmark
+    public FlushStats flushRanges(Unflushed unflushed)
+    {
+        return unflushed.tree.flushRanges();
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.gst;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import rsvp.answering.index.bench.PoiNameGenerator;
+import rsvp.answering.index.common.IntIterator;
+import rsvp.answering.index.common.PostingList;
+import rsvp.answering.index.common.Utils;
+
+/**
+ * Latency of search, match and findLongestSubstring on a flushed tree, by query length and by the number of results.
+ * 
+ * The queries are substrings of the indexed names. For hits = few they are the ones with the fewest results among the
+ * sampled substrings, for hits = many the ones with the most.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class GSuffixTreeQueryBenchmark
+{
+    private static final int QUERIES = 256;
+
+    @Param("100000")
+    public int keys;
+
+    @Param(
+    { "CJK", "ASCII" })
+    public PoiNameGenerator.Alphabet alphabet;
+
+    @Param(
+    { "2", "4", "8" })
+    public int queryLength;
+
+    @Param(
+    { "few", "many" })
+    public String hits;
+
+    private GSuffixTree tree;
+
+    private String[] queries;
+
+    /**
+     * Whole names with some text around them, for findLongestSubstring
+     */
+    private String[] sentences;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void build()
+    {
+        String[] names = new PoiNameGenerator(42, alphabet, 12).next(keys);
+        tree = new GSuffixTree();
+        for (int i = 0; i < names.length; i++)
+        {
+            tree.addWord(names[i], i);
+        }
+        tree.flush();
+
+        Random random = new Random(7);
+        Set<String> candidates = new LinkedHashSet<String>();
+        for (int i = 0; i < 16 * QUERIES; i++)
+        {
+            String name = names[random.nextInt(names.length)];
+            if (name.length() >= queryLength)
+            {
+                int from = random.nextInt(name.length() - queryLength + 1);
+                candidates.add(name.substring(from, from + queryLength));
+            }
+        }
+        List<String> sorted = new ArrayList<String>(candidates);
+        Collections.sort(sorted, new Comparator<String>()
+        {
+            public int compare(String a, String b)
+            {
+                return tree.count(a) - tree.count(b);
+            }
+        });
+        int n = Math.min(QUERIES, sorted.size());
+        List<String> picked = "few".equals(hits) ? sorted.subList(0, n) : sorted.subList(sorted.size() - n, sorted.size());
+        queries = picked.toArray(new String[n]);
+
+        sentences = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++)
+        {
+            sentences[i] = queries[i % n] + names[random.nextInt(names.length)] + queries[(i + 1) % n];
+        }
+    }
+
+    private int nextQuery()
+    {
+        next = (next + 1) & (QUERIES - 1);
+        return next;
+    }
+
+    @Benchmark
+    public Collection<Integer> search()
+    {
+        return tree.search(queries[nextQuery() % queries.length]);
+    }
+
+    /**
+     * search, then reading every id
+     */
+    @Benchmark
+    public void searchAndIterate(Blackhole bh)
+    {
+        PostingList results = (PostingList) tree.search(queries[nextQuery() % queries.length]);
+        for (IntIterator it = results.intIterator(); it.hasNext();)
+        {
+            bh.consume(it.nextInt());
+        }
+    }
+
+    @Benchmark
+    public int count()
+    {
+        return tree.count(queries[nextQuery() % queries.length]);
+    }
+
+    @Benchmark
+    public String match()
+    {
+        return tree.match(queries[nextQuery() % queries.length]);
+    }
+
+    @Benchmark
+    public String findLongestSubstring()
+    {
+        return Utils.findLongestSubstring(tree, sentences[nextQuery()]);
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.trie;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rsvp.answering.index.bench.PoiNameGenerator;
+
+/**
+ * Latency distribution of complete on a frozen TrieTree of weighted synthetic POI names, for the short prefixes of 1
+ * to 3 chars that have the most completions. Run with -p keys=10000000 for the size of a national POI dictionary.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx16g")
+public class TrieCompleteBenchmark
+{
+    private static final int QUERIES = 256;
+
+    @Param("1000000")
+    public int keys;
+
+    @Param(
+    { "CJK", "ASCII" })
+    public PoiNameGenerator.Alphabet alphabet;
+
+    @Param("10")
+    public int k;
+
+    private TrieTree tree;
+
+    private String[] prefixes;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void build()
+    {
+        String[] names = new PoiNameGenerator(42, alphabet, 12).next(keys);
+        Random random = new Random(7);
+        tree = new TrieTree();
+        for (int i = 0; i < names.length; i++)
+        {
+            tree.addWord(names[i], i, random.nextFloat());
+        }
+        tree.freeze();
+
+        prefixes = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++)
+        {
+            String name = names[random.nextInt(names.length)];
+            prefixes[i] = name.substring(0, Math.min(name.length(), 1 + random.nextInt(3)));
+        }
+    }
+
+    @Benchmark
+    public List<Completion> complete()
+    {
+        next = (next + 1) & (QUERIES - 1);
+        return tree.complete(prefixes[next], k);
+    }
+}
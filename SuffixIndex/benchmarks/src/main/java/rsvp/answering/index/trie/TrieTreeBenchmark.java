@@ -0,0 +1,133 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.trie;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rsvp.answering.index.bench.PoiNameGenerator;
+import rsvp.answering.index.common.Utils;
+
+/**
+ * Building a TrieTree of synthetic POI names, and looking up prefixes in a frozen one and in its double-array
+ * compilation.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class TrieTreeBenchmark
+{
+    private static final int QUERIES = 256;
+
+    @Param("100000")
+    public int keys;
+
+    @Param(
+    { "CJK", "ASCII" })
+    public PoiNameGenerator.Alphabet alphabet;
+
+    private String[] names;
+
+    private TrieTree tree;
+
+    private DoubleArrayTrie dat;
+
+    private String[] prefixes;
+
+    private String[] sentences;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void build()
+    {
+        names = new PoiNameGenerator(42, alphabet, 12).next(keys);
+        tree = addWords().freeze();
+        dat = new DoubleArrayTrie(tree);
+
+        Random random = new Random(7);
+        prefixes = new String[QUERIES];
+        sentences = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++)
+        {
+            String name = names[random.nextInt(names.length)];
+            prefixes[i] = name.substring(0, 1 + random.nextInt(name.length()));
+            sentences[i] = names[random.nextInt(names.length)] + name;
+        }
+    }
+
+    private TrieTree addWords()
+    {
+        TrieTree ret = new TrieTree();
+        for (String name : names)
+        {
+            ret.addWord(name);
+        }
+        return ret;
+    }
+
+    /**
+     * Builds a whole tree, divide by keys for the cost of one addWord
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public TrieTree addWord()
+    {
+        return addWords();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean containsPrefix()
+    {
+        next = (next + 1) & (QUERIES - 1);
+        return tree.containsPrefix(prefixes[next]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean containsPrefixDoubleArray()
+    {
+        next = (next + 1) & (QUERIES - 1);
+        return dat.containsPrefix(prefixes[next]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public String findLongestSubstring()
+    {
+        next = (next + 1) & (QUERIES - 1);
+        return Utils.findLongestSubstring(tree, sentences[next]);
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.common;
+
+import java.util.Arrays;
+
+/**
+ * A posting list stored as a plain sorted int[]
+ */
+final class ArrayPostingList extends PostingList
+{
+    private final int[] ids;
+
+    ArrayPostingList(int[] ids)
+    {
+        this.ids = ids;
+    }
+
+    @Override
+    public boolean contains(int id)
+    {
+        return Arrays.binarySearch(ids, id) >= 0;
+    }
+
+    @Override
+    public int size()
+    {
+        return ids.length;
+    }
+
+    @Override
+    public IntIterator intIterator()
+    {
+        return new IntIterator()
+        {
+            private int pos = 0;
+
+            public boolean hasNext()
+            {
+                return pos < ids.length;
+            }
+
+            public int nextInt()
+            {
+                return ids[pos++];
+            }
+        };
+    }
+
+    @Override
+    public int copyTo(int[] dest, int offset)
+    {
+        System.arraycopy(ids, 0, dest, offset, ids.length);
+        return ids.length;
+    }
+
+    @Override
+    public int encoding()
+    {
+        return ARRAY;
+    }
+
+    @Override
+    public long sizeInBytes()
+    {
+        return 4L * ids.length;
+    }
+}
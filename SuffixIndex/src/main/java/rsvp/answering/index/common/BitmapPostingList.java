@@ -0,0 +1,227 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.common;
+
+import java.util.Arrays;
+
+/**
+ * A Roaring-style compressed bitmap.
+ *
+ * Ids are partitioned by their high 16 bits. Each partition is a container holding the low 16 bits, either as a sorted
+ * char[] when it has at most {@value #ARRAY_CONTAINER_MAX} ids, or as a 2^16 bit bitmap (long[1024]) above that.
+ */
+final class BitmapPostingList extends PostingList
+{
+    static final int ARRAY_CONTAINER_MAX = 4096;
+
+    private static final int BITMAP_WORDS = 1 << 10;
+
+    private final int size;
+
+    /**
+     * The high 16 bits of the ids of every container, ascending
+     */
+    private final char[] keys;
+
+    /**
+     * Either a char[] or a long[] per key
+     */
+    private final Object[] containers;
+
+    BitmapPostingList(int[] values, int from, int to)
+    {
+        this.size = to - from;
+        int containerNum = 0;
+        for (int i = from; i < to; i++)
+        {
+            if (i == from || (values[i] >>> 16) != (values[i - 1] >>> 16))
+            {
+                containerNum++;
+            }
+        }
+        this.keys = new char[containerNum];
+        this.containers = new Object[containerNum];
+        int c = 0;
+        int i = from;
+        while (i < to)
+        {
+            int high = values[i] >>> 16;
+            int j = i;
+            while (j < to && (values[j] >>> 16) == high)
+            {
+                j++;
+            }
+            keys[c] = (char) high;
+            if (j - i <= ARRAY_CONTAINER_MAX)
+            {
+                char[] lows = new char[j - i];
+                for (int k = i; k < j; k++)
+                {
+                    lows[k - i] = (char) values[k];
+                }
+                containers[c] = lows;
+            }
+            else
+            {
+                long[] bits = new long[BITMAP_WORDS];
+                for (int k = i; k < j; k++)
+                {
+                    int low = values[k] & 0xFFFF;
+                    bits[low >>> 6] |= 1L << low;
+                }
+                containers[c] = bits;
+            }
+            c++;
+            i = j;
+        }
+    }
+
+    /**
+     * Returns the number of bytes the given sorted ids take in this encoding
+     */
+    static long estimateBytes(int[] values, int from, int to)
+    {
+        long bytes = 0;
+        int i = from;
+        while (i < to)
+        {
+            int high = values[i] >>> 16;
+            int j = i;
+            while (j < to && (values[j] >>> 16) == high)
+            {
+                j++;
+            }
+            bytes += 18 + Math.min(2L * (j - i), 8L * BITMAP_WORDS);
+            i = j;
+        }
+        return bytes;
+    }
+
+    @Override
+    public boolean contains(int id)
+    {
+        if (id < 0)
+        {
+            return false;
+        }
+        int c = Arrays.binarySearch(keys, (char) (id >>> 16));
+        if (c < 0)
+        {
+            return false;
+        }
+        Object container = containers[c];
+        char low = (char) id;
+        if (container instanceof char[])
+        {
+            return Arrays.binarySearch((char[]) container, low) >= 0;
+        }
+        return (((long[]) container)[low >>> 6] & (1L << low)) != 0;
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    public IntIterator intIterator()
+    {
+        return new IntIterator()
+        {
+            private int n = 0;
+
+            private int c = 0;
+
+            /**
+             * Position in an array container, or current word in a bitmap container
+             */
+            private int pos = 0;
+
+            /**
+             * Bits of the current bitmap word not returned yet
+             */
+            private long word = 0;
+
+            public boolean hasNext()
+            {
+                return n < size;
+            }
+
+            public int nextInt()
+            {
+                while (true)
+                {
+                    Object container = containers[c];
+                    int high = keys[c] << 16;
+                    if (container instanceof char[])
+                    {
+                        char[] lows = (char[]) container;
+                        if (pos < lows.length)
+                        {
+                            n++;
+                            return high | lows[pos++];
+                        }
+                    }
+                    else
+                    {
+                        long[] bits = (long[]) container;
+                        while (pos < BITMAP_WORDS)
+                        {
+                            if (word == 0)
+                            {
+                                word = bits[pos];
+                                if (word == 0)
+                                {
+                                    pos++;
+                                    continue;
+                                }
+                            }
+                            int low = (pos << 6) | Long.numberOfTrailingZeros(word);
+                            word &= word - 1;
+                            if (word == 0)
+                            {
+                                pos++;
+                            }
+                            n++;
+                            return high | low;
+                        }
+                    }
+                    c++;
+                    pos = 0;
+                    word = 0;
+                }
+            }
+        };
+    }
+
+    @Override
+    public int encoding()
+    {
+        return BITMAP;
+    }
+
+    @Override
+    public long sizeInBytes()
+    {
+        long bytes = 2L * keys.length;
+        for (Object container : containers)
+        {
+            bytes += 16 + (container instanceof char[] ? 2L * ((char[]) container).length : 8L * BITMAP_WORDS);
+        }
+        return bytes;
+    }
+}
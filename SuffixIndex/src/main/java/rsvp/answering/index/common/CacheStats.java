@@ -0,0 +1,107 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.common;
+
+/**
+ * The figures of a {@link QueryCache}, counted since it was created
+ */
+public class CacheStats
+{
+    private final long hits;
+
+    private final long misses;
+
+    private final long rejections;
+
+    private final long evictions;
+
+    private final long invalidations;
+
+    private final int entries;
+
+    private final long bytes;
+
+    CacheStats(long hits, long misses, long rejections, long evictions, long invalidations, int entries, long bytes)
+    {
+        this.hits = hits;
+        this.misses = misses;
+        this.rejections = rejections;
+        this.evictions = evictions;
+        this.invalidations = invalidations;
+        this.entries = entries;
+        this.bytes = bytes;
+    }
+
+    public long getHits()
+    {
+        return hits;
+    }
+
+    public long getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * Returns the share of the lookups that were hits, 0 if there was none
+     */
+    public double getHitRate()
+    {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    /**
+     * Returns the number of values not admitted, because they were less frequent than the ones they would evict
+     */
+    public long getRejections()
+    {
+        return rejections;
+    }
+
+    public long getEvictions()
+    {
+        return evictions;
+    }
+
+    /**
+     * Returns the number of times all the entries were dropped because the source changed
+     */
+    public long getInvalidations()
+    {
+        return invalidations;
+    }
+
+    public int getEntries()
+    {
+        return entries;
+    }
+
+    /**
+     * Returns the sum of the weights of the entries
+     */
+    public long getBytes()
+    {
+        return bytes;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "CacheStats [hitRate=" + String.format("%.3f", getHitRate()) + ", hits=" + hits + ", misses=" + misses
+                + ", rejections=" + rejections + ", evictions=" + evictions + ", invalidations=" + invalidations
+                + ", entries=" + entries + ", bytes=" + bytes + "]";
+    }
+}
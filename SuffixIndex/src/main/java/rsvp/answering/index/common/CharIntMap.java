@@ -0,0 +1,361 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.common;
+
+import java.util.Arrays;
+
+/**
+ * A map from char to non-negative int without boxing, used for the children of tree nodes.
+ *
+ * The entries are always kept in two dense arrays, keys and values, so that they can be iterated with
+ * {@link #keyAt(int)} and {@link #valueAt(int)}. How a key is looked up depends on the fan-out of the node:
+ *
+ * <ul>
+ * <li>up to {@value #SORTED_MAX} entries the arrays are sorted by key and searched directly</li>
+ * <li>up to {@value #HASHED_MAX} entries an open-addressing table maps a key to its position in the arrays</li>
+ * <li>above that (the root of a tree over CJK text) a direct table indexed by the char value is used</li>
+ * </ul>
+ *
+ * The layout switches automatically as entries are added or removed. Lookups never allocate.
+ */
+public class CharIntMap
+{
+    static final int SORTED_MAX = 8;
+
+    static final int HASHED_MAX = 4096;
+
+    private static final int DIRECT_SIZE = Character.MAX_VALUE + 1;
+
+    private char[] keys;
+
+    private int[] values;
+
+    private int size;
+
+    /**
+     * null while the map is sorted, otherwise it holds position + 1 of a key in keys/values, 0 for an empty slot.
+     * When its length is DIRECT_SIZE it is indexed by the key itself, otherwise it is a linear probing table.
+     */
+    private int[] table;
+
+    public CharIntMap()
+    {
+        keys = new char[2];
+        values = new int[2];
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public char keyAt(int i)
+    {
+        return keys[i];
+    }
+
+    public int valueAt(int i)
+    {
+        return values[i];
+    }
+
+    public boolean containsKey(char key)
+    {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * Returns the value mapped to key, -1 if there is none.
+     */
+    public int get(char key)
+    {
+        int i = indexOf(key);
+        return i < 0 ? -1 : values[i];
+    }
+
+    /**
+     * Returns the position of key in keys/values. While the map is sorted, a missing key is reported as
+     * (-(insertion point) - 1), otherwise as -1.
+     */
+    private int indexOf(char key)
+    {
+        if (table == null)
+        {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high)
+            {
+                int mid = (low + high) >>> 1;
+                char midKey = keys[mid];
+                if (midKey < key)
+                {
+                    low = mid + 1;
+                }
+                else if (midKey > key)
+                {
+                    high = mid - 1;
+                }
+                else
+                {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+        if (table.length == DIRECT_SIZE)
+        {
+            return table[key] - 1;
+        }
+        int mask = table.length - 1;
+        for (int slot = hash(key) & mask;; slot = (slot + 1) & mask)
+        {
+            int pos = table[slot];
+            if (pos == 0)
+            {
+                return -1;
+            }
+            if (keys[pos - 1] == key)
+            {
+                return pos - 1;
+            }
+        }
+    }
+
+    private static int hash(char key)
+    {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Maps key to value, replacing any previous value.
+     *
+     * @param value a non-negative value
+     */
+    public void put(char key, int value)
+    {
+        int i = indexOf(key);
+        if (i >= 0)
+        {
+            values[i] = value;
+            return;
+        }
+        if (size == keys.length)
+        {
+            int capacity = size < 16 ? size * 2 : size + (size >> 1);
+            keys = Arrays.copyOf(keys, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        if (table == null)
+        {
+            int at = -(i + 1);
+            System.arraycopy(keys, at, keys, at + 1, size - at);
+            System.arraycopy(values, at, values, at + 1, size - at);
+            keys[at] = key;
+            values[at] = value;
+            size++;
+            if (size > SORTED_MAX)
+            {
+                rebuildTable();
+            }
+        }
+        else
+        {
+            keys[size] = key;
+            values[size] = value;
+            size++;
+            if (table.length != DIRECT_SIZE && (size > HASHED_MAX || size * 2 > table.length))
+            {
+                rebuildTable();
+            }
+            else
+            {
+                insertSlot(key, size);
+            }
+        }
+    }
+
+    /**
+     * Removes the mapping of key, if any.
+     */
+    public void remove(char key)
+    {
+        int i = indexOf(key);
+        if (i < 0)
+        {
+            return;
+        }
+        if (table == null)
+        {
+            System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+            System.arraycopy(values, i + 1, values, i, size - i - 1);
+            size--;
+            return;
+        }
+        // move the last entry into the hole
+        size--;
+        keys[i] = keys[size];
+        values[i] = values[size];
+        if (size <= SORTED_MAX)
+        {
+            table = null;
+            sortEntries();
+        }
+        else
+        {
+            rebuildTable();
+        }
+    }
+
+    private void insertSlot(char key, int pos)
+    {
+        if (table.length == DIRECT_SIZE)
+        {
+            table[key] = pos;
+            return;
+        }
+        int mask = table.length - 1;
+        int slot = hash(key) & mask;
+        while (table[slot] != 0)
+        {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = pos;
+    }
+
+    private void rebuildTable()
+    {
+        if (size > HASHED_MAX)
+        {
+            table = new int[DIRECT_SIZE];
+        }
+        else
+        {
+            int capacity = 32;
+            while (capacity < size * 4)
+            {
+                capacity <<= 1;
+            }
+            table = new int[capacity];
+        }
+        for (int i = 0; i < size; i++)
+        {
+            insertSlot(keys[i], i + 1);
+        }
+    }
+
+    private void sortEntries()
+    {
+        for (int i = 1; i < size; i++)
+        {
+            char key = keys[i];
+            int value = values[i];
+            int j = i - 1;
+            while (j >= 0 && keys[j] > key)
+            {
+                keys[j + 1] = keys[j];
+                values[j + 1] = values[j];
+                j--;
+            }
+            keys[j + 1] = key;
+            values[j + 1] = value;
+        }
+    }
+
+    /**
+     * Returns the keys in ascending order.
+     */
+    public char[] sortedKeys()
+    {
+        char[] ret = Arrays.copyOf(keys, size);
+        if (table != null)
+        {
+            Arrays.sort(ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the approximate number of bytes used by the arrays of the map
+     */
+    public long sizeInBytes()
+    {
+        return 2L * keys.length + 4L * values.length + (table == null ? 0 : 4L * table.length);
+    }
+
+    /**
+     * Releases the spare capacity of the entry arrays.
+     */
+    public void trimToSize()
+    {
+        if (keys.length > size)
+        {
+            keys = Arrays.copyOf(keys, size);
+            values = Arrays.copyOf(values, size);
+        }
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int result = 0;
+        for (int i = 0; i < size; i++)
+        {
+            result += keys[i] ^ values[i];
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        CharIntMap other = (CharIntMap) obj;
+        if (size != other.size)
+            return false;
+        for (int i = 0; i < size; i++)
+        {
+            if (other.get(keys[i]) != values[i])
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < size; i++)
+        {
+            if (i > 0)
+            {
+                sb.append(", ");
+            }
+            sb.append(keys[i]).append('=').append(values[i]);
+        }
+        return sb.append('}').toString();
+    }
+}
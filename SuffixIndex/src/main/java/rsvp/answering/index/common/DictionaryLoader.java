@@ -0,0 +1,396 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads dictionary files, one key per line, and hands the keys to a consumer in batches.
+ *
+ * The files are read on a separate thread: bytes come from a FileChannel into a direct buffer, and are decoded as
+ * UTF-8 into a reused char buffer. Lines are cut and trimmed in place, so every key costs one String and nothing else.
+ * Full batches go through a bounded queue to the calling thread, which runs the consumer, so reading and building
+ * overlap. Files starting with the gzip magic number are decompressed on the way, and a UTF-8 byte order mark is
+ * skipped.
+ *
+ * Keys are numbered from 0 in the order of the lines, across all the files. An empty line still gets a number, as
+ * with readLine.
+ */
+public class DictionaryLoader
+{
+    /**
+     * Receives the keys, on the thread calling load
+     */
+    public interface BatchConsumer
+    {
+        /**
+         * @param keys the keys, trimmed, the array is not reused
+         * @param size the number of keys in the array
+         * @param firstIndex the number of the first key
+         */
+        void accept(String[] keys, int size, int firstIndex);
+    }
+
+    /**
+     * Called after every batch, on the thread calling load
+     */
+    public interface ProgressListener
+    {
+        void progress(LoadStats stats);
+    }
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final Batch END = new Batch(new String[0], 0, 0);
+
+    private static final class Batch
+    {
+        private final String[] keys;
+
+        private final int size;
+
+        private final int firstIndex;
+
+        Batch(String[] keys, int size, int firstIndex)
+        {
+            this.keys = keys;
+            this.size = size;
+            this.firstIndex = firstIndex;
+        }
+    }
+
+    private final int batchSize;
+
+    private final int queueCapacity;
+
+    private ProgressListener listener;
+
+    public DictionaryLoader()
+    {
+        this(4096, 16);
+    }
+
+    /**
+     * @param batchSize the number of keys of a batch
+     * @param queueCapacity the number of batches read ahead of the consumer
+     */
+    public DictionaryLoader(int batchSize, int queueCapacity)
+    {
+        this.batchSize = batchSize;
+        this.queueCapacity = queueCapacity;
+    }
+
+    public void setProgressListener(ProgressListener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * Reads the given files in order and hands all their keys to consumer
+     *
+     * @param consumer receives the keys, on the calling thread
+     * @param paths the files
+     * @return what was read, and how fast
+     * @throws IOException if a file cannot be read, the keys handed already stay handed
+     */
+    public LoadStats load(BatchConsumer consumer, String... paths) throws IOException
+    {
+        final long start = System.nanoTime();
+        Reader reader = new Reader(paths);
+        Thread thread = new Thread(reader, "dictionary-loader");
+        thread.setDaemon(true);
+        thread.start();
+        boolean done = false;
+        long lines = 0;
+        try
+        {
+            while (true)
+            {
+                Batch batch;
+                try
+                {
+                    batch = reader.queue.take();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while loading", e);
+                }
+                if (batch == END)
+                {
+                    break;
+                }
+                consumer.accept(batch.keys, batch.size, batch.firstIndex);
+                lines += batch.size;
+                if (listener != null)
+                {
+                    listener.progress(new LoadStats(System.nanoTime() - start, lines, reader.bytes, reader.files));
+                }
+            }
+            done = true;
+        }
+        finally
+        {
+            if (!done)
+            {
+                // stop the reader, it may be blocked on a full queue
+                reader.cancelled = true;
+                reader.queue.clear();
+                thread.interrupt();
+            }
+            try
+            {
+                thread.join();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (reader.error instanceof IOException)
+        {
+            throw (IOException) reader.error;
+        }
+        if (reader.error instanceof RuntimeException)
+        {
+            throw (RuntimeException) reader.error;
+        }
+        if (reader.error instanceof Error)
+        {
+            throw (Error) reader.error;
+        }
+        return new LoadStats(System.nanoTime() - start, lines, reader.bytes, reader.files);
+    }
+
+    /**
+     * Reads the files on its own thread, puts the batches and then END in the queue
+     */
+    private final class Reader implements Runnable
+    {
+        private final String[] paths;
+
+        private final BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(queueCapacity);
+
+        private final ByteBuffer bytesIn = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        /**
+         * The part of the current line seen so far
+         */
+        private char[] line = new char[256];
+
+        private int lineLength;
+
+        private String[] keys = new String[batchSize];
+
+        private int size;
+
+        private int nextIndex;
+
+        private volatile long bytes;
+
+        private volatile int files;
+
+        private Throwable error;
+
+        private volatile boolean cancelled;
+
+        Reader(String[] paths)
+        {
+            this.paths = paths;
+        }
+
+        public void run()
+        {
+            try
+            {
+                for (String path : paths)
+                {
+                    readFile(path);
+                    files++;
+                }
+                if (size > 0)
+                {
+                    queue.put(new Batch(keys, size, nextIndex - size));
+                }
+            }
+            catch (InterruptedException e)
+            {
+                // the consumer gave up
+            }
+            catch (Throwable e)
+            {
+                error = e;
+            }
+            finally
+            {
+                if (!cancelled)
+                {
+                    try
+                    {
+                        queue.put(END);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        // the consumer is not waiting anymore
+                    }
+                }
+            }
+        }
+
+        private void readFile(String path) throws IOException, InterruptedException
+        {
+            FileChannel file = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+            ReadableByteChannel in = file;
+            try
+            {
+                ByteBuffer magic = ByteBuffer.allocate(2);
+                while (magic.hasRemaining() && file.read(magic) != -1)
+                {
+                }
+                file.position(0);
+                if (magic.position() == 2 && (magic.get(0) & 0xFF) == 0x1F && (magic.get(1) & 0xFF) == 0x8B)
+                {
+                    in = Channels.newChannel(new GZIPInputStream(Channels.newInputStream(file), BUFFER_SIZE));
+                }
+                decoder.reset();
+                bytesIn.clear();
+                chars.clear();
+                lineLength = 0;
+                boolean first = true;
+                boolean eof = false;
+                while (!eof)
+                {
+                    int n = in.read(bytesIn);
+                    if (n == -1)
+                    {
+                        eof = true;
+                    }
+                    else
+                    {
+                        bytes += n;
+                    }
+                    bytesIn.flip();
+                    CoderResult result;
+                    do
+                    {
+                        result = decoder.decode(bytesIn, chars, eof);
+                        if (eof && !result.isOverflow())
+                        {
+                            result = decoder.flush(chars);
+                        }
+                        chars.flip();
+                        if (first && chars.hasRemaining())
+                        {
+                            first = false;
+                            if (chars.get(chars.position()) == '\ufeff')
+                            {
+                                chars.get();
+                            }
+                        }
+                        splitLines();
+                        chars.clear();
+                    }
+                    while (result.isOverflow());
+                    bytesIn.compact();
+                }
+                if (lineLength > 0)
+                {
+                    endLine();
+                }
+            }
+            finally
+            {
+                in.close();
+                file.close();
+            }
+        }
+
+        /**
+         * Cuts the decoded chars into lines, keeping an unfinished one for the next call
+         */
+        private void splitLines() throws InterruptedException
+        {
+            char[] array = chars.array();
+            int from = chars.position();
+            int end = chars.limit();
+            for (int i = from; i < end; i++)
+            {
+                if (array[i] == '\n')
+                {
+                    append(array, from, i);
+                    endLine();
+                    from = i + 1;
+                }
+            }
+            append(array, from, end);
+        }
+
+        private void append(char[] array, int from, int to)
+        {
+            int n = to - from;
+            if (lineLength + n > line.length)
+            {
+                line = Arrays.copyOf(line, Math.max(lineLength + n, line.length * 2));
+            }
+            System.arraycopy(array, from, line, lineLength, n);
+            lineLength += n;
+        }
+
+        private void endLine() throws InterruptedException
+        {
+            // trimmed as String.trim does
+            int from = 0;
+            int to = lineLength;
+            while (from < to && line[from] <= ' ')
+            {
+                from++;
+            }
+            while (to > from && line[to - 1] <= ' ')
+            {
+                to--;
+            }
+            keys[size++] = new String(line, from, to - from);
+            nextIndex++;
+            lineLength = 0;
+            if (size == batchSize)
+            {
+                queue.put(new Batch(keys, size, nextIndex - size));
+                keys = new String[batchSize];
+                size = 0;
+            }
+        }
+    }
+}
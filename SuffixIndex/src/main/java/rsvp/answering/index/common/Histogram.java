@@ -0,0 +1,162 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative values, latencies in nanoseconds or sizes, in the log-linear buckets of HdrHistogram:
+ * the values below 16 have a bucket each, and every power of two above is cut into 16 buckets, so a recorded value is
+ * known within 1/16th of itself.
+ *
+ * Recording is a few atomic increments of preallocated counters, without allocation or lock, from any number of
+ * threads. The readings are not a consistent snapshot while values are being recorded.
+ */
+public class Histogram
+{
+    private static final int PRECISION = 4;
+
+    private static final int SUB_BUCKETS = 1 << PRECISION;
+
+    private static final int BUCKETS = (64 - PRECISION) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong sum = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value, a negative one as 0
+     */
+    public void record(long value)
+    {
+        if (value < 0)
+        {
+            value = 0;
+        }
+        counts.incrementAndGet(bucket(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long m = max.get();
+        while (value > m && !max.compareAndSet(m, value))
+        {
+            m = max.get();
+        }
+    }
+
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    public double getMean()
+    {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * Returns the smallest value that the given share of the recorded values does not exceed, within the precision of
+     * the buckets
+     *
+     * @param percentile from 0 to 100
+     * @return 0 if no value was recorded
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        long n = count.get();
+        if (n == 0)
+        {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            seen += counts.get(i);
+            if (seen >= rank)
+            {
+                return Math.min(highest(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Returns the number of recorded values from lowest to highest, both included. The bounds are rounded to buckets.
+     */
+    public long getCountBetween(long lowest, long highest)
+    {
+        long ret = 0;
+        for (int i = bucket(Math.max(0, lowest)); i <= bucket(highest); i++)
+        {
+            ret += counts.get(i);
+        }
+        return ret;
+    }
+
+    public void reset()
+    {
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    static int bucket(long value)
+    {
+        if (value < SUB_BUCKETS)
+        {
+            return (int) value;
+        }
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        return (msb - PRECISION + 1) * SUB_BUCKETS + (int) (value >>> (msb - PRECISION)) - SUB_BUCKETS;
+    }
+
+    static long lowest(int bucket)
+    {
+        if (bucket < SUB_BUCKETS)
+        {
+            return bucket;
+        }
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (bucket / SUB_BUCKETS - 1);
+    }
+
+    static long highest(int bucket)
+    {
+        return bucket == BUCKETS - 1 ? Long.MAX_VALUE : lowest(bucket + 1) - 1;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Histogram [count=" + getCount() + ", mean=" + String.format("%.1f", getMean()) + ", p50="
+                + getValueAtPercentile(50) + ", p90=" + getValueAtPercentile(90) + ", p99=" + getValueAtPercentile(99)
+                + ", p99.9=" + getValueAtPercentile(99.9) + ", max=" + getMax() + "]";
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.common;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash set of non-negative ints without boxing
+ */
+public class IntHashSet
+{
+    private static final int FREE = -1;
+
+    private int[] slots;
+
+    private int size;
+
+    public IntHashSet()
+    {
+        this(16);
+    }
+
+    public IntHashSet(int expected)
+    {
+        int capacity = 16;
+        while (capacity < expected * 2)
+        {
+            capacity <<= 1;
+        }
+        slots = new int[capacity];
+        Arrays.fill(slots, FREE);
+    }
+
+    /**
+     * Adds a non-negative value, returns false if it was present already
+     */
+    public boolean add(int value)
+    {
+        int mask = slots.length - 1;
+        int slot = hash(value) & mask;
+        while (slots[slot] != FREE)
+        {
+            if (slots[slot] == value)
+            {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = value;
+        if (++size * 2 > slots.length)
+        {
+            grow();
+        }
+        return true;
+    }
+
+    public boolean contains(int value)
+    {
+        int mask = slots.length - 1;
+        int slot = hash(value) & mask;
+        while (slots[slot] != FREE)
+        {
+            if (slots[slot] == value)
+            {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public void clear()
+    {
+        Arrays.fill(slots, FREE);
+        size = 0;
+    }
+
+    private static int hash(int value)
+    {
+        int h = value * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void grow()
+    {
+        int[] old = slots;
+        slots = new int[old.length * 2];
+        Arrays.fill(slots, FREE);
+        int mask = slots.length - 1;
+        for (int value : old)
+        {
+            if (value != FREE)
+            {
+                int slot = hash(value) & mask;
+                while (slots[slot] != FREE)
+                {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = value;
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.common;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A growable array of ints
+ */
+public class IntList
+{
+    private int[] data;
+
+    private int size;
+
+    public IntList()
+    {
+        this(4);
+    }
+
+    public IntList(int capacity)
+    {
+        data = new int[Math.max(capacity, 1)];
+    }
+
+    /**
+     * Makes room for at least capacity elements
+     */
+    public void ensureCapacity(int capacity)
+    {
+        if (capacity > data.length)
+        {
+            data = Arrays.copyOf(data, Math.max(capacity, data.length + (data.length >> 1)));
+        }
+    }
+
+    public void add(int value)
+    {
+        if (size == data.length)
+        {
+            data = Arrays.copyOf(data, size < 64 ? size * 2 : size + (size >> 1));
+        }
+        data[size++] = value;
+    }
+
+    public void addAll(int[] values, int from, int to)
+    {
+        int len = to - from;
+        if (size + len > data.length)
+        {
+            data = Arrays.copyOf(data, Math.max(size + len, size + (size >> 1)));
+        }
+        System.arraycopy(values, from, data, size, len);
+        size += len;
+    }
+
+    /**
+     * Appends all the given values, without boxing them if they are a PostingList
+     */
+    public void addAll(Collection<Integer> values)
+    {
+        if (values instanceof PostingList)
+        {
+            PostingList list = (PostingList) values;
+            ensureCapacity(size + list.size());
+            size += list.copyTo(data, size);
+        }
+        else
+        {
+            for (Integer value : values)
+            {
+                add(value);
+            }
+        }
+    }
+
+    public int get(int i)
+    {
+        return data[i];
+    }
+
+    public void set(int i, int value)
+    {
+        data[i] = value;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /**
+     * Returns the approximate number of bytes used by the array, spare capacity included
+     */
+    public long sizeInBytes()
+    {
+        return 4L * data.length;
+    }
+
+    /**
+     * Returns the last element, the list must not be empty
+     */
+    public int last()
+    {
+        return data[size - 1];
+    }
+
+    public void clear()
+    {
+        size = 0;
+    }
+
+    /**
+     * Truncates the list to the given size
+     */
+    public void setSize(int size)
+    {
+        this.size = size;
+    }
+
+    /**
+     * Returns the backing array, only the first size() elements are meaningful
+     */
+    public int[] array()
+    {
+        return data;
+    }
+
+    public int[] toArray()
+    {
+        return Arrays.copyOf(data, size);
+    }
+
+    /**
+     * Sorts the list and removes duplicated elements
+     */
+    public void sortDistinct()
+    {
+        Arrays.sort(data, 0, size);
+        int n = 0;
+        for (int i = 0; i < size; i++)
+        {
+            if (n == 0 || data[n - 1] != data[i])
+            {
+                data[n++] = data[i];
+            }
+        }
+        size = n;
+    }
+
+    public void trimToSize()
+    {
+        if (data.length > size)
+        {
+            data = Arrays.copyOf(data, Math.max(size, 1));
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return Arrays.toString(toArray());
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.common;
+
+/**
+ * How far a {@link DictionaryLoader} is, and how fast it goes
+ */
+public class LoadStats
+{
+    private final long elapsedNanos;
+
+    private final long lines;
+
+    private final long bytes;
+
+    private final int files;
+
+    LoadStats(long elapsedNanos, long lines, long bytes, int files)
+    {
+        this.elapsedNanos = elapsedNanos;
+        this.lines = lines;
+        this.bytes = bytes;
+        this.files = files;
+    }
+
+    public long getElapsedNanos()
+    {
+        return elapsedNanos;
+    }
+
+    /**
+     * Returns the number of keys handed to the consumer
+     */
+    public long getLines()
+    {
+        return lines;
+    }
+
+    /**
+     * Returns the number of bytes decoded, after decompression
+     */
+    public long getBytes()
+    {
+        return bytes;
+    }
+
+    /**
+     * Returns the number of files read to the end
+     */
+    public int getFiles()
+    {
+        return files;
+    }
+
+    public double getLinesPerSecond()
+    {
+        return elapsedNanos == 0 ? 0 : lines * 1e9 / elapsedNanos;
+    }
+
+    public double getMegabytesPerSecond()
+    {
+        return elapsedNanos == 0 ? 0 : bytes * 1e9 / elapsedNanos / (1 << 20);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "LoadStats [elapsed=" + elapsedNanos / 1000000 + "ms, lines=" + lines + ", bytes=" + bytes + ", files="
+                + files + ", lines/s=" + (long) getLinesPerSecond() + ", MB/s="
+                + String.format("%.1f", getMegabytesPerSecond()) + "]";
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.common;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable, sorted set of distinct non-negative ints, used for the indices associated with a tree node.
+ *
+ * It is a read-only Collection, so it can be returned by search as a view without copying. Three encodings are
+ * available and {@link #of(int[], int, int)} picks the smallest one for the given ids:
+ *
+ * <ul>
+ * <li>a plain sorted int[], for small sets</li>
+ * <li>delta + varint encoded blocks with a skip index, for medium sparse sets</li>
+ * <li>a Roaring-style bitmap (array or bitmap containers per 2^16 ids), for dense sets</li>
+ * </ul>
+ */
+public abstract class PostingList extends AbstractCollection<Integer>
+{
+    public static final int ARRAY = 0;
+
+    public static final int VARINT = 1;
+
+    public static final int BITMAP = 2;
+
+    /**
+     * Sets up to this size are always plain arrays, they are small and fastest to scan
+     */
+    static final int ARRAY_MAX = 32;
+
+    public static final PostingList EMPTY = new ArrayPostingList(new int[0]);
+
+    /**
+     * Builds the most compact posting list for the ids in values[from, to), which must be sorted and distinct.
+     */
+    public static PostingList of(int[] values, int from, int to)
+    {
+        int n = to - from;
+        if (n == 0)
+        {
+            return EMPTY;
+        }
+        if (n <= ARRAY_MAX)
+        {
+            return new ArrayPostingList(Arrays.copyOfRange(values, from, to));
+        }
+        long arrayBytes = 4L * n;
+        long varIntBytes = VarIntPostingList.estimateBytes(values, from, to);
+        long bitmapBytes = BitmapPostingList.estimateBytes(values, from, to);
+        if (bitmapBytes < varIntBytes && bitmapBytes < arrayBytes)
+        {
+            return new BitmapPostingList(values, from, to);
+        }
+        if (varIntBytes < arrayBytes)
+        {
+            return new VarIntPostingList(values, from, to);
+        }
+        return new ArrayPostingList(Arrays.copyOfRange(values, from, to));
+    }
+
+    public static PostingList of(IntList sorted)
+    {
+        return of(sorted.array(), 0, sorted.size());
+    }
+
+    /**
+     * Returns the given ids as a posting list: the collection itself if it is one already, a sorted and distinct copy
+     * of it otherwise, such as a range of a flushRanges payload or a view without removed ids
+     */
+    public static PostingList copyOf(Collection<Integer> ids)
+    {
+        if (ids instanceof PostingList)
+        {
+            return (PostingList) ids;
+        }
+        IntList sorted = new IntList(ids.size());
+        sorted.addAll(ids);
+        sorted.sortDistinct();
+        return of(sorted);
+    }
+
+    /**
+     * Returns whether the list contains the given id
+     */
+    public abstract boolean contains(int id);
+
+    public abstract IntIterator intIterator();
+
+    /**
+     * Returns one of {@link #ARRAY}, {@link #VARINT} or {@link #BITMAP}
+     */
+    public abstract int encoding();
+
+    /**
+     * Returns the approximate number of bytes used by the encoded ids
+     */
+    public abstract long sizeInBytes();
+
+    @Override
+    public boolean contains(Object o)
+    {
+        return o instanceof Integer && contains(((Integer) o).intValue());
+    }
+
+    /**
+     * Copies the ids into dest starting at offset, and returns the number of ids copied
+     */
+    public int copyTo(int[] dest, int offset)
+    {
+        int n = offset;
+        for (IntIterator it = intIterator(); it.hasNext();)
+        {
+            dest[n++] = it.nextInt();
+        }
+        return n - offset;
+    }
+
+    public int[] toIntArray()
+    {
+        int[] ret = new int[size()];
+        copyTo(ret, 0);
+        return ret;
+    }
+
+    @Override
+    public Iterator<Integer> iterator()
+    {
+        final IntIterator it = intIterator();
+        return new Iterator<Integer>()
+        {
+            public boolean hasNext()
+            {
+                return it.hasNext();
+            }
+
+            public Integer next()
+            {
+                if (!it.hasNext())
+                {
+                    throw new NoSuchElementException();
+                }
+                return it.nextInt();
+            }
+
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Tests whether the two lists hold the same ids, whatever their encoding
+     */
+    public boolean sameIds(PostingList other)
+    {
+        if (size() != other.size())
+        {
+            return false;
+        }
+        IntIterator it1 = intIterator();
+        IntIterator it2 = other.intIterator();
+        while (it1.hasNext())
+        {
+            if (it1.nextInt() != it2.nextInt())
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
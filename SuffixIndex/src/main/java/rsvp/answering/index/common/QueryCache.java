@@ -0,0 +1,420 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.common;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A cache of query results bounded by the sum of their weights, in bytes, with TinyLFU admission.
+ *
+ * The entries are kept in LRU order. The frequency of every looked up key is estimated by a count-min sketch of 4-bit
+ * counters, halved every 10 lookups per expected entry so that old popularity fades. When a new value does not fit,
+ * it is only admitted if its key is more frequent than every entry it would evict, from the least recently used on.
+ * A burst of one-off queries thus cannot flush the hot ones out.
+ *
+ * Every lookup and offer carries the version of the source the value was computed from. A greater version drops all
+ * the entries, and a value computed from an older version than the current one is not admitted, so a source only
+ * has to increase its version on every change.
+ *
+ * A lookup takes no lock: the values are read from a concurrent map, and the looked up key is recorded in a buffer
+ * striped by thread. The sketch and the LRU order are only updated under the lock, when a buffer is full or before an
+ * offer, so a hit on a hot query costs a map read and a slot of the buffer. A record is dropped when its buffer is
+ * contended or full while another thread drains, so under heavy concurrency the frequencies and the order are
+ * sampled. Used from one thread, the cache behaves as if every lookup updated them at once. Offers lock.
+ *
+ * @param <K> the type of the queries, with equals and hashCode
+ * @param <V> the type of the results
+ */
+public class QueryCache<K, V>
+{
+    private static final class Entry<V>
+    {
+        private final V value;
+
+        private final long weight;
+
+        Entry(V value, long weight)
+        {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * The slots of a buffer, a power of two
+     */
+    private static final int BUFFER_SIZE = 64;
+
+    /**
+     * A ring of looked up keys, written by any thread and drained under the lock
+     */
+    private static final class ReadBuffer
+    {
+        private final AtomicReferenceArray<Object> slots = new AtomicReferenceArray<Object>(BUFFER_SIZE);
+
+        private final AtomicLong tail = new AtomicLong();
+
+        /**
+         * Only written under the lock
+         */
+        private volatile long head;
+
+        /**
+         * Returns false if the buffer is full or another thread took the slot
+         */
+        boolean offer(Object key)
+        {
+            long t = tail.get();
+            if (t - head >= BUFFER_SIZE || !tail.compareAndSet(t, t + 1))
+            {
+                return false;
+            }
+            slots.lazySet((int) t & (BUFFER_SIZE - 1), key);
+            return true;
+        }
+    }
+
+    /**
+     * The values, read without locking
+     */
+    private final ConcurrentHashMap<K, Entry<V>> values = new ConcurrentHashMap<K, Entry<V>>();
+
+    /**
+     * The same entries in LRU order, under the lock
+     */
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+
+    private final ReadBuffer[] buffers;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final FrequencySketch sketch;
+
+    private final long maxBytes;
+
+    private long bytes;
+
+    private volatile long version;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private long rejections;
+
+    private long evictions;
+
+    private long invalidations;
+
+    /**
+     * @param maxBytes the bound of the sum of the weights
+     * @param expectedEntries about the number of entries the bound holds, to size the sketch
+     */
+    public QueryCache(long maxBytes, int expectedEntries)
+    {
+        this.maxBytes = maxBytes;
+        this.sketch = new FrequencySketch(expectedEntries);
+        int cpus = Math.min(64, Runtime.getRuntime().availableProcessors());
+        this.buffers = new ReadBuffer[Integer.highestOneBit((cpus << 1) - 1)];
+        for (int i = 0; i < buffers.length; i++)
+        {
+            buffers[i] = new ReadBuffer();
+        }
+    }
+
+    /**
+     * Returns the value cached for key, and counts the lookup in the frequency of key
+     *
+     * @param version the version of the source now
+     * @return null on a miss
+     */
+    public V get(K key, long version)
+    {
+        if (version > this.version)
+        {
+            lock.lock();
+            try
+            {
+                advance(version);
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+        Entry<V> entry = values.get(key);
+        record(key);
+        if (entry == null)
+        {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.value;
+    }
+
+    /**
+     * Offers the value computed for key after a miss
+     *
+     * @param value not null
+     * @param weight the bytes the value holds on to
+     * @param version the version of the source read before computing the value
+     * @return whether the value was admitted
+     */
+    public boolean put(K key, V value, long weight, long version)
+    {
+        lock.lock();
+        try
+        {
+            if (version < this.version)
+            {
+                return false;
+            }
+            advance(version);
+            // the frequencies and the order of all the lookups so far
+            drain();
+            Entry<V> old = entries.remove(key);
+            if (old != null)
+            {
+                values.remove(key);
+                bytes -= old.weight;
+            }
+            if (weight > maxBytes)
+            {
+                rejections++;
+                return false;
+            }
+            long needed = bytes + weight - maxBytes;
+            if (needed > 0)
+            {
+                // the victims all have to be less frequent than the candidate
+                int frequency = sketch.frequency(key.hashCode());
+                int victims = 0;
+                long freed = 0;
+                Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator();
+                while (freed < needed)
+                {
+                    Map.Entry<K, Entry<V>> victim = it.next();
+                    if (sketch.frequency(victim.getKey().hashCode()) >= frequency)
+                    {
+                        rejections++;
+                        return false;
+                    }
+                    freed += victim.getValue().weight;
+                    victims++;
+                }
+                it = entries.entrySet().iterator();
+                for (int i = 0; i < victims; i++)
+                {
+                    Map.Entry<K, Entry<V>> victim = it.next();
+                    values.remove(victim.getKey());
+                    bytes -= victim.getValue().weight;
+                    it.remove();
+                }
+                evictions += victims;
+            }
+            Entry<V> entry = new Entry<V>(value, weight);
+            entries.put(key, entry);
+            values.put(key, entry);
+            bytes += weight;
+            return true;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops all the entries, the frequencies are kept
+     */
+    public void clear()
+    {
+        lock.lock();
+        try
+        {
+            clearEntries();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    public CacheStats getStats()
+    {
+        lock.lock();
+        try
+        {
+            return new CacheStats(hits.sum(), misses.sum(), rejections, evictions, invalidations, entries.size(),
+                    bytes);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    private void clearEntries()
+    {
+        values.clear();
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Under the lock
+     */
+    private void advance(long version)
+    {
+        if (version > this.version)
+        {
+            this.version = version;
+            if (!entries.isEmpty())
+            {
+                clearEntries();
+                invalidations++;
+            }
+        }
+    }
+
+    /**
+     * Records a lookup of key in the buffer of the thread, draining the buffers if it is full and no other thread
+     * does
+     */
+    private void record(K key)
+    {
+        ReadBuffer buffer = buffers[(int) mix(Thread.currentThread().getId()) & (buffers.length - 1)];
+        if (buffer.offer(key) || !lock.tryLock())
+        {
+            return;
+        }
+        try
+        {
+            drain();
+            buffer.offer(key);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Applies the recorded lookups to the sketch and to the LRU order, under the lock
+     */
+    @SuppressWarnings("unchecked")
+    private void drain()
+    {
+        for (ReadBuffer buffer : buffers)
+        {
+            long h = buffer.head;
+            long t = buffer.tail.get();
+            while (h < t)
+            {
+                int slot = (int) h & (BUFFER_SIZE - 1);
+                Object key = buffer.slots.get(slot);
+                if (key == null)
+                {
+                    // taken but not written yet
+                    break;
+                }
+                buffer.slots.lazySet(slot, null);
+                sketch.increment(key.hashCode());
+                entries.get((K) key);
+                h++;
+            }
+            buffer.head = h;
+        }
+    }
+
+    private static long mix(long x)
+    {
+        x = (x ^ (x >>> 33)) * 0xFF51AFD7ED558CCDL;
+        return x ^ (x >>> 33);
+    }
+
+    /**
+     * A count-min sketch of 4-bit counters, 16 to a long, with 4 hashed counters per key
+     */
+    private static final class FrequencySketch
+    {
+        private static final int[] SEEDS = { 0x97CB3127, 0xB71C6F25, 0xCA7A1E3D, 0x4D7F5B29 };
+
+        private final long[] table;
+
+        private final int mask;
+
+        private final int sampleSize;
+
+        private int additions;
+
+        FrequencySketch(int expectedEntries)
+        {
+            // 4 counters per expected entry, shared by the 4 hashes
+            int n = Integer.highestOneBit(Math.max(16, expectedEntries - 1) << 1) * 4;
+            table = new long[n / 16];
+            mask = n - 1;
+            sampleSize = 10 * Math.max(16, expectedEntries);
+        }
+
+        int frequency(int hash)
+        {
+            int ret = 15;
+            for (int i = 0; i < SEEDS.length; i++)
+            {
+                int slot = slot(hash, i);
+                ret = Math.min(ret, (int) (table[slot >>> 4] >>> ((slot & 15) << 2)) & 15);
+            }
+            return ret;
+        }
+
+        void increment(int hash)
+        {
+            for (int i = 0; i < SEEDS.length; i++)
+            {
+                int slot = slot(hash, i);
+                int shift = (slot & 15) << 2;
+                if ((table[slot >>> 4] >>> shift & 15) != 15)
+                {
+                    table[slot >>> 4] += 1L << shift;
+                }
+            }
+            if (++additions == sampleSize)
+            {
+                for (int i = 0; i < table.length; i++)
+                {
+                    table[i] = table[i] >>> 1 & 0x7777777777777777L;
+                }
+                additions /= 2;
+            }
+        }
+
+        private int slot(int hash, int i)
+        {
+            int h = (hash + SEEDS[i]) * SEEDS[i];
+            h ^= h >>> 16;
+            return h & mask;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.common;
+
+import java.util.Arrays;
+
+/**
+ * An append-only char buffer shared by all the labels of a tree.
+ *
+ * Every key is appended once, and a label is then just a (start, end) pair of offsets into the arena. Offsets never
+ * change once handed out, so they stay valid while the arena grows.
+ */
+public class TextArena
+{
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private char[] chars;
+
+    private int length;
+
+    public TextArena()
+    {
+        this(INITIAL_CAPACITY);
+    }
+
+    public TextArena(int capacity)
+    {
+        chars = new char[Math.max(capacity, 16)];
+    }
+
+    /**
+     * Appends the given characters and returns the offset of the first one.
+     */
+    public int append(CharSequence s)
+    {
+        int start = length;
+        int len = s.length();
+        ensureCapacity(length + len);
+        if (s instanceof String)
+        {
+            ((String) s).getChars(0, len, chars, length);
+        }
+        else
+        {
+            for (int i = 0; i < len; i++)
+            {
+                chars[length + i] = s.charAt(i);
+            }
+        }
+        length += len;
+        return start;
+    }
+
+    /**
+     * Appends len characters of buf starting at off and returns the offset of the first one.
+     */
+    public int append(char[] buf, int off, int len)
+    {
+        int start = length;
+        ensureCapacity(length + len);
+        System.arraycopy(buf, off, chars, length, len);
+        length += len;
+        return start;
+    }
+
+    private void ensureCapacity(int capacity)
+    {
+        if (capacity > chars.length)
+        {
+            chars = Arrays.copyOf(chars, Math.max(capacity, chars.length + (chars.length >> 1)));
+        }
+    }
+
+    public char charAt(int pos)
+    {
+        return chars[pos];
+    }
+
+    public int length()
+    {
+        return length;
+    }
+
+    /**
+     * Tests whether the len characters starting at pos1 are equal to the len characters starting at pos2.
+     */
+    public boolean regionMatches(int pos1, int pos2, int len)
+    {
+        if (pos1 == pos2)
+        {
+            return true;
+        }
+        for (int i = 0; i < len; i++)
+        {
+            if (chars[pos1 + i] != chars[pos2 + i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tests whether the len characters starting at pos are equal to the len characters of s starting at off.
+     */
+    public boolean regionMatches(int pos, CharSequence s, int off, int len)
+    {
+        for (int i = 0; i < len; i++)
+        {
+            if (chars[pos + i] != s.charAt(off + i))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String substring(int start, int end)
+    {
+        return new String(chars, start, end - start);
+    }
+
+    /**
+     * Returns a copy of the used part of the arena.
+     */
+    public char[] toCharArray()
+    {
+        return Arrays.copyOf(chars, length);
+    }
+
+    /**
+     * Returns the approximate number of bytes used by the buffer, spare capacity included
+     */
+    public long sizeInBytes()
+    {
+        return 2L * chars.length;
+    }
+
+    /**
+     * Releases the spare capacity of the arena.
+     */
+    public void trimToSize()
+    {
+        if (chars.length > length)
+        {
+            chars = Arrays.copyOf(chars, Math.max(length, 16));
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.common;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The set of removed indices of an index, one bit per index, and the views of search results without them.
+ */
+public class Tombstones
+{
+    private long[] bits;
+
+    private int size;
+
+    public Tombstones()
+    {
+        this.bits = new long[0];
+    }
+
+    /**
+     * Returns a copy of this set, that can be changed without changing this one
+     */
+    public Tombstones copy()
+    {
+        Tombstones ret = new Tombstones();
+        ret.bits = bits.clone();
+        ret.size = size;
+        return ret;
+    }
+
+    /**
+     * Adds a non-negative index, returns false if it was present already. The set takes one bit per index up to the
+     * greatest one.
+     * 
+     * @throws IllegalArgumentException if index is negative
+     */
+    public boolean add(int index)
+    {
+        if (index < 0)
+        {
+            throw new IllegalArgumentException("Negative index : " + index);
+        }
+        int word = index >>> 6;
+        if (word >= bits.length)
+        {
+            bits = Arrays.copyOf(bits, Math.max(word + 1, bits.length + (bits.length >> 1)));
+        }
+        long mask = 1L << index;
+        if ((bits[word] & mask) != 0)
+        {
+            return false;
+        }
+        bits[word] |= mask;
+        size++;
+        return true;
+    }
+
+    public boolean contains(int index)
+    {
+        int word = index >>> 6;
+        return word < bits.length && (bits[word] & 1L << index) != 0;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public void clear()
+    {
+        bits = new long[0];
+        size = 0;
+    }
+
+    /**
+     * Returns the number of indices of results that are not removed, in one pass
+     */
+    public int countLive(Collection<Integer> results)
+    {
+        int n = 0;
+        for (IntIterator it = intIterator(results); it.hasNext();)
+        {
+            if (!contains(it.nextInt()))
+            {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Returns a view of results without the removed indices, in the same order. Nothing is copied: the iterators skip
+     * the removed indices, and size() counts the other ones once.
+     */
+    public Collection<Integer> filter(final Collection<Integer> results)
+    {
+        if (size == 0)
+        {
+            return results;
+        }
+        return new AbstractCollection<Integer>()
+        {
+            private int liveSize = -1;
+
+            @Override
+            public Iterator<Integer> iterator()
+            {
+                final IntIterator it = intIterator(results);
+                return new Iterator<Integer>()
+                {
+                    private boolean ready;
+
+                    private int next;
+
+                    public boolean hasNext()
+                    {
+                        while (!ready && it.hasNext())
+                        {
+                            next = it.nextInt();
+                            ready = !Tombstones.this.contains(next);
+                        }
+                        return ready;
+                    }
+
+                    public Integer next()
+                    {
+                        if (!hasNext())
+                        {
+                            throw new NoSuchElementException();
+                        }
+                        ready = false;
+                        return next;
+                    }
+
+                    public void remove()
+                    {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object o)
+            {
+                return o instanceof Integer && !Tombstones.this.contains((Integer) o) && results.contains(o);
+            }
+
+            @Override
+            public int size()
+            {
+                if (liveSize < 0)
+                {
+                    liveSize = countLive(results);
+                }
+                return liveSize;
+            }
+        };
+    }
+
+    /**
+     * Walks results without boxing when it is a posting list
+     */
+    private static IntIterator intIterator(Collection<Integer> results)
+    {
+        if (results instanceof PostingList)
+        {
+            return ((PostingList) results).intIterator();
+        }
+        final Iterator<Integer> it = results.iterator();
+        return new IntIterator()
+        {
+            public boolean hasNext()
+            {
+                return it.hasNext();
+            }
+
+            public int nextInt()
+            {
+                return it.next();
+            }
+        };
+    }
+}
@@ -15,17 +15,13 @@
  */
 package rsvp.answering.index.common;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.UnsupportedEncodingException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
 
 import rsvp.answering.index.gst.GSuffixTree;
+import rsvp.answering.index.gst.SubstringMatch;
 import rsvp.answering.index.trie.TrieTree;
 
 public class Utils
@@ -94,34 +90,26 @@ public class Utils
         return ret;
     }
 
-    public static HashMap<String, Integer> generateHashMap(String path)
+    /**
+     * Maps every line of the given files, trimmed, to its line number
+     *
+     * @throws IOException if a file cannot be read
+     * @see DictionaryLoader
+     */
+    public static HashMap<String, Integer> generateHashMap(String... paths) throws IOException
     {
-        HashMap<String, Integer> map = new HashMap<String, Integer>();
-        try
+        final HashMap<String, Integer> map = new HashMap<String, Integer>();
+        new DictionaryLoader().load(new DictionaryLoader.BatchConsumer()
         {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(path), "utf-8"));
-            int index = 0;
-            String line = null;
-            while ((line = reader.readLine()) != null)
+            public void accept(String[] keys, int size, int firstIndex)
             {
-                map.put(line, index++);
+                for (int i = 0; i < size; i++)
+                {
+                    map.put(keys[i], firstIndex + i);
+                }
             }
-            System.out.println("Load " + index + " to hashmap!");
-            return map;
-        }
-        catch (UnsupportedEncodingException e)
-        {
-            e.printStackTrace();
-        }
-        catch (FileNotFoundException e)
-        {
-            e.printStackTrace();
-        }
-        catch (IOException e)
-        {
-            e.printStackTrace();
-        }
-        return null;
+        }, paths);
+        return map;
     }
 
     // @SuppressWarnings("unchecked")
@@ -183,19 +171,15 @@ public class Utils
     // return node;
     // }
 
+    /**
+     * Returns the longest substring of word that is a substring of some key of the tree, in one O(m) walk
+     * 
+     * @see GSuffixTree#longestSubstring(CharSequence)
+     */
     public static String findLongestSubstring(GSuffixTree tree, String word)
     {
-        String longestSubstr = "";
-        for (int i = 0; i < word.length() - 1; i++)
-        {
-            String suffix = word.substring(i);
-            String matched = tree.match(suffix);
-            if (matched.length() > longestSubstr.length())
-            {
-                longestSubstr = matched;
-            }
-        }
-        return longestSubstr;
+        SubstringMatch match = tree.longestSubstring(word);
+        return match == null ? "" : word.substring(match.getStart(), match.getEnd());
     }
 
     public static String findLongestSubstring(TrieTree tree, String word)
@@ -229,7 +213,7 @@ public class Utils
         return ((bytes[0] & 0xff) << 24) | ((bytes[1] & 0xff) << 16) | ((bytes[2] & 0xff) << 8) | (bytes[3] & 0xff);
     }
 
-    public static void main(String[] args)
+    public static void main(String[] args) throws IOException
     {
         // GSuffixTree.buildTree("data/poi2.txt");
         //
@@ -0,0 +1,203 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.common;
+
+import java.util.Arrays;
+
+/**
+ * A posting list stored as blocks of delta + varint encoded ids.
+ *
+ * Every block holds up to {@value #BLOCK_SIZE} ids. The first id of a block is kept uncompressed in a skip index, the
+ * following ones are the varint encoded differences from their predecessor, so contains only decodes one block.
+ */
+final class VarIntPostingList extends PostingList
+{
+    static final int BLOCK_SIZE = 128;
+
+    private final int size;
+
+    /**
+     * The first id of every block
+     */
+    private final int[] blockFirst;
+
+    /**
+     * Offset in data of the deltas of every block
+     */
+    private final int[] blockOffset;
+
+    private final byte[] data;
+
+    VarIntPostingList(int[] values, int from, int to)
+    {
+        this.size = to - from;
+        int blocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        this.blockFirst = new int[blocks];
+        this.blockOffset = new int[blocks];
+        byte[] buf = new byte[(int) estimateBytes(values, from, to)];
+        int pos = 0;
+        for (int i = from; i < to; i++)
+        {
+            int n = i - from;
+            if (n % BLOCK_SIZE == 0)
+            {
+                blockFirst[n / BLOCK_SIZE] = values[i];
+                blockOffset[n / BLOCK_SIZE] = pos;
+            }
+            else
+            {
+                pos = writeVarInt(buf, pos, values[i] - values[i - 1]);
+            }
+        }
+        this.data = Arrays.copyOf(buf, pos);
+    }
+
+    /**
+     * Returns the number of bytes the given sorted ids take in this encoding
+     */
+    static long estimateBytes(int[] values, int from, int to)
+    {
+        long bytes = 0;
+        for (int i = from; i < to; i++)
+        {
+            if ((i - from) % BLOCK_SIZE == 0)
+            {
+                bytes += 8;
+            }
+            else
+            {
+                bytes += varIntLength(values[i] - values[i - 1]);
+            }
+        }
+        return bytes;
+    }
+
+    private static int varIntLength(int value)
+    {
+        int len = 1;
+        while ((value & ~0x7F) != 0)
+        {
+            value >>>= 7;
+            len++;
+        }
+        return len;
+    }
+
+    private static int writeVarInt(byte[] buf, int pos, int value)
+    {
+        while ((value & ~0x7F) != 0)
+        {
+            buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[pos++] = (byte) value;
+        return pos;
+    }
+
+    @Override
+    public boolean contains(int id)
+    {
+        int block = Arrays.binarySearch(blockFirst, id);
+        if (block >= 0)
+        {
+            return true;
+        }
+        block = -block - 2;
+        if (block < 0)
+        {
+            return false;
+        }
+        int value = blockFirst[block];
+        int pos = blockOffset[block];
+        int count = Math.min(BLOCK_SIZE, size - block * BLOCK_SIZE);
+        for (int i = 1; i < count && value < id; i++)
+        {
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do
+            {
+                b = data[pos++];
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            }
+            while (b < 0);
+            value += delta;
+        }
+        return value == id;
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    public IntIterator intIterator()
+    {
+        return new IntIterator()
+        {
+            private int n = 0;
+
+            private int pos = 0;
+
+            private int value;
+
+            public boolean hasNext()
+            {
+                return n < size;
+            }
+
+            public int nextInt()
+            {
+                if (n % BLOCK_SIZE == 0)
+                {
+                    value = blockFirst[n / BLOCK_SIZE];
+                    pos = blockOffset[n / BLOCK_SIZE];
+                }
+                else
+                {
+                    int delta = 0;
+                    int shift = 0;
+                    byte b;
+                    do
+                    {
+                        b = data[pos++];
+                        delta |= (b & 0x7F) << shift;
+                        shift += 7;
+                    }
+                    while (b < 0);
+                    value += delta;
+                }
+                n++;
+                return value;
+            }
+        };
+    }
+
+    @Override
+    public int encoding()
+    {
+        return VARINT;
+    }
+
+    @Override
+    public long sizeInBytes()
+    {
+        return data.length + 8L * blockFirst.length;
+    }
+}
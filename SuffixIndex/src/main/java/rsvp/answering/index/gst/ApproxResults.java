@@ -0,0 +1,87 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.gst;
+
+/**
+ * The keys found by {@link GSuffixTree#searchApprox(String, int)}: their indices, each one with the smallest edit
+ * distance between the query and a substring of its key, by increasing distance then index.
+ */
+public class ApproxResults
+{
+    private final int[] indices;
+
+    private final int[] distances;
+
+    ApproxResults(int[] indices, int[] distances)
+    {
+        this.indices = indices;
+        this.distances = distances;
+    }
+
+    public int size()
+    {
+        return indices.length;
+    }
+
+    public boolean isEmpty()
+    {
+        return indices.length == 0;
+    }
+
+    /**
+     * Returns the index of the i-th key found
+     */
+    public int getIndex(int i)
+    {
+        return indices[i];
+    }
+
+    /**
+     * Returns the distance of the i-th key found
+     */
+    public int getDistance(int i)
+    {
+        return distances[i];
+    }
+
+    /**
+     * Returns the number of keys found at most the given distance away, they come first
+     */
+    public int countWithin(int distance)
+    {
+        int ret = 0;
+        while (ret < distances.length && distances[ret] <= distance)
+        {
+            ret++;
+        }
+        return ret;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder ret = new StringBuilder("[");
+        for (int i = 0; i < indices.length; i++)
+        {
+            if (i > 0)
+            {
+                ret.append(", ");
+            }
+            ret.append(indices[i]).append('@').append(distances[i]);
+        }
+        return ret.append(']').toString();
+    }
+}
@@ -0,0 +1,214 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.gst;
+
+import java.util.Collection;
+
+import rsvp.answering.index.common.CacheStats;
+import rsvp.answering.index.common.PostingList;
+import rsvp.answering.index.common.QueryCache;
+
+/**
+ * A {@link QueryCache} in front of the search, count and longestSubstring of a {@link GSuffixTree}, for skewed
+ * traffic where a few short queries such as "北京" come again and again and each time walk the tree to the same huge
+ * result sets.
+ *
+ * The bound is on the bytes of the posting lists the cached results read, not on their number, so a single root
+ * adjacent query cannot hold more than its share. The entries are stamped with {@link GSuffixTree#getVersion()}, and
+ * all of them are dropped on the first query after the tree changed: addWord, remove, flush or compact.
+ *
+ * It is as thread-safe as the tree: any number of threads may query a tree that is not being changed.
+ */
+public class CachedSuffixIndex
+{
+    private static final int SEARCH = 0;
+
+    private static final int COUNT = 1;
+
+    private static final int LONGEST = 2;
+
+    /**
+     * The weight of an entry besides its key and results
+     */
+    private static final long ENTRY_BYTES = 64;
+
+    /**
+     * Cached for a query without results
+     */
+    private static final Object NONE = new Object();
+
+    private static final class Query
+    {
+        private final int kind;
+
+        private final String word;
+
+        private final int hash;
+
+        Query(int kind, String word)
+        {
+            this.kind = kind;
+            this.word = word;
+            this.hash = 31 * word.hashCode() + kind;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Query))
+            {
+                return false;
+            }
+            Query other = (Query) o;
+            return kind == other.kind && word.equals(other.word);
+        }
+    }
+
+    private final GSuffixTree tree;
+
+    private final QueryCache<Query, Object> cache;
+
+    /**
+     * @param tree the tree to query, flushed
+     * @param maxBytes the bound of the bytes of the cached results
+     */
+    public CachedSuffixIndex(GSuffixTree tree, long maxBytes)
+    {
+        this(tree, maxBytes, (int) Math.min(1 << 20, Math.max(64, maxBytes / 256)));
+    }
+
+    /**
+     * @param tree the tree to query, flushed
+     * @param maxBytes the bound of the bytes of the cached results
+     * @param expectedEntries about the number of results the bound holds
+     */
+    public CachedSuffixIndex(GSuffixTree tree, long maxBytes, int expectedEntries)
+    {
+        this.tree = tree;
+        this.cache = new QueryCache<Query, Object>(maxBytes, expectedEntries);
+    }
+
+    /**
+     * @see GSuffixTree#search(String)
+     */
+    @SuppressWarnings("unchecked")
+    public Collection<Integer> search(String word)
+    {
+        Query query = new Query(SEARCH, word);
+        long version = tree.getVersion();
+        Object ret = cache.get(query, version);
+        if (ret == null)
+        {
+            Collection<Integer> results = tree.search(word);
+            cache.put(query, results == null ? NONE : results, weight(word, results), version);
+            return results;
+        }
+        return ret == NONE ? null : (Collection<Integer>) ret;
+    }
+
+    /**
+     * @see GSuffixTree#count(String)
+     */
+    public int count(String word)
+    {
+        Query query = new Query(COUNT, word);
+        long version = tree.getVersion();
+        Integer ret = (Integer) cache.get(query, version);
+        if (ret == null)
+        {
+            ret = tree.count(word);
+            cache.put(query, ret, weight(word, null), version);
+        }
+        return ret;
+    }
+
+    /**
+     * @see GSuffixTree#longestSubstring(CharSequence)
+     */
+    public SubstringMatch longestSubstring(CharSequence word)
+    {
+        String key = word.toString();
+        Query query = new Query(LONGEST, key);
+        long version = tree.getVersion();
+        Object ret = cache.get(query, version);
+        if (ret == null)
+        {
+            SubstringMatch match = tree.longestSubstring(key);
+            cache.put(query, match == null ? NONE : match, weight(key, match == null ? null : match.getResults()),
+                    version);
+            return match;
+        }
+        return ret == NONE ? null : (SubstringMatch) ret;
+    }
+
+    /**
+     * Removes an index from the tree, which drops the cached results on the next query
+     *
+     * @see GSuffixTree#remove(int)
+     */
+    public boolean remove(int index)
+    {
+        return tree.remove(index);
+    }
+
+    /**
+     * Returns the hit rate and the other figures of the cache
+     */
+    public CacheStats getStats()
+    {
+        return cache.getStats();
+    }
+
+    /**
+     * Drops all the cached results
+     */
+    public void clear()
+    {
+        cache.clear();
+    }
+
+    public GSuffixTree getTree()
+    {
+        return tree;
+    }
+
+    /**
+     * Returns the bytes of an entry: its key, and the posting list its results read
+     */
+    private static long weight(String word, Collection<Integer> results)
+    {
+        long ret = ENTRY_BYTES + 2L * word.length();
+        if (results instanceof PostingList)
+        {
+            ret += ((PostingList) results).sizeInBytes();
+        }
+        else if (results instanceof RangeResults)
+        {
+            ret += 4L * ((RangeResults) results).span();
+        }
+        else if (results != null)
+        {
+            ret += 4L * results.size();
+        }
+        return ret;
+    }
+}
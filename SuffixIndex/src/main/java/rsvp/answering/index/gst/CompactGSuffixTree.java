@@ -0,0 +1,302 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.gst;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+
+import rsvp.answering.index.common.CharIntMap;
+import rsvp.answering.index.common.PostingList;
+
+/**
+ * A read-only, columnar copy of a flushed {@link GSuffixTree}.
+ *
+ * Instead of one GSTNode/GSTEdge object per node and edge, every attribute is kept in a parallel primitive array
+ * indexed by node or edge number:
+ *
+ * <ul>
+ * <li>edge labels are (start, end) offsets into one shared char buffer, a copy of the text arena of the tree</li>
+ * <li>edge destinations and node suffix links are plain int[]</li>
+ * <li>the children of a node are a sorted run of (char, edge) pairs in a CSR layout, looked up by binary search</li>
+ * <li>the indices of a node are the immutable posting list computed by the flush, shared with the source tree, or
+ * a sorted copy of the range of the node if the tree was flushed with flushRanges</li>
+ * </ul>
+ *
+ * Node and edge numbers are the same as in the source tree, so the two can be compared one to one. The search and
+ * match operations behave exactly like the ones of GSuffixTree.
+ */
+public class CompactGSuffixTree
+{
+    /**
+     * The characters of all edge labels
+     */
+    final char[] text;
+
+    final int[] edgeStart;
+
+    final int[] edgeEnd;
+
+    final int[] edgeDest;
+
+    /**
+     * Suffix link of every node, -1 if the node has none
+     */
+    final int[] suffix;
+
+    /**
+     * The children of node n are childChars/childEdges[childOffsets[n], childOffsets[n + 1]), sorted by char
+     */
+    final int[] childOffsets;
+
+    final char[] childChars;
+
+    final int[] childEdges;
+
+    /**
+     * The indices of every node
+     */
+    final PostingList[] postings;
+
+    final int root;
+
+    /**
+     * Copies the given tree into primitive arrays. The tree should be flushed first, the indices are copied as they
+     * are.
+     *
+     * @param tree the source tree
+     * @throws IllegalStateException if the tree has removed indices, see {@link GSuffixTree#compact()}
+     */
+    public CompactGSuffixTree(GSuffixTree tree)
+    {
+        if (tree.getRemovedNum() > 0)
+        {
+            throw new IllegalStateException("The tree has removed indices, compact it first");
+        }
+        int nodeNum = tree.nodes.size();
+        int edgeNum = tree.edges.size();
+        this.root = tree.rootIndex();
+
+        this.text = tree.getArena().toCharArray();
+        this.edgeStart = new int[edgeNum];
+        this.edgeEnd = new int[edgeNum];
+        this.edgeDest = new int[edgeNum];
+        for (int e = 0; e < edgeNum; e++)
+        {
+            GSTEdge edge = tree.edge(e);
+            edgeStart[e] = edge.getStart();
+            edgeEnd[e] = edge.getEnd();
+            edgeDest[e] = edge.getDest();
+        }
+
+        int childNum = 0;
+        for (GSTNode node : tree.nodes)
+        {
+            childNum += node.getEdges().size();
+        }
+        this.suffix = new int[nodeNum];
+        this.childOffsets = new int[nodeNum + 1];
+        this.childChars = new char[childNum];
+        this.childEdges = new int[childNum];
+        this.postings = new PostingList[nodeNum];
+        int c = 0;
+        for (int n = 0; n < nodeNum; n++)
+        {
+            GSTNode node = tree.node(n);
+            suffix[n] = node.getSuffix();
+
+            childOffsets[n] = c;
+            CharIntMap children = node.getEdges();
+            for (char key : children.sortedKeys())
+            {
+                childChars[c] = key;
+                childEdges[c] = children.get(key);
+                c++;
+            }
+
+            postings[n] = tree.nodePostings(n);
+        }
+        childOffsets[nodeNum] = c;
+    }
+
+    /**
+     * @see GSuffixTree#search(String)
+     */
+    public Collection<Integer> search(String word)
+    {
+        int node = searchNode(word);
+        if (node == -1)
+        {
+            return null;
+        }
+        return postings[node];
+    }
+
+    /**
+     * Returns the node that corresponds to the given string, -1 if there is none.
+     */
+    private int searchNode(String word)
+    {
+        int currentNode = root;
+        for (int i = 0; i < word.length();)
+        {
+            int e = getEdge(currentNode, word.charAt(i));
+            if (e == -1)
+            {
+                return -1;
+            }
+            int start = edgeStart[e];
+            int lenToMatch = Math.min(word.length() - i, edgeEnd[e] - start);
+            for (int j = 0; j < lenToMatch; j++)
+            {
+                if (word.charAt(i + j) != text[start + j])
+                {
+                    return -1;
+                }
+            }
+            i += lenToMatch;
+            currentNode = edgeDest[e];
+        }
+        return word.length() == 0 ? -1 : currentNode;
+    }
+
+    /**
+     * @see GSuffixTree#match(String)
+     */
+    public String match(String word)
+    {
+        int currentNode = root;
+        int i = 0;
+        while (i < word.length())
+        {
+            int e = getEdge(currentNode, word.charAt(i));
+            if (e == -1)
+            {
+                break;
+            }
+            int j = edgeStart[e];
+            int end = edgeEnd[e];
+            while (j < end && i < word.length() && word.charAt(i) == text[j])
+            {
+                i++;
+                j++;
+            }
+            if (j < end)
+            {
+                break;
+            }
+            currentNode = edgeDest[e];
+        }
+        return word.substring(0, i);
+    }
+
+    /**
+     * Returns the edge leaving node whose label starts with ch, -1 if there is none.
+     */
+    int getEdge(int node, char ch)
+    {
+        int low = childOffsets[node];
+        int high = childOffsets[node + 1] - 1;
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            char midCh = childChars[mid];
+            if (midCh < ch)
+            {
+                low = mid + 1;
+            }
+            else if (midCh > ch)
+            {
+                high = mid - 1;
+            }
+            else
+            {
+                return childEdges[mid];
+            }
+        }
+        return -1;
+    }
+
+    public int getNodeNum()
+    {
+        return suffix.length;
+    }
+
+    public int getEdgeNum()
+    {
+        return edgeDest.length;
+    }
+
+    /**
+     * Returns the number of bytes held by the arrays and the posting lists of this tree, not counting object headers.
+     */
+    public long estimateBytes()
+    {
+        long bytes = 2L * (text.length + childChars.length);
+        bytes += 4L * (edgeStart.length + edgeEnd.length + edgeDest.length);
+        bytes += 4L * (suffix.length + childOffsets.length + childEdges.length);
+        for (PostingList list : postings)
+        {
+            bytes += list.sizeInBytes();
+        }
+        return bytes;
+    }
+
+    private static long usedMemory()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+        {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Compares the heap used by the object graph of a GSuffixTree with the one used by its compact copy.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        String path = args.length > 0 ? args[0] : "data/poi.txt";
+
+        long m0 = usedMemory();
+        GSuffixTree tree = GSuffixTree.buildTree(path);
+        tree.flush();
+        long m1 = usedMemory();
+
+        CompactGSuffixTree compact = new CompactGSuffixTree(tree);
+        long m2 = usedMemory();
+
+        System.out.println("Nodes : " + compact.getNodeNum() + ", Edges : " + compact.getEdgeNum());
+        System.out.println("Object graph : " + (m1 - m0) / 1024 + " KB");
+        System.out.println("Compact      : " + (m2 - m1) / 1024 + " KB (arrays : " + compact.estimateBytes() / 1024 + " KB)");
+
+        int mismatches = 0;
+        for (String s : new HashSet<String>(Arrays.asList("五道口", "北京", "地铁站", "城铁")))
+        {
+            Collection<Integer> expect = tree.search(s);
+            Collection<Integer> actual = compact.search(s);
+            if (expect == null ? actual != null : actual == null || !new HashSet<Integer>(expect).equals(new HashSet<Integer>(actual)))
+            {
+                mismatches++;
+            }
+        }
+        System.out.println("Mismatches : " + mismatches);
+        // keep the source tree reachable until both have been measured
+        System.out.println(tree.nodes.size() == compact.getNodeNum());
+    }
+}
@@ -0,0 +1,645 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.gst;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import rsvp.answering.index.common.IntIterator;
+import rsvp.answering.index.common.IntList;
+import rsvp.answering.index.common.PostingList;
+import rsvp.answering.index.common.Tombstones;
+
+/**
+ * An index taking new keys while it is being searched.
+ *
+ * Searches run on an immutable {@link Snapshot}: a list of flushed GSuffixTree segments that are never modified once
+ * published. A single writer at a time buffers keys with addWord, and commit turns them into a new segment and
+ * publishes a new snapshot through a volatile field. Readers never lock, and see either the old snapshot or the new
+ * one, never a tree being built.
+ *
+ * Segments are kept in decreasing size, each more than MERGE_RATIO times larger than the next one. When a commit
+ * breaks that, the smallest segments are rebuilt into one, so there are O(log n) segments and every key is rebuilt
+ * O(log n) times.
+ *
+ * Removed indices are published by commit as well, as tombstones that the queries skip. A segment whose share of
+ * removed keys passes the compaction threshold is rebuilt without them, on the compaction executor if there is one,
+ * so that queries do not keep walking dead postings.
+ */
+public class ConcurrentSuffixIndex
+{
+    private static final int MERGE_RATIO = 2;
+
+    /**
+     * The keys and indices of one tree, kept to rebuild it when merging or compacting
+     */
+    private static final class Segment
+    {
+        private final GSuffixTree tree;
+
+        private final String[] keys;
+
+        private final int[] indices;
+
+        private Segment(String[] keys, int[] indices)
+        {
+            this.keys = keys;
+            this.indices = indices;
+            this.tree = new GSuffixTree();
+            for (int i = 0; i < keys.length; i++)
+            {
+                tree.addWord(keys[i], indices[i]);
+            }
+            tree.flush();
+        }
+
+        /**
+         * Builds a segment of the given keys that are not removed
+         *
+         * @return null if all the keys are removed
+         */
+        static Segment of(List<String> keys, IntList indices, Tombstones removed)
+        {
+            List<String> liveKeys = new ArrayList<String>(keys.size());
+            IntList liveIndices = new IntList(indices.size());
+            for (int i = 0; i < keys.size(); i++)
+            {
+                if (!removed.contains(indices.get(i)))
+                {
+                    liveKeys.add(keys.get(i));
+                    liveIndices.add(indices.get(i));
+                }
+            }
+            return liveKeys.isEmpty() ? null : new Segment(liveKeys.toArray(new String[liveKeys.size()]),
+                    liveIndices.toArray());
+        }
+
+        /**
+         * Builds one segment of the keys of the given ones that are not removed
+         *
+         * @return null if all the keys are removed
+         */
+        static Segment merge(List<Segment> segments, Tombstones removed)
+        {
+            List<String> keys = new ArrayList<String>();
+            IntList indices = new IntList();
+            for (Segment segment : segments)
+            {
+                keys.addAll(Arrays.asList(segment.keys));
+                indices.addAll(segment.indices, 0, segment.indices.length);
+            }
+            return of(keys, indices, removed);
+        }
+
+        /**
+         * Returns the number of keys with the given index
+         */
+        int count(int index)
+        {
+            int low = 0;
+            int high = indices.length;
+            while (low < high)
+            {
+                int mid = (low + high) >>> 1;
+                if (indices[mid] < index)
+                {
+                    low = mid + 1;
+                }
+                else
+                {
+                    high = mid;
+                }
+            }
+            int n = 0;
+            while (low + n < indices.length && indices[low + n] == index)
+            {
+                n++;
+            }
+            return n;
+        }
+
+        int countRemoved(Tombstones removed)
+        {
+            int n = 0;
+            for (int index : indices)
+            {
+                if (removed.contains(index))
+                {
+                    n++;
+                }
+            }
+            return n;
+        }
+    }
+
+    /**
+     * A published state of the index. It never changes, so all the queries on it see the same keys.
+     */
+    public static final class Snapshot
+    {
+        private final Segment[] segments;
+
+        /**
+         * The number of removed keys of every segment
+         */
+        private final int[] deadKeys;
+
+        private final Tombstones removed;
+
+        private final long version;
+
+        private final int keyNum;
+
+        private Snapshot(Segment[] segments, int[] deadKeys, Tombstones removed, long version)
+        {
+            this.segments = segments;
+            this.deadKeys = deadKeys;
+            this.removed = removed;
+            this.version = version;
+            int n = 0;
+            for (int i = 0; i < segments.length; i++)
+            {
+                n += segments[i].keys.length - deadKeys[i];
+            }
+            this.keyNum = n;
+        }
+
+        /**
+         * Returns the indices of the keys containing word, in ascending order, without copying the results of the
+         * segments
+         *
+         * @see GSuffixTree#search(String)
+         * @return null if no key contains word
+         */
+        public Collection<Integer> search(String word)
+        {
+            if (segments.length == 1 && deadKeys[0] == 0)
+            {
+                return segments[0].tree.search(word);
+            }
+            List<PostingList> lists = new ArrayList<PostingList>(segments.length);
+            int size = 0;
+            boolean filter = false;
+            for (int i = 0; i < segments.length; i++)
+            {
+                Segment segment = segments[i];
+                Collection<Integer> results = segment.tree.search(word);
+                if (results == null)
+                {
+                    continue;
+                }
+                PostingList list = PostingList.copyOf(results);
+                int live = deadKeys[i] == 0 ? list.size() : removed.countLive(list);
+                if (live == 0)
+                {
+                    continue;
+                }
+                filter |= live < list.size();
+                size += live;
+                // only the first index of a segment can also be in the ones before it
+                int first = segment.indices[0];
+                if (!lists.isEmpty() && list.contains(first) && lists.get(lists.size() - 1).contains(first)
+                        && !removed.contains(first))
+                {
+                    size--;
+                }
+                lists.add(list);
+            }
+            return lists.isEmpty() ? null : new MergedResults(lists, size, filter ? removed : null);
+        }
+
+        /**
+         * @see GSuffixTree#count(String)
+         */
+        public int count(String word)
+        {
+            if (segments.length == 1 && deadKeys[0] == 0)
+            {
+                return segments[0].tree.count(word);
+            }
+            Collection<Integer> results = search(word);
+            return results == null ? 0 : results.size();
+        }
+
+        /**
+         * @see GSuffixTree#searchTopK(String, int, float[])
+         */
+        public int[] searchTopK(String word, int k, float[] scores)
+        {
+            if (segments.length == 1 && deadKeys[0] == 0)
+            {
+                return segments[0].tree.searchTopK(word, k, scores);
+            }
+            TopKCollector collector = new TopKCollector(scores, k);
+            for (int i = 0; i < segments.length; i++)
+            {
+                if (deadKeys[i] == 0)
+                {
+                    for (int id : segments[i].tree.searchTopK(word, k, scores))
+                    {
+                        collector.offer(id);
+                    }
+                    continue;
+                }
+                // the best k of the segment may be removed ones
+                Collection<Integer> results = segments[i].tree.search(word);
+                if (results == null)
+                {
+                    continue;
+                }
+                for (IntIterator it = PostingList.copyOf(results).intIterator(); it.hasNext();)
+                {
+                    int id = it.nextInt();
+                    if (!removed.contains(id))
+                    {
+                        collector.offer(id);
+                    }
+                }
+            }
+            return collector.drain();
+        }
+
+        /**
+         * The removed keys are skipped: a span only they contain is not a match.
+         *
+         * @see GSuffixTree#longestSubstring(CharSequence)
+         */
+        public SubstringMatch longestSubstring(CharSequence word)
+        {
+            List<SubstringMatch> matches = new ArrayList<SubstringMatch>(segments.length);
+            for (int i = 0; i < segments.length; i++)
+            {
+                matches.add(segments[i].tree.longestSubstring(word, deadKeys[i] > 0 ? removed : null));
+            }
+            return SubstringMatch.merge(matches);
+        }
+
+        /**
+         * Returns the number of commits and compactions before this snapshot
+         */
+        public long getVersion()
+        {
+            return version;
+        }
+
+        /**
+         * Returns the number of keys added and not removed before this snapshot
+         */
+        public int getKeyNum()
+        {
+            return keyNum;
+        }
+
+        /**
+         * Returns the number of removed keys still in the segments
+         */
+        public int getDeadKeyNum()
+        {
+            int n = 0;
+            for (int dead : deadKeys)
+            {
+                n += dead;
+            }
+            return n;
+        }
+
+        public int getSegmentNum()
+        {
+            return segments.length;
+        }
+    }
+
+    private volatile Snapshot snapshot = new Snapshot(new Segment[0], new int[0], new Tombstones(), 0);
+
+    /**
+     * Keys added since the last commit, only seen by the writer
+     */
+    private final List<String> pendingKeys = new ArrayList<String>();
+
+    private final IntList pendingIndices = new IntList();
+
+    /**
+     * Indices removed since the last commit
+     */
+    private final IntList pendingRemoved = new IntList();
+
+    /**
+     * All the removed indices, including the pending ones. Commit publishes a copy of it.
+     */
+    private final Tombstones removed = new Tombstones();
+
+    /**
+     * The largest index added so far, indices must be added in non-decreasing order as in GSuffixTree
+     */
+    private int lastIndex = -1;
+
+    /**
+     * Runs the compactions, null to run them in commit
+     */
+    private final Executor compactor;
+
+    /**
+     * The share of removed keys above which a segment is rebuilt
+     */
+    private final float compactionThreshold;
+
+    private boolean compacting;
+
+    /**
+     * Creates an index compacting segments in commit once a fifth of their keys are removed
+     */
+    public ConcurrentSuffixIndex()
+    {
+        this(null, 0.2f);
+    }
+
+    /**
+     * @param compactor runs the compactions in the background, null to run them in commit
+     * @param compactionThreshold the share of removed keys above which a segment is rebuilt
+     */
+    public ConcurrentSuffixIndex(Executor compactor, float compactionThreshold)
+    {
+        this.compactor = compactor;
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * Returns the current snapshot, to run several queries on the same keys
+     */
+    public Snapshot snapshot()
+    {
+        return snapshot;
+    }
+
+    /**
+     * Buffers a key, searchable after the next commit
+     *
+     * @throws IllegalStateException if index is less than a previously added one, or was removed
+     */
+    public synchronized void addWord(String key, int index)
+    {
+        if (index < lastIndex)
+        {
+            throw new IllegalStateException("The input index must not be less than any of the previously inserted ones. Got "
+                    + index + ", expected at least " + lastIndex);
+        }
+        if (removed.contains(index))
+        {
+            throw new IllegalStateException("The input index was removed : " + index);
+        }
+        lastIndex = index;
+        pendingKeys.add(key);
+        pendingIndices.add(index);
+    }
+
+    /**
+     * Removes all the keys added with the given index so far, from the next commit on. An index cannot be added again
+     * once removed.
+     *
+     * @return false if the index was removed already
+     * @throws IllegalArgumentException if index is negative
+     */
+    public synchronized boolean remove(int index)
+    {
+        if (!removed.add(index))
+        {
+            return false;
+        }
+        pendingRemoved.add(index);
+        return true;
+    }
+
+    /**
+     * Builds a segment of the keys added since the last commit and publishes a new snapshot with it and with the
+     * indices removed since then. Readers keep using the previous snapshot until this returns.
+     *
+     * @return the new snapshot, the current one if nothing changed
+     */
+    public synchronized Snapshot commit()
+    {
+        Snapshot current = snapshot;
+        if (pendingKeys.isEmpty() && pendingRemoved.isEmpty())
+        {
+            return current;
+        }
+        List<Segment> segments = new ArrayList<Segment>(Arrays.asList(current.segments));
+        IntList deadKeys = new IntList(current.deadKeys.length + 1);
+        deadKeys.addAll(current.deadKeys, 0, current.deadKeys.length);
+        for (int i = 0; i < pendingRemoved.size(); i++)
+        {
+            for (int s = 0; s < segments.size(); s++)
+            {
+                deadKeys.set(s, deadKeys.get(s) + segments.get(s).count(pendingRemoved.get(i)));
+            }
+        }
+        pendingRemoved.clear();
+
+        Segment added = Segment.of(pendingKeys, pendingIndices, removed);
+        pendingKeys.clear();
+        pendingIndices.clear();
+        if (added != null)
+        {
+            segments.add(added);
+            deadKeys.add(0);
+            int n = segments.size();
+            while (n >= 2 && segments.get(n - 2).keys.length <= MERGE_RATIO * segments.get(n - 1).keys.length)
+            {
+                // merging drops the removed keys
+                Segment merged = Segment.merge(segments.subList(n - 2, n), removed);
+                segments.subList(n - 2, n).clear();
+                n -= 2;
+                deadKeys.setSize(n);
+                if (merged != null)
+                {
+                    segments.add(merged);
+                    deadKeys.add(0);
+                    n++;
+                }
+            }
+        }
+
+        Snapshot next = publish(segments, deadKeys, removed.copy(), current.version + 1);
+        if (!compacting && needsCompaction(next))
+        {
+            if (compactor == null)
+            {
+                next = replace(next.segments, rebuild(next, false));
+            }
+            else
+            {
+                compacting = true;
+                compactor.execute(new Runnable()
+                {
+                    public void run()
+                    {
+                        compactInBackground();
+                    }
+                });
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Commits, then rebuilds all the segments that have removed keys, so that queries no longer skip any removed
+     * index.
+     *
+     * @return the new snapshot
+     */
+    public synchronized Snapshot compact()
+    {
+        Snapshot current = commit();
+        return current.getDeadKeyNum() == 0 ? current : replace(current.segments, rebuild(current, true));
+    }
+
+    private Snapshot publish(List<Segment> segments, IntList deadKeys, Tombstones published, long version)
+    {
+        Snapshot next = new Snapshot(segments.toArray(new Segment[segments.size()]), deadKeys.toArray(), published,
+                version);
+        snapshot = next;
+        return next;
+    }
+
+    private boolean needsCompaction(Snapshot s)
+    {
+        for (int i = 0; i < s.segments.length; i++)
+        {
+            if (s.deadKeys[i] > compactionThreshold * s.segments[i].keys.length)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Rebuilds the segments of s without their removed keys, only the ones past the threshold unless all is set
+     *
+     * @return the segments of s, rebuilt or not, null for the ones without any key left
+     */
+    private Segment[] rebuild(Snapshot s, boolean all)
+    {
+        Segment[] ret = new Segment[s.segments.length];
+        for (int i = 0; i < s.segments.length; i++)
+        {
+            int dead = s.deadKeys[i];
+            if (dead > 0 && (all || dead > compactionThreshold * s.segments[i].keys.length))
+            {
+                ret[i] = Segment.merge(Arrays.asList(s.segments[i]), s.removed);
+            }
+            else
+            {
+                ret[i] = s.segments[i];
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Publishes the current snapshot where every segment of from still there is replaced by the matching one of to.
+     * Must be called by the writer.
+     */
+    private Snapshot replace(Segment[] from, Segment[] to)
+    {
+        Snapshot current = snapshot;
+        List<Segment> segments = new ArrayList<Segment>(current.segments.length);
+        IntList deadKeys = new IntList(current.segments.length);
+        for (int i = 0; i < current.segments.length; i++)
+        {
+            Segment segment = current.segments[i];
+            int dead = current.deadKeys[i];
+            for (int j = 0; j < from.length; j++)
+            {
+                if (from[j] == segment && to[j] != segment)
+                {
+                    segment = to[j];
+                    // the keys removed while it was rebuilt
+                    dead = segment == null ? 0 : segment.countRemoved(current.removed);
+                    break;
+                }
+            }
+            if (segment != null)
+            {
+                segments.add(segment);
+                deadKeys.add(dead);
+            }
+        }
+        return publish(segments, deadKeys, current.removed, current.version + 1);
+    }
+
+    private void compactInBackground()
+    {
+        try
+        {
+            Snapshot s = snapshot;
+            Segment[] rebuilt = rebuild(s, false);
+            synchronized (this)
+            {
+                replace(s.segments, rebuilt);
+            }
+        }
+        finally
+        {
+            synchronized (this)
+            {
+                compacting = false;
+            }
+        }
+    }
+
+    /**
+     * Returns whether a background compaction is running
+     */
+    public synchronized boolean isCompacting()
+    {
+        return compacting;
+    }
+
+    /**
+     * @see Snapshot#search(String)
+     */
+    public Collection<Integer> search(String word)
+    {
+        return snapshot.search(word);
+    }
+
+    /**
+     * @see Snapshot#count(String)
+     */
+    public int count(String word)
+    {
+        return snapshot.count(word);
+    }
+
+    /**
+     * @see Snapshot#searchTopK(String, int, float[])
+     */
+    public int[] searchTopK(String word, int k, float[] scores)
+    {
+        return snapshot.searchTopK(word, k, scores);
+    }
+
+    /**
+     * @see Snapshot#longestSubstring(CharSequence)
+     */
+    public SubstringMatch longestSubstring(CharSequence word)
+    {
+        return snapshot.longestSubstring(word);
+    }
+}
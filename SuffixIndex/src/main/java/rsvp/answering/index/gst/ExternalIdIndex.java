@@ -0,0 +1,233 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.gst;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import rsvp.answering.index.common.IntIterator;
+import rsvp.answering.index.common.PostingList;
+
+/**
+ * A {@link ConcurrentSuffixIndex} over external ids of any type, a Long or a String for instance, added in any order.
+ *
+ * Every key gets the next dense internal index, so the indices stay in the non-decreasing order the trees require.
+ * The results are translated back through an array of the external id of every internal index. A key added to an
+ * external id that already has keys gets a new internal index too, linked to the previous one of the same id, and
+ * the results are then deduplicated.
+ *
+ * Readers never lock: the array is only appended to, and published through a volatile field before the commit that
+ * makes its new indices searchable.
+ *
+ * @param <K> the type of the external ids, with equals and hashCode
+ */
+public class ExternalIdIndex<K>
+{
+    private final ConcurrentSuffixIndex index;
+
+    /**
+     * The latest internal index of every external id, only used by the writer
+     */
+    private final Map<K, Integer> internals = new HashMap<K, Integer>();
+
+    /**
+     * The external id of every internal index
+     */
+    private volatile Object[] externals = new Object[16];
+
+    /**
+     * The previous internal index of the same external id, -1 if none
+     */
+    private int[] previous = new int[16];
+
+    private int size;
+
+    /**
+     * Set once an external id has several keys, from then on the results are deduplicated
+     */
+    private volatile boolean aliases;
+
+    public ExternalIdIndex()
+    {
+        this(new ConcurrentSuffixIndex());
+    }
+
+    /**
+     * @see ConcurrentSuffixIndex#ConcurrentSuffixIndex(Executor, float)
+     */
+    public ExternalIdIndex(Executor compactor, float compactionThreshold)
+    {
+        this(new ConcurrentSuffixIndex(compactor, compactionThreshold));
+    }
+
+    private ExternalIdIndex(ConcurrentSuffixIndex index)
+    {
+        this.index = index;
+    }
+
+    /**
+     * Buffers a key for the given external id, searchable after the next commit
+     */
+    public synchronized void addWord(K id, String key)
+    {
+        if (size == externals.length)
+        {
+            externals = Arrays.copyOf(externals, size + (size >> 1));
+            previous = Arrays.copyOf(previous, externals.length);
+        }
+        Integer last = internals.put(id, size);
+        if (last != null)
+        {
+            aliases = true;
+        }
+        externals[size] = id;
+        previous[size] = last == null ? -1 : last;
+        index.addWord(key, size++);
+    }
+
+    /**
+     * Removes all the keys of the given external id, from the next commit on. The id can be added again afterwards.
+     *
+     * @return false if the id has no key
+     */
+    public synchronized boolean remove(K id)
+    {
+        Integer last = internals.remove(id);
+        if (last == null)
+        {
+            return false;
+        }
+        for (int i = last; i != -1; i = previous[i])
+        {
+            index.remove(i);
+        }
+        return true;
+    }
+
+    /**
+     * @see ConcurrentSuffixIndex#commit()
+     */
+    public synchronized ConcurrentSuffixIndex.Snapshot commit()
+    {
+        return index.commit();
+    }
+
+    /**
+     * @see ConcurrentSuffixIndex#compact()
+     */
+    public synchronized ConcurrentSuffixIndex.Snapshot compact()
+    {
+        return index.compact();
+    }
+
+    /**
+     * Returns the external ids of the keys containing word, in the order their first key was added
+     *
+     * @return null if no key contains word
+     */
+    public List<K> search(String word)
+    {
+        ConcurrentSuffixIndex.Snapshot snapshot = index.snapshot();
+        return translate(snapshot.search(word));
+    }
+
+    /**
+     * Returns the number of external ids with a key containing word
+     */
+    public int count(String word)
+    {
+        ConcurrentSuffixIndex.Snapshot snapshot = index.snapshot();
+        if (!aliases)
+        {
+            return snapshot.count(word);
+        }
+        List<K> results = translate(snapshot.search(word));
+        return results == null ? 0 : results.size();
+    }
+
+    /**
+     * Translates internal indices to external ids. The snapshot holding them must have been read before.
+     */
+    @SuppressWarnings("unchecked")
+    private List<K> translate(Collection<Integer> results)
+    {
+        if (results == null)
+        {
+            return null;
+        }
+        Object[] ids = externals;
+        List<K> ret = new ArrayList<K>(results.size());
+        Set<Object> seen = aliases ? new HashSet<Object>() : null;
+        IntIterator it = results instanceof PostingList ? ((PostingList) results).intIterator()
+                : results instanceof MergedResults ? ((MergedResults) results).intIterator() : null;
+        if (it != null)
+        {
+            while (it.hasNext())
+            {
+                Object id = ids[it.nextInt()];
+                if (seen == null || seen.add(id))
+                {
+                    ret.add((K) id);
+                }
+            }
+        }
+        else
+        {
+            for (int internal : results)
+            {
+                Object id = ids[internal];
+                if (seen == null || seen.add(id))
+                {
+                    ret.add((K) id);
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the external id of an internal index
+     */
+    @SuppressWarnings("unchecked")
+    public K getExternalId(int internal)
+    {
+        return (K) externals[internal];
+    }
+
+    /**
+     * Returns the latest internal index of an external id, -1 if it has no key
+     */
+    public synchronized int getInternalId(K id)
+    {
+        Integer ret = internals.get(id);
+        return ret == null ? -1 : ret;
+    }
+
+    /**
+     * Returns the index of the internal indices, for queries that need them such as searchTopK
+     */
+    public ConcurrentSuffixIndex getIndex()
+    {
+        return index;
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.gst;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * What a {@link GSuffixTree#flush()} did and what it cost. The heap is sampled before and after the flush only: the
+ * peak usage of the memory pools is JVM-wide state that monitoring reads, and that concurrent flushes would reset
+ * for each other.
+ */
+public class FlushStats
+{
+    private final long elapsedNanos;
+
+    private final long nodes;
+
+    private final long postingBytes;
+
+    private final long heapBytesBefore;
+
+    private final long heapBytesAfter;
+
+    FlushStats(long elapsedNanos, long nodes, long postingBytes, long heapBytesBefore, long heapBytesAfter)
+    {
+        this.elapsedNanos = elapsedNanos;
+        this.nodes = nodes;
+        this.postingBytes = postingBytes;
+        this.heapBytesBefore = heapBytesBefore;
+        this.heapBytesAfter = heapBytesAfter;
+    }
+
+    public long getElapsedNanos()
+    {
+        return elapsedNanos;
+    }
+
+    /**
+     * Returns the number of nodes whose posting list was computed
+     */
+    public long getNodes()
+    {
+        return nodes;
+    }
+
+    /**
+     * Returns the bytes of the posting lists built by the flush. A list shared by a node and its only child is
+     * counted once.
+     */
+    public long getPostingBytes()
+    {
+        return postingBytes;
+    }
+
+    /**
+     * Returns the heap usage when the flush started
+     */
+    public long getHeapBytesBefore()
+    {
+        return heapBytesBefore;
+    }
+
+    /**
+     * Returns the heap usage when the flush ended, garbage of other threads and collections in between included
+     */
+    public long getHeapBytesAfter()
+    {
+        return heapBytesAfter;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "FlushStats [elapsed=" + elapsedNanos / 1000000 + "ms, nodes=" + nodes + ", postingBytes=" + postingBytes
+                + ", heapBytesBefore=" + heapBytesBefore + ", heapBytesAfter=" + heapBytesAfter + "]";
+    }
+
+    static long usedHeap()
+    {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
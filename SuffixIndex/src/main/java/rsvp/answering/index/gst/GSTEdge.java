@@ -16,7 +16,8 @@
 package rsvp.answering.index.gst;
 
 /**
- * Represents an Edge in the Suffix Tree. It has a label and a destination Node
+ * Represents an Edge in the Suffix Tree. It has a label and a destination Node. The label is the (start, end) range of
+ * the text arena of the tree.
  */
 class GSTEdge
 {
@@ -27,7 +28,8 @@ class GSTEdge
         final int prime = 31;
         int result = 1;
         result = prime * result + dest;
-        result = prime * result + ((label == null) ? 0 : label.hashCode());
+        result = prime * result + start;
+        result = prime * result + end;
         return result;
     }
 
@@ -43,40 +45,54 @@ class GSTEdge
         GSTEdge other = (GSTEdge) obj;
         if (dest != other.dest)
             return false;
-        if (label == null)
-        {
-            if (other.label != null)
-                return false;
-        }
-        else if (!label.equals(other.label))
+        if (start != other.start || end != other.end)
             return false;
         return true;
     }
 
-    private String label;
+    /**
+     * Offset of the first label character in the text arena
+     */
+    private int start;
+
+    /**
+     * Offset after the last label character in the text arena
+     */
+    private int end;
 
     private int dest;
 
-    public GSTEdge(String label, int dest)
+    public GSTEdge(int start, int end, int dest)
     {
-        this.label = label;
+        this.start = start;
+        this.end = end;
         this.dest = dest;
     }
 
-    public String getLabel()
+    public int getStart()
     {
-        return label;
+        return start;
     }
 
-    @Override
-    public String toString()
+    public void setStart(int start)
+    {
+        this.start = start;
+    }
+
+    public int getEnd()
     {
-        return label + "\t" + dest;
+        return end;
     }
 
-    public void setLabel(String label)
+    public int length()
+    {
+        return end - start;
+    }
+
+    @Override
+    public String toString()
     {
-        this.label = label;
+        return start + ":" + end + "\t" + dest;
     }
 
     public int getDest()
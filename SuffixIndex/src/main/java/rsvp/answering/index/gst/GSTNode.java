@@ -15,9 +15,11 @@
  */
 package rsvp.answering.index.gst;
 
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
+
+import rsvp.answering.index.common.CharIntMap;
+import rsvp.answering.index.common.IntList;
+import rsvp.answering.index.common.PostingList;
 
 /**
  * Represents a node of the generalized suffix tree graph
@@ -30,7 +32,7 @@ class GSTNode
     @Override
     public String toString()
     {
-        return indices + ", " + edges;
+        return getNodeIndices() + ", " + edges;
     }
 
     @Override
@@ -39,7 +41,7 @@ class GSTNode
         final int prime = 31;
         int result = 1;
         result = prime * result + ((edges == null) ? 0 : edges.hashCode());
-        result = prime * result + ((indices == null) ? 0 : indices.hashCode());
+        result = prime * result + getNodeIndices().size();
         return result;
     }
 
@@ -62,76 +64,72 @@ class GSTNode
         {
             return false;
         }
-        if (indices == null)
-        {
-            if (other.indices != null)
-                return false;
-        }
-        else if (!equals(indices, other.indices))
+        if (!equals(getNodeIndices(), other.getNodeIndices()))
         {
             return false;
         }
         return true;
     }
 
-    private boolean equals(HashMap<String, Integer> map1, HashMap<String, Integer> map2)
+    private boolean equals(CharIntMap map1, CharIntMap map2)
     {
         if (map1.size() != map2.size())
         {
-            System.err.println("Expect edge map size : " + map1.size());
-            System.err.println("Target edge map size : " + map2.size());
             return false;
         }
-        for (String ch : map1.keySet())
+        for (int i = 0; i < map1.size(); i++)
         {
-            if (!map2.containsKey(ch) || map2.get(ch).intValue() != map1.get(ch).intValue())
+            char ch = map1.keyAt(i);
+            if (map2.get(ch) != map1.valueAt(i))
             {
-                System.err.println("Expect : " + ch + "=" + map1.get(ch));
-                System.err.println("Target : " + ch + "=" + map2.get(ch));
                 return false;
             }
         }
         return true;
     }
 
-    private boolean equals(HashSet<Integer> set1, HashSet<Integer> set2)
+    private boolean equals(PostingList set1, PostingList set2)
     {
         if (set1.size() != set2.size())
         {
-
-            System.err.println("Expect indices size : " + set1.size());
-            System.err.println("Target indices size : " + set2.size());
             return false;
         }
-        for (int ch : set1)
+        if (!set1.sameIds(set2))
         {
-            if (!set2.contains(ch))
-            {
-                System.err.println("Expect : " + set1.contains(ch));
-                System.err.println("Target : " + set2.contains(ch));
-                return false;
-            }
+            return false;
         }
         return true;
     }
 
     /**
-     * The payload array used to store the data (indexes) associated with this node. In this case, it is used to store
-     * all property indexes.
-     * 
-     * As it is handled, it resembles an ArrayList: when it becomes full it is copied to another bigger array (whose
-     * size is equals to data.length + INCREMENT).
-     * 
-     * Originally it was a List<Integer> but it took too much memory, changing it to int[] take less memory because
-     * indexes are stored using native types.
+     * The indices added to this node while building the tree, in ascending order because indices are inserted in
+     * non-decreasing order. It is null until the first index is added, most internal nodes never get one.
+     */
+    private IntList indices;
+
+    /**
+     * The indices of this node and of all the nodes below it, computed when the tree is flushed. Null until then.
      */
-    private HashSet<Integer> indices;
+    private PostingList postings;
 
     /**
-     * The set of edges starting from this node
+     * The [rangeStart, rangeEnd) range of the payload of the tree holding the indices of this sub-tree, computed by
+     * GSuffixTree.flushRanges
      */
+    private int rangeStart;
 
-    private HashMap<String, Integer> edges;
+    private int rangeEnd;
+
+    /**
+     * The number of distinct indices in the range, computed by GSuffixTree.flushRanges
+     */
+    private int rangeCount;
+
+    /**
+     * The set of edges starting from this node, keyed by the first char of their label
+     */
+
+    private CharIntMap edges;
 
     /**
      * The suffix link as described in Ukkonen's paper. if str is the string denoted by the path from the root to this,
@@ -144,27 +142,78 @@ class GSTNode
      */
     GSTNode()
     {
-        edges = new HashMap<String, Integer>();
+        edges = new CharIntMap();
         suffix = -1;
-        indices = new HashSet<Integer>();
     }
 
-    public void setNodeIndices(Collection<Integer> all)
+    /**
+     * Returns the indices computed by the last flush, null if there are none
+     */
+    PostingList getPostings()
+    {
+        return postings;
+    }
+
+    void setPostings(PostingList postings)
+    {
+        this.postings = postings;
+    }
+
+    /**
+     * Returns all the indices below this node as computed by the last flush. A node created after that only returns
+     * its own indices.
+     */
+    public PostingList getNodeIndices()
+    {
+        if (postings != null)
+        {
+            return postings;
+        }
+        return indices == null ? PostingList.EMPTY : PostingList.of(indices);
+    }
+
+    int getRangeStart()
     {
-        this.indices.clear();
-        this.indices.addAll(all);
+        return rangeStart;
     }
 
-    public void addIndices(Collection<Integer> indices)
+    int getRangeEnd()
     {
-        this.indices.addAll(indices);
+        return rangeEnd;
     }
 
-    public HashSet<Integer> getNodeIndices()
+    void setRange(int rangeStart, int rangeEnd)
+    {
+        this.rangeStart = rangeStart;
+        this.rangeEnd = rangeEnd;
+    }
+
+    int getRangeCount()
+    {
+        return rangeCount;
+    }
+
+    void setRangeCount(int rangeCount)
+    {
+        this.rangeCount = rangeCount;
+    }
+
+    /**
+     * Returns the indices added to this node itself, null if there are none
+     */
+    IntList getOwnIndices()
     {
         return indices;
     }
 
+    /**
+     * Drops the indices added to this node itself, so that it has none as if it never had
+     */
+    void clearOwnIndices()
+    {
+        indices = null;
+    }
+
     /**
      * Tests whether a node contains a reference to the given index.
      * 
@@ -175,25 +224,20 @@ class GSTNode
      */
     public boolean containsIndex(int index)
     {
-        return indices.contains(index);
+        return indices != null && Arrays.binarySearch(indices.array(), 0, indices.size(), index) >= 0;
     }
 
     void addEdge(char ch, int e)
     {
-        edges.put(Character.toString(ch), e);
+        edges.put(ch, e);
     }
 
     int getEdge(char ch)
     {
-        Integer intg = edges.get(Character.toString(ch));
-        if (intg == null)
-        {
-            return -1;
-        }
-        return intg.intValue();
+        return edges.get(ch);
     }
 
-    HashMap<String, Integer> getEdges()
+    CharIntMap getEdges()
     {
         return edges;
     }
@@ -208,13 +252,50 @@ class GSTNode
         this.suffix = suffix;
     }
 
+    /**
+     * Adds an index to this node, it must not be less than the ones already added
+     */
     public void addIndex(int index)
     {
-        indices.add(index);
+        if (indices == null)
+        {
+            indices = new IntList(1);
+        }
+        if (indices.isEmpty() || indices.last() < index)
+        {
+            indices.add(index);
+        }
+    }
+
+    /**
+     * Adds all the given indices to this node, keeping them ascending and distinct
+     * 
+     * @param other ascending indices
+     */
+    void addIndices(IntList other)
+    {
+        if (other == null || other.isEmpty())
+        {
+            return;
+        }
+        if (indices == null || indices.isEmpty() || indices.last() < other.get(0))
+        {
+            if (indices == null)
+            {
+                indices = new IntList(other.size());
+            }
+            indices.addAll(other.array(), 0, other.size());
+            return;
+        }
+        IntList merged = new IntList(indices.size() + other.size());
+        merged.addAll(indices.array(), 0, indices.size());
+        merged.addAll(other.array(), 0, other.size());
+        merged.sortDistinct();
+        indices = merged;
     }
 
     public int getResultCount()
     {
-        return indices.size();
+        return getNodeIndices().size();
     }
 }
@@ -15,19 +15,39 @@
  */
 package rsvp.answering.index.gst;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.Reader;
-import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
-
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import rsvp.answering.index.common.CharIntMap;
+import rsvp.answering.index.common.Histogram;
+import rsvp.answering.index.common.DictionaryLoader;
+import rsvp.answering.index.common.IntIterator;
+import rsvp.answering.index.common.IntList;
+import rsvp.answering.index.common.PostingList;
+import rsvp.answering.index.common.TextArena;
+import rsvp.answering.index.common.Tombstones;
 import rsvp.answering.index.common.Utils;
 
 /**
@@ -69,6 +89,28 @@ import rsvp.answering.index.common.Utils;
  */
 public class GSuffixTree
 {
+    static final String BINARY_SUFFIX = ".gst.bin";
+
+    private static final int BINARY_MAGIC = 0x47535442;
+
+    private static final int BINARY_VERSION = 1;
+
+    /**
+     * The estimated bytes of a node and of its child map without their arrays, with its slot in nodes, on a 64-bit JVM
+     * with compressed references
+     */
+    private static final long NODE_BYTES = 44 + 32;
+
+    /**
+     * The estimated bytes of an edge, with its slot in edges
+     */
+    private static final long EDGE_BYTES = 28;
+
+    /**
+     * The estimated bytes of an IntList without its array
+     */
+    private static final long INT_LIST_BYTES = 32;
+
     public ArrayList<GSTNode> nodes = new ArrayList<GSTNode>();
 
     public ArrayList<GSTEdge> edges = new ArrayList<GSTEdge>();
@@ -88,6 +130,55 @@ public class GSuffixTree
      */
     private int activeLeaf = 0;
 
+    /**
+     * The characters of all the inserted keys. Edge labels are ranges of it.
+     */
+    private TextArena arena = new TextArena();
+
+    /**
+     * Results of canonize and update : a node and the start of the remainder string in the arena
+     */
+    private int canonNode;
+
+    private int canonStart;
+
+    /**
+     * Result of testAndSplit : whether the end point has been reached
+     */
+    private boolean endpoint;
+
+    /**
+     * The own indices of all nodes in DFS order, when the tree was flushed with flushRanges. Null otherwise.
+     */
+    private IntList payload;
+
+    /**
+     * The best indices of every node for topKScores, computed by precomputeTopK. Null if there are none.
+     */
+    private int[][] topKLists;
+
+    private float[] topKScores;
+
+    /**
+     * The indices removed since the last compact, filtered out of the results
+     */
+    private final Tombstones removed = new Tombstones();
+
+    /**
+     * Changed by every change of the results: addWord, addIndex, remove, flush and compact
+     */
+    private volatile long version;
+
+    /**
+     * The number of edges split by addWord
+     */
+    private long splits;
+
+    /**
+     * Null unless enableMetrics was called, so that a tree without metrics does not read the clock
+     */
+    private volatile IndexMetrics metrics;
+
     public GSuffixTree()
     {
         root = createNode();
@@ -95,176 +186,1895 @@ public class GSuffixTree
     }
 
     /**
-     * This is a optimal GST (flushed). It does not require flush anymore.
+     * Loads a tree written by {@link #writeToBinaryFile(String)}. It is in the same state as the written one, a
+     * flushed tree does not require flush anymore.
      * 
-     * @param path
+     * @param path the path given to writeToBinaryFile
+     * @throws IOException if the file cannot be read, or is corrupted
      */
-    public GSuffixTree(String path)
+    public GSuffixTree(String path) throws IOException
     {
         readFromBinaryFile(path);
     }
 
     /**
-     * Recursively update all nodes of a sub-tree below nodeIdx : merge indices for a node from one's sub-tree children
+     * Update indices of all nodes by adding all indices of their children
      * 
-     * @param nodeIdx
-     * @return
      */
-    private HashSet<Integer> updateIndices(int nodeIdx)
+    public FlushStats flush()
+    {
+        return flush(null);
+    }
+
+    /**
+     * Update indices of all nodes by adding all indices of their children. The sub-trees below the root are flushed on
+     * the given pool, the root itself on the calling thread.
+     * 
+     * @param pool the pool to use, null to flush on the calling thread only
+     * @return timing and memory figures of the flush
+     */
+    public FlushStats flush(ForkJoinPool pool)
     {
-        if (node(nodeIdx).getEdges().isEmpty())
+        version++;
+        long t1 = System.nanoTime();
+        long heapBefore = FlushStats.usedHeap();
+        payload = null;
+        long visited = 0;
+        long bytes = 0;
+        Flusher flusher = new Flusher();
+        if (pool == null)
         {
-            return node(nodeIdx).getNodeIndices();
+            flusher.flushSubtree(root);
         }
         else
         {
-            for (int edge : node(nodeIdx).getEdges().values())
+            CharIntMap children = node(root).getEdges();
+            int chunk = Math.max(1, children.size() / (4 * pool.getParallelism()));
+            long[] ret = pool.invoke(new FlushTask(children, 0, children.size(), chunk));
+            visited = ret[0];
+            bytes = ret[1];
+            flusher.mergeNode(root);
+        }
+        long t2 = System.nanoTime();
+        recordFlush(t2 - t1);
+        return new FlushStats(t2 - t1, visited + flusher.visited, bytes + flusher.bytes, heapBefore,
+                FlushStats.usedHeap());
+    }
+
+    /**
+     * Flushes the tree in lazy result mode. Instead of copying the indices of every descendant into each node, the own
+     * indices of all nodes are laid out once in DFS order and every node only records the range of its sub-tree.
+     * search then returns a {@link RangeResults} over that range, which removes duplicated indices while iterating.
+     * 
+     * The number of distinct indices of every node is computed on the way, for count: it is the size of the range
+     * minus one for every pair of consecutive occurrences of an index (in DFS order) whose lowest common ancestor is in
+     * the sub-tree. The ancestors are found with Tarjan's offline LCA, so the flush stays linear.
+     * 
+     * It takes memory proportional to the number of own indices. The posting lists of a previous flush are dropped.
+     * 
+     * @return timing and memory figures of the flush
+     */
+    public FlushStats flushRanges()
+    {
+        version++;
+        long t1 = System.nanoTime();
+        long heapBefore = FlushStats.usedHeap();
+        IntList ids = new IntList();
+        IntList stack = new IntList();
+        IntList cursors = new IntList();
+        // union-find over the finished sub-trees, lastNode of an index, duplicates of a sub-tree
+        int[] sets = new int[nodes.size()];
+        int[] lastNode = new int[last + 1];
+        Arrays.fill(lastNode, -1);
+        int[] duplicates = new int[nodes.size()];
+
+        stack.add(root);
+        cursors.add(0);
+        enterRange(root, ids, sets, lastNode, duplicates);
+        while (!stack.isEmpty())
+        {
+            int depth = stack.size() - 1;
+            int nodeIdx = stack.get(depth);
+            GSTNode node = node(nodeIdx);
+            CharIntMap children = node.getEdges();
+            int cursor = cursors.get(depth);
+            if (cursor < children.size())
+            {
+                cursors.set(depth, cursor + 1);
+                int child = edge(children.valueAt(cursor)).getDest();
+                enterRange(child, ids, sets, lastNode, duplicates);
+                stack.add(child);
+                cursors.add(0);
+            }
+            else
+            {
+                node.setRange(node.getRangeStart(), ids.size());
+                node.setRangeCount(ids.size() - node.getRangeStart() - duplicates[nodeIdx]);
+                stack.setSize(depth);
+                cursors.setSize(depth);
+                if (depth > 0)
+                {
+                    int parent = stack.get(depth - 1);
+                    sets[nodeIdx] = parent;
+                    duplicates[parent] += duplicates[nodeIdx];
+                }
+            }
+        }
+        ids.trimToSize();
+        payload = ids;
+        long t2 = System.nanoTime();
+        recordFlush(t2 - t1);
+        return new FlushStats(t2 - t1, nodes.size(), 4L * ids.size(), heapBefore, FlushStats.usedHeap());
+    }
+
+    private void enterRange(int nodeIdx, IntList ids, int[] sets, int[] lastNode, int[] duplicates)
+    {
+        GSTNode node = node(nodeIdx);
+        node.setPostings(null);
+        node.setRange(ids.size(), ids.size());
+        sets[nodeIdx] = nodeIdx;
+        IntList own = node.getOwnIndices();
+        if (own != null)
+        {
+            for (int i = 0; i < own.size(); i++)
             {
-                node(nodeIdx).addIndices(updateIndices(edge(edge).getDest()));
+                int index = own.get(i);
+                if (lastNode[index] != -1)
+                {
+                    duplicates[find(sets, lastNode[index])]++;
+                }
+                lastNode[index] = nodeIdx;
             }
-            return node(nodeIdx).getNodeIndices();
+            ids.addAll(own.array(), 0, own.size());
         }
     }
 
     /**
-     * Update indices of all nodes by adding all indices of their children
+     * Returns the representative of the set of x, that is its nearest ancestor still being visited
+     */
+    private static int find(int[] sets, int x)
+    {
+        int r = x;
+        while (sets[r] != r)
+        {
+            r = sets[r];
+        }
+        while (sets[x] != r)
+        {
+            int next = sets[x];
+            sets[x] = r;
+            x = next;
+        }
+        return r;
+    }
+
+    /**
+     * Precomputes, for every node, the maxK best indices of its sub-tree according to the given scores, so that
+     * {@link #searchTopK(String, int, float[])} does not depend on the number of results. The lists are built in one
+     * post-order pass, each one from the lists of the children. They are dropped by the next addWord.
+     * 
+     * @param scores the score of every index, a higher score is better
+     * @param maxK the largest k that will be asked
+     */
+    public void precomputeTopK(float[] scores, int maxK)
+    {
+        int[][] lists = new int[nodes.size()][];
+        TopKCollector collector = new TopKCollector(scores, maxK);
+        IntList stack = new IntList();
+        IntList cursors = new IntList();
+        stack.add(root);
+        cursors.add(0);
+        while (!stack.isEmpty())
+        {
+            int depth = stack.size() - 1;
+            int nodeIdx = stack.get(depth);
+            GSTNode node = node(nodeIdx);
+            CharIntMap children = node.getEdges();
+            int cursor = cursors.get(depth);
+            if (cursor < children.size())
+            {
+                cursors.set(depth, cursor + 1);
+                stack.add(edge(children.valueAt(cursor)).getDest());
+                cursors.add(0);
+                continue;
+            }
+            stack.setSize(depth);
+            cursors.setSize(depth);
+
+            IntList own = node.getOwnIndices();
+            if (children.size() == 1 && own == null)
+            {
+                lists[nodeIdx] = lists[edge(children.valueAt(0)).getDest()];
+                continue;
+            }
+            collector.reset(maxK);
+            if (own != null)
+            {
+                for (int i = 0; i < own.size(); i++)
+                {
+                    collector.offer(own.get(i));
+                }
+            }
+            for (int i = 0; i < children.size(); i++)
+            {
+                // lists are best first: stop at the first id that does not get in
+                for (int id : lists[edge(children.valueAt(i)).getDest()])
+                {
+                    if (!collector.accepts(id))
+                    {
+                        break;
+                    }
+                    collector.offer(id);
+                }
+            }
+            lists[nodeIdx] = collector.drain();
+        }
+        topKLists = lists;
+        topKScores = scores;
+    }
+
+    /**
+     * Removes all the keys added with the given index so far. The index is only recorded as a tombstone and filtered
+     * out of search, count and searchTopK, so this is O(1); the posting lists keep it until {@link #compact()}. The
+     * index cannot be added again before that.
+     * 
+     * @param index
+     * @return false if the index was removed already
+     * @throws IllegalArgumentException if index is negative or greater than the last added one, so it cannot be in
+     *             the tree
+     */
+    public boolean remove(int index)
+    {
+        if (index < 0 || index > last)
+        {
+            throw new IllegalArgumentException("The input index was never added : " + index);
+        }
+        if (!removed.add(index))
+        {
+            return false;
+        }
+        version++;
+        return true;
+    }
+
+    public boolean isRemoved(int index)
+    {
+        return removed.contains(index);
+    }
+
+    /**
+     * Returns the number of indices removed since the last compact
+     */
+    public int getRemovedNum()
+    {
+        return removed.size();
+    }
+
+    /**
+     * Returns a number that grows with every change of the results of the tree, so that a cache of the results can
+     * tell they are stale
      * 
+     * @see CachedSuffixIndex
      */
-    public void flush()
+    public long getVersion()
     {
-        updateIndices(root);
+        return version;
     }
 
     /**
-     * Require flush before invoking search unless a gst is generate from bin file
+     * Starts recording the metrics of this tree, if not done already
+     *
+     * @return the metrics, to read or to register in JMX
+     */
+    public synchronized IndexMetrics enableMetrics()
+    {
+        if (metrics == null)
+        {
+            metrics = new IndexMetrics(this);
+        }
+        return metrics;
+    }
+
+    /**
+     * Returns the metrics started by enableMetrics, null if they were not
+     */
+    public IndexMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    private void recordFlush(long nanos)
+    {
+        IndexMetrics m = metrics;
+        if (m != null)
+        {
+            m.recordFlush(nanos);
+        }
+    }
+
+    /**
+     * Walks the whole tree and describes its shape and the bytes it takes. It must not be changed meanwhile.
+     */
+    public TreeStats computeStats()
+    {
+        Histogram depths = new Histogram();
+        Histogram fanOuts = new Histogram();
+        Histogram postingSizes = new Histogram();
+        int leafNum = 0;
+        long nodeBytes = 0;
+        long indexBytes = 0;
+        long postingBytes = 0;
+        Map<PostingList, Boolean> lists = new IdentityHashMap<PostingList, Boolean>();
+        IntList stack = new IntList();
+        IntList depthStack = new IntList();
+        stack.add(root);
+        depthStack.add(0);
+        while (!stack.isEmpty())
+        {
+            int top = stack.size() - 1;
+            GSTNode node = node(stack.get(top));
+            int depth = depthStack.get(top);
+            stack.setSize(top);
+            depthStack.setSize(top);
+
+            CharIntMap children = node.getEdges();
+            depths.record(depth);
+            if (children.size() == 0)
+            {
+                leafNum++;
+            }
+            else
+            {
+                fanOuts.record(children.size());
+            }
+            for (int i = 0; i < children.size(); i++)
+            {
+                stack.add(edge(children.valueAt(i)).getDest());
+                depthStack.add(depth + 1);
+            }
+
+            nodeBytes += NODE_BYTES + children.sizeInBytes();
+            IntList own = node.getOwnIndices();
+            if (own != null)
+            {
+                indexBytes += INT_LIST_BYTES + own.sizeInBytes();
+            }
+            PostingList postings = node.getPostings();
+            if (postings != null && lists.put(postings, Boolean.TRUE) == null)
+            {
+                postingBytes += postings.sizeInBytes();
+            }
+            if (payload != null)
+            {
+                postingSizes.record(node.getRangeCount());
+            }
+            else if (postings != null)
+            {
+                postingSizes.record(postings.size());
+            }
+            else
+            {
+                postingSizes.record(own == null ? 0 : own.size());
+            }
+        }
+        return new TreeStats(nodes.size(), edges.size(), leafNum, depths, fanOuts, postingSizes, arena.sizeInBytes(),
+                nodeBytes, EDGE_BYTES * edges.size(), indexBytes, postingBytes,
+                payload == null ? 0 : INT_LIST_BYTES + payload.sizeInBytes());
+    }
+
+    /**
+     * Drops the removed indices from the own indices of every node and flushes the tree again, in the mode of the last
+     * flush, so that queries no longer have to skip them. The edges leading to the sub-trees left without any index
+     * are then cut, so that match, longestSubstring and the other walks no longer find the text of the removed keys.
+     * What is left is the tree of the live keys: a node spelling a substring of a live key is live, and so is the
+     * target of its suffix link. The cut nodes and labels stay in memory, out of reach. Precomputed top-k lists are
+     * dropped.
+     * 
+     * @return the figures of the new flush
+     */
+    public FlushStats compact()
+    {
+        if (removed.isEmpty())
+        {
+            return payload != null ? flushRanges() : flush();
+        }
+        for (GSTNode node : nodes)
+        {
+            IntList own = node.getOwnIndices();
+            if (own == null)
+            {
+                continue;
+            }
+            int n = 0;
+            for (int i = 0; i < own.size(); i++)
+            {
+                if (!removed.contains(own.get(i)))
+                {
+                    own.set(n++, own.get(i));
+                }
+            }
+            if (n == 0)
+            {
+                // no own indices is null everywhere, the flush would merge an empty run
+                node.clearOwnIndices();
+            }
+            else
+            {
+                own.setSize(n);
+            }
+        }
+        removed.clear();
+        topKLists = null;
+        FlushStats ret = payload != null ? flushRanges() : flush();
+        pruneDeadEdges();
+        return ret;
+    }
+
+    /**
+     * Cuts the edges to the flushed nodes that have no index below them, all of their sub-trees being dead as well
+     */
+    private void pruneDeadEdges()
+    {
+        IntList stack = new IntList();
+        StringBuilder dead = new StringBuilder();
+        stack.add(root);
+        while (!stack.isEmpty())
+        {
+            int nodeIdx = stack.get(stack.size() - 1);
+            stack.setSize(stack.size() - 1);
+            CharIntMap children = node(nodeIdx).getEdges();
+            dead.setLength(0);
+            for (int i = 0; i < children.size(); i++)
+            {
+                int dest = edge(children.valueAt(i)).getDest();
+                if (count(node(dest)) == 0)
+                {
+                    dead.append(children.keyAt(i));
+                }
+                else
+                {
+                    stack.add(dest);
+                }
+            }
+            // removing reorders the entries, so not while iterating them
+            for (int i = 0; i < dead.length(); i++)
+            {
+                children.remove(dead.charAt(i));
+            }
+        }
+    }
+
+    /**
+     * Returns the number of indices whose key contains word, in O(m) from the counts computed by the last flush. While
+     * there are removed indices, the results are walked to skip them.
      * 
      * @param word
      * @return
      */
-    public Collection<Integer> search(String word)
+    public int count(String word)
     {
         GSTNode tmpNode = searchNode(word);
         if (tmpNode == null)
         {
-            return null;
+            return 0;
         }
-        return tmpNode.getNodeIndices();
+        if (!removed.isEmpty())
+        {
+            return removed.countLive(allResults(tmpNode));
+        }
+        if (payload != null)
+        {
+            return tmpNode.getRangeCount();
+        }
+        return tmpNode.getNodeIndices().size();
     }
 
     /**
-     * Flush and Search
+     * Returns the k indices with the highest score whose key contains word, best first. Ties go to the lower index.
+     * 
+     * If precomputeTopK was called with the same scores and a large enough k, the precomputed list of the node is
+     * used. Otherwise the results are scanned with a bounded heap.
      * 
      * @param word
+     * @param k
+     * @param scores the score of every index, a higher score is better
      * @return
      */
-    protected Collection<Integer> flushAndSearch(String word)
+    public int[] searchTopK(String word, int k, float[] scores)
     {
-        flush();
-        GSTNode tmpNode = searchNode(word);
-        if (tmpNode == null)
+        int nodeIdx = searchNodeIndex(word);
+        if (nodeIdx == -1 || k <= 0)
+        {
+            return new int[0];
+        }
+        if (topKLists != null && topKScores == scores && nodeIdx < topKLists.length)
+        {
+            int[] list = topKLists[nodeIdx];
+            int[] ret = new int[Math.min(k, list.length)];
+            int n = 0;
+            for (int i = 0; i < list.length && n < ret.length; i++)
+            {
+                if (!removed.contains(list[i]))
+                {
+                    ret[n++] = list[i];
+                }
+            }
+            // enough live indices, or the list holds all the indices of the node
+            if (n == k || list.length == count(node(nodeIdx)))
+            {
+                return n == ret.length ? ret : Arrays.copyOf(ret, n);
+            }
+        }
+        TopKCollector collector = new TopKCollector(scores, k);
+        GSTNode node = node(nodeIdx);
+        if (payload != null)
+        {
+            int[] ids = payload.array();
+            for (int i = node.getRangeStart(); i < node.getRangeEnd(); i++)
+            {
+                if (!removed.contains(ids[i]))
+                {
+                    collector.offer(ids[i]);
+                }
+            }
+        }
+        else
+        {
+            for (IntIterator it = node.getNodeIndices().intIterator(); it.hasNext();)
+            {
+                int id = it.nextInt();
+                if (!removed.contains(id))
+                {
+                    collector.offer(id);
+                }
+            }
+        }
+        return collector.drain();
+    }
+
+    /**
+     * Returns the k indices whose key contains word that come first in the given order, using a bounded heap
+     * 
+     * @param word
+     * @param k
+     * @param order
+     * @return
+     */
+    public List<Integer> searchTopK(String word, int k, Comparator<Integer> order)
+    {
+        Collection<Integer> results = search(word);
+        if (results == null || k <= 0)
+        {
+            return new ArrayList<Integer>(0);
+        }
+        PriorityQueue<Integer> heap = new PriorityQueue<Integer>(k + 1, Collections.reverseOrder(order));
+        for (Integer id : results)
+        {
+            if (heap.size() < k)
+            {
+                heap.add(id);
+            }
+            else if (order.compare(id, heap.peek()) < 0)
+            {
+                heap.poll();
+                heap.add(id);
+            }
+        }
+        List<Integer> ret = new ArrayList<Integer>(heap);
+        Collections.sort(ret, order);
+        return ret;
+    }
+
+    private int count(GSTNode node)
+    {
+        return payload != null ? node.getRangeCount() : node.getNodeIndices().size();
+    }
+
+    /**
+     * Computes the posting lists of all the nodes of a sub-tree in one post-order pass, using an explicit stack. The
+     * posting list of a node is the k-way merge of its own indices and the lists of its children. Scratch buffers are
+     * reused from node to node.
+     */
+    private class Flusher
+    {
+        private final IntList stack = new IntList();
+
+        private final IntList cursors = new IntList();
+
+        /**
+         * The sorted runs to merge, one after another, and the bounds of each run
+         */
+        private final IntList runs = new IntList();
+
+        private final IntList bounds = new IntList();
+
+        private final IntList merged = new IntList();
+
+        private int[] heap = new int[16];
+
+        private int[] heads = new int[16];
+
+        long visited;
+
+        long bytes;
+
+        void flushSubtree(int top)
+        {
+            stack.add(top);
+            cursors.add(0);
+            while (!stack.isEmpty())
+            {
+                int depth = stack.size() - 1;
+                int nodeIdx = stack.get(depth);
+                CharIntMap children = node(nodeIdx).getEdges();
+                int cursor = cursors.get(depth);
+                if (cursor < children.size())
+                {
+                    cursors.set(depth, cursor + 1);
+                    stack.add(edge(children.valueAt(cursor)).getDest());
+                    cursors.add(0);
+                }
+                else
+                {
+                    mergeNode(nodeIdx);
+                    stack.setSize(depth);
+                    cursors.setSize(depth);
+                }
+            }
+        }
+
+        /**
+         * Computes the posting list of a node whose children are flushed already
+         */
+        void mergeNode(int nodeIdx)
+        {
+            GSTNode node = node(nodeIdx);
+            IntList own = node.getOwnIndices();
+            CharIntMap children = node.getEdges();
+            visited++;
+            if (children.isEmpty())
+            {
+                setPostings(node, own == null ? PostingList.EMPTY : PostingList.of(own));
+                return;
+            }
+            if (children.size() == 1 && own == null)
+            {
+                // same ids as the only child, share its list
+                node.setPostings(node(edge(children.valueAt(0)).getDest()).getNodeIndices());
+                return;
+            }
+
+            runs.clear();
+            bounds.clear();
+            bounds.add(0);
+            if (own != null)
+            {
+                runs.addAll(own.array(), 0, own.size());
+                bounds.add(runs.size());
+            }
+            for (int i = 0; i < children.size(); i++)
+            {
+                PostingList list = node(edge(children.valueAt(i)).getDest()).getNodeIndices();
+                if (!list.isEmpty())
+                {
+                    runs.ensureCapacity(runs.size() + list.size());
+                    runs.setSize(runs.size() + list.copyTo(runs.array(), runs.size()));
+                    bounds.add(runs.size());
+                }
+            }
+            merge();
+            setPostings(node, PostingList.of(merged));
+        }
+
+        private void setPostings(GSTNode node, PostingList list)
+        {
+            node.setPostings(list);
+            bytes += list.sizeInBytes();
+        }
+
+        /**
+         * Merges the sorted runs into merged, dropping duplicated ids
+         */
+        private void merge()
+        {
+            int k = bounds.size() - 1;
+            merged.clear();
+            merged.ensureCapacity(runs.size());
+            if (k == 1)
+            {
+                merged.addAll(runs.array(), 0, runs.size());
+                return;
+            }
+            if (heap.length < k)
+            {
+                heap = new int[k];
+                heads = new int[k];
+            }
+            int[] values = runs.array();
+            for (int r = 0; r < k; r++)
+            {
+                heads[r] = bounds.get(r);
+                heap[r] = r;
+            }
+            for (int i = k / 2 - 1; i >= 0; i--)
+            {
+                siftDown(i, k, values);
+            }
+            int size = k;
+            while (size > 0)
+            {
+                int r = heap[0];
+                int value = values[heads[r]++];
+                if (merged.isEmpty() || merged.last() != value)
+                {
+                    merged.add(value);
+                }
+                if (heads[r] == bounds.get(r + 1))
+                {
+                    heap[0] = heap[--size];
+                }
+                if (size > 0)
+                {
+                    siftDown(0, size, values);
+                }
+            }
+        }
+
+        private void siftDown(int i, int size, int[] values)
+        {
+            int r = heap[i];
+            int value = values[heads[r]];
+            while (true)
+            {
+                int child = 2 * i + 1;
+                if (child >= size)
+                {
+                    break;
+                }
+                if (child + 1 < size && values[heads[heap[child + 1]]] < values[heads[heap[child]]])
+                {
+                    child++;
+                }
+                if (values[heads[heap[child]]] >= value)
+                {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = r;
+        }
+    }
+
+    /**
+     * Flushes the sub-trees below a range of root edges, splitting the range until it is small enough
+     */
+    private class FlushTask extends RecursiveTask<long[]>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final CharIntMap children;
+
+        private final int from;
+
+        private final int to;
+
+        private final int chunk;
+
+        FlushTask(CharIntMap children, int from, int to, int chunk)
+        {
+            this.children = children;
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected long[] compute()
+        {
+            if (to - from <= chunk)
+            {
+                Flusher flusher = new Flusher();
+                for (int i = from; i < to; i++)
+                {
+                    flusher.flushSubtree(edge(children.valueAt(i)).getDest());
+                }
+                return new long[]
+                { flusher.visited, flusher.bytes };
+            }
+            int mid = (from + to) >>> 1;
+            FlushTask left = new FlushTask(children, from, mid, chunk);
+            left.fork();
+            long[] right = new FlushTask(children, mid, to, chunk).compute();
+            long[] ret = left.join();
+            ret[0] += right[0];
+            ret[1] += right[1];
+            return ret;
+        }
+    }
+
+    /**
+     * Builds the tree of the given keys on a pool, key i getting index i. The keys are cut into contiguous shards, the
+     * tree of every shard is built on its own, and the trees are then merged two by two. The result holds the same
+     * keys, nodes and results as a tree built serially with addWord. It is not flushed.
+     * 
+     * @param keys the keys to add
+     * @param pool the pool to build on
+     * @return the tree of all the keys
+     */
+    public static GSuffixTree buildParallel(List<String> keys, ForkJoinPool pool)
+    {
+        int shard = Math.max(1024, keys.size() / (4 * pool.getParallelism()));
+        return pool.invoke(new BuildTask(keys, 0, keys.size(), shard));
+    }
+
+    private static class BuildTask extends RecursiveTask<GSuffixTree>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> keys;
+
+        private final int from;
+
+        private final int to;
+
+        private final int shard;
+
+        BuildTask(List<String> keys, int from, int to, int shard)
+        {
+            this.keys = keys;
+            this.from = from;
+            this.to = to;
+            this.shard = shard;
+        }
+
+        @Override
+        protected GSuffixTree compute()
+        {
+            if (to - from <= shard)
+            {
+                GSuffixTree tree = new GSuffixTree();
+                for (int i = from; i < to; i++)
+                {
+                    tree.addWord(keys.get(i), i);
+                }
+                return tree;
+            }
+            int mid = (from + to) >>> 1;
+            BuildTask left = new BuildTask(keys, from, mid, shard);
+            left.fork();
+            GSuffixTree right = new BuildTask(keys, mid, to, shard).compute();
+            GSuffixTree ret = left.join();
+            ret.merge(right);
+            return ret;
+        }
+    }
+
+    /**
+     * Adds all the keys of other to this tree, as if they had been added with addWord. Both trees are compacted tries
+     * of the suffixes of their keys, so they are merged edge by edge, splitting an edge where the two labels differ and
+     * copying the sub-trees found in other only. Suffix links are computed again at the end.
+     * 
+     * The tree must be flushed again afterwards. other is left unchanged.
+     * 
+     * @param other the tree to merge into this one
+     */
+    void merge(GSuffixTree other)
+    {
+        char[] text = other.arena.toCharArray();
+        int shift = arena.append(text, 0, text.length);
+        // merge tasks : node of this tree, [start, end) label of an edge of other (shifted), destination in other
+        IntList tasks = new IntList();
+        node(root).addIndices(other.node(other.root).getOwnIndices());
+        pushChildren(tasks, root, other, other.root, shift);
+        while (!tasks.isEmpty())
+        {
+            int n = tasks.size() - 4;
+            int a = tasks.get(n);
+            int start = tasks.get(n + 1);
+            int end = tasks.get(n + 2);
+            int bDest = tasks.get(n + 3);
+            tasks.setSize(n);
+
+            int e = node(a).getEdge(arena.charAt(start));
+            if (e == -1)
+            {
+                int copy = copySubtree(other, bDest, shift);
+                node(a).addEdge(arena.charAt(start), createEdge(start, end, copy));
+                continue;
+            }
+            GSTEdge edge = edge(e);
+            int len = Math.min(edge.length(), end - start);
+            int k = 1;
+            while (k < len && arena.charAt(edge.getStart() + k) == arena.charAt(start + k))
+            {
+                k++;
+            }
+            int next = k < edge.length() ? splitEdge(a, e, k) : edge.getDest();
+            if (k < end - start)
+            {
+                tasks.add(next);
+                tasks.add(start + k);
+                tasks.add(end);
+                tasks.add(bDest);
+            }
+            else
+            {
+                node(next).addIndices(other.node(bDest).getOwnIndices());
+                pushChildren(tasks, next, other, bDest, shift);
+            }
+        }
+        last = Math.max(last, other.last);
+        activeLeaf = root;
+        payload = null;
+        topKLists = null;
+        computeSuffixLinks();
+    }
+
+    private static void pushChildren(IntList tasks, int a, GSuffixTree other, int b, int shift)
+    {
+        CharIntMap children = other.node(b).getEdges();
+        for (int i = 0; i < children.size(); i++)
+        {
+            GSTEdge edge = other.edge(children.valueAt(i));
+            tasks.add(a);
+            tasks.add(edge.getStart() + shift);
+            tasks.add(edge.getEnd() + shift);
+            tasks.add(edge.getDest());
+        }
+    }
+
+    /**
+     * Copies the sub-tree of other starting at node b into this tree, and returns the copy of b
+     */
+    private int copySubtree(GSuffixTree other, int b, int shift)
+    {
+        int ret = createNode();
+        IntList stack = new IntList();
+        stack.add(b);
+        stack.add(ret);
+        while (!stack.isEmpty())
+        {
+            int n = stack.size() - 2;
+            int from = stack.get(n);
+            int to = stack.get(n + 1);
+            stack.setSize(n);
+            node(to).addIndices(other.node(from).getOwnIndices());
+            CharIntMap children = other.node(from).getEdges();
+            for (int i = 0; i < children.size(); i++)
+            {
+                GSTEdge edge = other.edge(children.valueAt(i));
+                int child = createNode();
+                node(to).addEdge(children.keyAt(i), createEdge(edge.getStart() + shift, edge.getEnd() + shift, child));
+                stack.add(edge.getDest());
+                stack.add(child);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Splits edge e of node n after k chars, and returns the node created in between
+     */
+    private int splitEdge(int n, int e, int k)
+    {
+        GSTEdge edge = edge(e);
+        int mid = createNode();
+        int top = createEdge(edge.getStart(), edge.getStart() + k, mid);
+        node(n).addEdge(arena.charAt(edge.getStart()), top);
+        edge.setStart(edge.getStart() + k);
+        node(mid).addEdge(arena.charAt(edge.getStart()), e);
+        return mid;
+    }
+
+    /**
+     * Sets the suffix link of every node from scratch, top down: if node u spells x + alpha and its child v spells x +
+     * alpha + beta, the link of v is found by skipping down beta from the link of u, one edge at a time.
+     */
+    private void computeSuffixLinks()
+    {
+        IntList stack = new IntList();
+        stack.add(root);
+        while (!stack.isEmpty())
+        {
+            int u = stack.get(stack.size() - 1);
+            stack.setSize(stack.size() - 1);
+            CharIntMap children = node(u).getEdges();
+            for (int i = 0; i < children.size(); i++)
+            {
+                GSTEdge edge = edge(children.valueAt(i));
+                int v = edge.getDest();
+                int link;
+                if (u == root)
+                {
+                    link = skip(root, edge.getStart() + 1, edge.getEnd());
+                }
+                else if (node(u).getSuffix() == -1)
+                {
+                    link = -1;
+                }
+                else
+                {
+                    link = skip(node(u).getSuffix(), edge.getStart(), edge.getEnd());
+                }
+                node(v).setSuffix(link);
+                stack.add(v);
+            }
+        }
+    }
+
+    /**
+     * Follows the [start, end) range of the arena from node n, and returns the node where it ends, -1 if it does not
+     * end on a node
+     */
+    private int skip(int n, int start, int end)
+    {
+        while (start < end)
+        {
+            int e = node(n).getEdge(arena.charAt(start));
+            if (e == -1 || edge(e).length() > end - start)
+            {
+                return -1;
+            }
+            n = edge(e).getDest();
+            start += edge(e).length();
+        }
+        return n;
+    }
+
+    /**
+     * Require flush before invoking search unless a gst is generate from bin file. After flushRanges, the result is a
+     * lazy {@link RangeResults}.
+     * 
+     * @param word
+     * @return null if no key contains word, or only removed ones
+     */
+    public Collection<Integer> search(String word)
+    {
+        IndexMetrics m = metrics;
+        long t1 = m == null ? 0 : System.nanoTime();
+        GSTNode tmpNode = searchNode(word);
+        Collection<Integer> ret = tmpNode == null ? null : results(tmpNode);
+        if (m != null)
+        {
+            m.recordSearch(System.nanoTime() - t1);
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the indices of all the keys below the given node, without the removed ones
+     * 
+     * @return null if they are all removed, as for a word no key contains
+     */
+    private Collection<Integer> results(GSTNode node)
+    {
+        if (removed.isEmpty())
+        {
+            return allResults(node);
+        }
+        return hasLive(node, null) ? removed.filter(allResults(node)) : null;
+    }
+
+    /**
+     * Returns the indices of all the keys below the given node, including the removed ones
+     */
+    private Collection<Integer> allResults(GSTNode node)
+    {
+        if (payload != null)
+        {
+            return new RangeResults(payload.array(), node.getRangeStart(), node.getRangeEnd(), node.getRangeCount());
+        }
+        return node.getNodeIndices();
+    }
+
+    /**
+     * Computes the matching statistics of word: the i-th value is the length of the longest prefix of word.substring(i)
+     * that is a substring of some key, that is the length of match(word.substring(i)).
+     * 
+     * @param word
+     * @return one length per char of word
+     */
+    public int[] matchingStatistics(CharSequence word)
+    {
+        int[] ret = new int[word.length()];
+        walk(word, ret);
+        return ret;
+    }
+
+    /**
+     * Finds the longest substring of word that is a substring of some key, the leftmost one if there are several. The
+     * removed keys are skipped: a span only they contain is not a match.
+     * 
+     * @param word
+     * @return the span of the substring and the keys containing it, null if no char of word is in a key left
+     */
+    public SubstringMatch longestSubstring(CharSequence word)
+    {
+        return longestSubstring(word, null);
+    }
+
+    /**
+     * Finds the longest substring of word that is a substring of some key that is neither removed from this tree nor
+     * in dead, the leftmost one if there are several
+     * 
+     * While there are removed keys, the matching statistics bound the span starting at every position, and the ones
+     * that could beat the best so far are walked down again from the root, stopping before the first edge whose keys
+     * are all removed. Going down only drops keys, so that is the longest live span from the position.
+     * 
+     * @param word
+     * @param dead more indices to skip, null for none
+     * @return null if no char of word is in a key left
+     */
+    SubstringMatch longestSubstring(CharSequence word, Tombstones dead)
+    {
+        if (removed.isEmpty() && (dead == null || dead.isEmpty()))
+        {
+            return walk(word, null);
+        }
+        int[] ms = new int[word.length()];
+        walk(word, ms);
+        int bestStart = 0;
+        int bestLength = 0;
+        int bestNode = -1;
+        for (int i = 0; i < ms.length; i++)
+        {
+            if (ms[i] <= bestLength)
+            {
+                continue;
+            }
+            int nodeIdx = root;
+            int length = 0;
+            int found = -1;
+            while (length < ms[i])
+            {
+                GSTEdge edge = edge(node(nodeIdx).getEdge(word.charAt(i + length)));
+                if (!hasLive(node(edge.getDest()), dead))
+                {
+                    break;
+                }
+                // the chars of the edge up to ms[i] match, from the matching statistics
+                length = Math.min(ms[i], length + edge.length());
+                nodeIdx = edge.getDest();
+                found = nodeIdx;
+            }
+            if (length > bestLength)
+            {
+                bestStart = i;
+                bestLength = length;
+                bestNode = found;
+            }
+        }
+        if (bestNode == -1)
+        {
+            return null;
+        }
+        Collection<Integer> results = results(node(bestNode));
+        return new SubstringMatch(bestStart, bestStart + bestLength, dead == null ? results : dead.filter(results));
+    }
+
+    /**
+     * Tests whether some key below the given node is neither removed nor in dead
+     */
+    private boolean hasLive(GSTNode node, Tombstones dead)
+    {
+        if (payload != null)
+        {
+            int[] ids = payload.array();
+            for (int i = node.getRangeStart(); i < node.getRangeEnd(); i++)
+            {
+                if (!removed.contains(ids[i]) && (dead == null || !dead.contains(ids[i])))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+        for (IntIterator it = node.getNodeIndices().intIterator(); it.hasNext();)
+        {
+            int id = it.nextInt();
+            if (!removed.contains(id) && (dead == null || !dead.contains(id)))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Computes the matching statistics of word in one walk over the tree, following suffix links instead of starting
+     * again from the root at every position, in O(m) steps.
+     * 
+     * The walk is at the point of the tree spelling word[i, i + l): node v spells word[i, pos), and the remaining r =
+     * i + l - pos chars lie along the edge of v starting with word[pos]. Moving from i to i + 1 follows the suffix link
+     * of v, which spells word[i + 1, pos), and then skips down the r remaining chars one edge at a time.
+     * 
+     * @param word
+     * @param ms where to store the matching statistics, may be null
+     * @return the leftmost longest match, null if there is none
+     */
+    private SubstringMatch walk(CharSequence word, int[] ms)
+    {
+        int m = word.length();
+        int v = root;
+        int pos = 0;
+        int r = 0;
+        int l = 0;
+        int bestStart = 0;
+        int bestLength = 0;
+        int bestNode = -1;
+        for (int i = 0; i < m; i++)
+        {
+            // extend the match as far as possible
+            while (i + l < m)
+            {
+                int e = node(v).getEdge(word.charAt(pos));
+                if (e == -1)
+                {
+                    break;
+                }
+                GSTEdge edge = edge(e);
+                int start = edge.getStart();
+                int len = edge.length();
+                while (r < len && i + l < m && arena.charAt(start + r) == word.charAt(i + l))
+                {
+                    l++;
+                    r++;
+                }
+                if (r < len)
+                {
+                    break;
+                }
+                v = edge.getDest();
+                pos += len;
+                r = 0;
+            }
+            if (ms != null)
+            {
+                ms[i] = l;
+            }
+            if (l > bestLength)
+            {
+                bestStart = i;
+                bestLength = l;
+                bestNode = r == 0 ? v : edge(node(v).getEdge(word.charAt(pos))).getDest();
+            }
+            if (l == 0)
+            {
+                pos = i + 1;
+                continue;
+            }
+
+            // drop word[i]
+            l--;
+            int link = node(v).getSuffix();
+            if (v == root || link == -1)
+            {
+                v = root;
+                pos = i + 1;
+                r = l;
+            }
+            else
+            {
+                v = link;
+            }
+            while (r > 0)
+            {
+                GSTEdge edge = edge(node(v).getEdge(word.charAt(pos)));
+                if (edge.length() > r)
+                {
+                    break;
+                }
+                v = edge.getDest();
+                pos += edge.length();
+                r -= edge.length();
+            }
+        }
+        if (bestNode == -1)
+        {
+            return null;
+        }
+        return new SubstringMatch(bestStart, bestStart + bestLength, results(node(bestNode)));
+    }
+
+    /**
+     * Flush and Search
+     * 
+     * @param word
+     * @return
+     */
+    protected Collection<Integer> flushAndSearch(String word)
+    {
+        flush();
+        GSTNode tmpNode = searchNode(word);
+        if (tmpNode == null)
+        {
+            return null;
+        }
+        return tmpNode.getNodeIndices();
+    }
+
+    /**
+     * Returns the tree node (if present) that corresponds to the given string.
+     */
+    private GSTNode searchNode(String word)
+    {
+        int nodeIdx = searchNodeIndex(word);
+        return nodeIdx == -1 ? null : node(nodeIdx);
+    }
+
+    /**
+     * Returns the index of the tree node that corresponds to the given string, -1 if there is none.
+     */
+    private int searchNodeIndex(String word)
+    {
+        /*
+         * Verifies if exists a path from the root to a node such that the concatenation of all the labels on the path
+         * is a superstring of the given word. If such a path is found, the last node on it is returned.
+         */
+        int currentNode = root;
+        int currentEdge = -1;
+
+        for (int i = 0; i < word.length(); ++i)
+        {
+            char ch = word.charAt(i);
+            // follow the edge corresponding to this char
+            currentEdge = node(currentNode).getEdge(ch);
+            if (-1 == currentEdge)
+            {
+                // there is no edge starting with this char
+                return -1;
+            }
+            else
+            {
+                GSTEdge edge = edge(currentEdge);
+                int lenToMatch = Math.min(word.length() - i, edge.length());
+                if (!arena.regionMatches(edge.getStart(), word, i, lenToMatch))
+                {
+                    // the label on the edge does not correspond to the one in
+                    // the string to search
+                    return -1;
+                }
+
+                if (edge.length() >= word.length() - i)
+                {
+                    return edge.getDest();
+                }
+                else
+                {
+                    // advance to next node
+                    currentNode = edge.getDest();
+                    i += lenToMatch - 1;
+                }
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Take word as prefix, searches for the longest match.
+     * 
+     * @param word the key to search for
+     * @return matched word for the given word
+     */
+    public String match(String word)
+    {
+        IndexMetrics m = metrics;
+        long t1 = m == null ? 0 : System.nanoTime();
+        int currentNode = root;
+        int i = 0;
+
+        while (i < word.length())
+        {
+            int currentEdge = node(currentNode).getEdge(word.charAt(i));
+            if (-1 == currentEdge)
+            {
+                break;
+            }
+            GSTEdge edge = edge(currentEdge);
+            int j = edge.getStart();
+            int end = edge.getEnd();
+            while (j < end && i < word.length() && word.charAt(i) == arena.charAt(j))
+            {
+                i++;
+                j++;
+            }
+            if (j < end)
+            {
+                break;
+            }
+            currentNode = edge.getDest();
+        }
+
+        String ret = word.substring(0, i);
+        if (m != null)
+        {
+            m.recordMatch(System.nanoTime() - t1);
+        }
+        return ret;
+    }
+
+    /**
+     * Searches the keys containing a substring at most maxEdits insertions, deletions or substitutions away from word,
+     * for example the keys containing "五道口城铁" for "五道囗城铁" and one edit. Like search, it requires flush.
+     * 
+     * Every path from the root spells a substring of the keys, so the tree is walked depth first carrying one row of
+     * the Levenshtein table per char of depth, computed only in the band of the cells that can be within maxEdits. The
+     * distance of a path is the last cell of its row, and the cells of a row never decrease further down: a branch is
+     * left as soon as its row cannot give a smaller distance than the best one on the path, and all the keys below
+     * get that best distance. Nothing below a row above maxEdits is visited, and where a char missing from word would
+     * already push the row above it, only the children starting with a char of word are looked up.
+     * 
+     * A substring whose first char is deleted or replaced is never closer than the same substring without that char,
+     * which is also in the tree, so only the paths starting with one of the first maxEdits + 1 chars of word are
+     * walked.
+     * 
+     * @param word the word to look for
+     * @param maxEdits the number of edits allowed
+     * @return the matching keys with their smallest distance, by increasing distance then index
+     * @throws IllegalArgumentException if maxEdits is negative
+     */
+    public ApproxResults searchApprox(String word, int maxEdits)
+    {
+        if (maxEdits < 0)
+        {
+            throw new IllegalArgumentException("Negative maxEdits : " + maxEdits);
+        }
+        ApproxWalk walk = new ApproxWalk(word, maxEdits);
+        int[] first = walk.rows[0];
+        for (int j = 0; j < first.length; j++)
+        {
+            first[j] = Math.min(j, walk.inf);
+        }
+        if (word.length() <= maxEdits)
+        {
+            // the empty substring is close enough, every key matches
+            walk.walkNode(root, 0, word.length(), 0);
+        }
+        else
+        {
+            CharIntMap children = node(root).getEdges();
+            for (int j = 0; j <= maxEdits; j++)
+            {
+                int e = children.get(word.charAt(j));
+                if (e != -1 && word.indexOf(word.charAt(j)) == j)
+                {
+                    walk.walkEdge(edge(e), 0, walk.inf);
+                }
+            }
+        }
+        return walk.results();
+    }
+
+    /**
+     * The state of a searchApprox walk
+     */
+    private final class ApproxWalk
+    {
+        private final char[] word;
+
+        /**
+         * The distinct chars of word
+         */
+        private final char[] chars;
+
+        private final int maxEdits;
+
+        /**
+         * The value of every cell greater than maxEdits
+         */
+        private final int inf;
+
+        /**
+         * The row of every char of depth. A row is only written in its band, the other cells stay inf.
+         */
+        private final int[][] rows;
+
+        /**
+         * The index and distance of every match, an index may come several times
+         */
+        private final IntList found = new IntList();
+
+        ApproxWalk(String word, int maxEdits)
+        {
+            this.word = word.toCharArray();
+            char[] sorted = word.toCharArray();
+            Arrays.sort(sorted);
+            int n = 0;
+            for (int i = 0; i < sorted.length; i++)
+            {
+                if (n == 0 || sorted[i] != sorted[n - 1])
+                {
+                    sorted[n++] = sorted[i];
+                }
+            }
+            this.chars = Arrays.copyOf(sorted, n);
+            this.maxEdits = maxEdits;
+            this.inf = maxEdits + 1;
+            // below depth length + maxEdits every cell is inf
+            this.rows = new int[word.length() + maxEdits + 2][word.length() + 1];
+            for (int[] row : rows)
+            {
+                Arrays.fill(row, inf);
+            }
+        }
+
+        /**
+         * Walks the children of a node reached with the given depth, best distance on its path and smallest cell of
+         * its row
+         */
+        void walkNode(int nodeIdx, int depth, int best, int min)
+        {
+            GSTNode node = node(nodeIdx);
+            if (best <= maxEdits)
+            {
+                IntList own = node.getOwnIndices();
+                if (own != null)
+                {
+                    for (int i = 0; i < own.size(); i++)
+                    {
+                        add(own.get(i), best);
+                    }
+                }
+            }
+            CharIntMap children = node.getEdges();
+            if (best > maxEdits && min + 1 > maxEdits)
+            {
+                // a char missing from word adds one to every cell, only the chars of word can stay within maxEdits
+                for (char ch : chars)
+                {
+                    int e = children.get(ch);
+                    if (e != -1)
+                    {
+                        walkEdge(edge(e), depth, best);
+                    }
+                }
+                return;
+            }
+            for (int c = 0; c < children.size(); c++)
+            {
+                walkEdge(edge(children.valueAt(c)), depth, best);
+            }
+        }
+
+        void walkEdge(GSTEdge edge, int depth, int best)
+        {
+            int m = word.length;
+            int min = 0;
+            for (int pos = edge.getStart(); pos < edge.getEnd(); pos++)
+            {
+                char ch = arena.charAt(pos);
+                int[] prev = rows[depth];
+                int[] cur = rows[++depth];
+                min = cur[0] = Math.min(depth, inf);
+                int to = Math.min(m, depth + maxEdits);
+                for (int j = Math.max(1, depth - maxEdits); j <= to; j++)
+                {
+                    int cell = prev[j - 1] + (word[j - 1] == ch ? 0 : 1);
+                    cell = Math.min(cell, Math.min(prev[j], cur[j - 1]) + 1);
+                    cur[j] = cell = Math.min(cell, inf);
+                    min = Math.min(min, cell);
+                }
+                best = Math.min(best, cur[m]);
+                if (min >= best)
+                {
+                    // no deeper position can do better than best
+                    if (best <= maxEdits)
+                    {
+                        addAll(edge.getDest(), best);
+                    }
+                    return;
+                }
+            }
+            walkNode(edge.getDest(), depth, best, min);
+        }
+
+        /**
+         * Adds all the indices below a node
+         */
+        private void addAll(int nodeIdx, int distance)
+        {
+            GSTNode node = node(nodeIdx);
+            if (payload != null)
+            {
+                int[] ids = payload.array();
+                for (int i = node.getRangeStart(); i < node.getRangeEnd(); i++)
+                {
+                    add(ids[i], distance);
+                }
+            }
+            else
+            {
+                for (IntIterator it = node.getNodeIndices().intIterator(); it.hasNext();)
+                {
+                    add(it.nextInt(), distance);
+                }
+            }
+        }
+
+        private void add(int index, int distance)
+        {
+            if (!removed.contains(index))
+            {
+                found.add(index);
+                found.add(distance);
+            }
+        }
+
+        /**
+         * Keeps the smallest distance of every index, and sorts them by distance
+         */
+        ApproxResults results()
+        {
+            int n = found.size() / 2;
+            long[] keys = new long[n];
+            for (int i = 0; i < n; i++)
+            {
+                keys[i] = (long) found.get(2 * i) << 32 | found.get(2 * i + 1);
+            }
+            Arrays.sort(keys);
+            int size = 0;
+            for (int i = 0; i < n; i++)
+            {
+                if (size == 0 || keys[i] >>> 32 != keys[size - 1] >>> 32)
+                {
+                    keys[size++] = keys[i];
+                }
+            }
+            for (int i = 0; i < size; i++)
+            {
+                keys[i] = keys[i] << 32 | keys[i] >>> 32;
+            }
+            Arrays.sort(keys, 0, size);
+            int[] indices = new int[size];
+            int[] distances = new int[size];
+            for (int i = 0; i < size; i++)
+            {
+                indices[i] = (int) keys[i];
+                distances[i] = (int) (keys[i] >>> 32);
+            }
+            return new ApproxResults(indices, distances);
+        }
+    }
+
+    /**
+     * Searches all the given words, as search would one by one.
+     * 
+     * The words are sorted first, and every walk starts again from the deepest node of the previous walk on their
+     * common prefix instead of the root, so the child lookups of shared prefixes are done once. A word extending the
+     * mismatch of the previous one fails without walking, and repeated words are walked once.
+     * 
+     * @param words the words to search
+     * @param pool the pool to split the sorted words on, null to search on the calling thread only
+     * @return the results of every word, in the order of words, null for a word without results
+     */
+    @SuppressWarnings("unchecked")
+    public List<Collection<Integer>> searchBatch(List<? extends CharSequence> words, ForkJoinPool pool)
+    {
+        Object[] ret = new Object[words.size()];
+        walkBatch(words, ret, true, pool);
+        return (List<Collection<Integer>>) (List<?>) Arrays.asList(ret);
+    }
+
+    /**
+     * @see #searchBatch(List, ForkJoinPool)
+     */
+    public List<Collection<Integer>> searchBatch(List<? extends CharSequence> words)
+    {
+        return searchBatch(words, null);
+    }
+
+    /**
+     * Matches all the given words, as match would one by one, sharing the walks of common prefixes.
+     * 
+     * @param words the words to match
+     * @param pool the pool to split the sorted words on, null to match on the calling thread only
+     * @return the longest prefix in the tree of every word, in the order of words
+     * @see #searchBatch(List, ForkJoinPool)
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> matchBatch(List<? extends CharSequence> words, ForkJoinPool pool)
+    {
+        Object[] ret = new Object[words.size()];
+        walkBatch(words, ret, false, pool);
+        return (List<String>) (List<?>) Arrays.asList(ret);
+    }
+
+    /**
+     * @see #matchBatch(List, ForkJoinPool)
+     */
+    public List<String> matchBatch(List<? extends CharSequence> words)
+    {
+        return matchBatch(words, null);
+    }
+
+    private void walkBatch(List<? extends CharSequence> words, Object[] out, boolean search, ForkJoinPool pool)
+    {
+        String[] keys = new String[words.size()];
+        int[] order = new int[keys.length];
+        for (int i = 0; i < keys.length; i++)
         {
-            return null;
+            keys[i] = words.get(i).toString();
+            order[i] = i;
+        }
+        sortBatch(keys, order, new long[keys.length], 0, keys.length, 0);
+        BatchTask task = new BatchTask(keys, order, 0, keys.length, out, search);
+        if (pool == null || keys.length <= BatchTask.CHUNK)
+        {
+            task.walk();
+        }
+        else
+        {
+            pool.invoke(task);
         }
-        return tmpNode.getNodeIndices();
     }
 
     /**
-     * Returns the tree node (if present) that corresponds to the given string.
+     * Sorts order[from, to) by the keys it points to, all equal before depth. A most significant digit radix sort, two
+     * chars at a time: every pass packs the next two chars and the position of every key into a long, and sorts the
+     * longs, so that the keys are read once per pass instead of once per comparison.
      */
-    private GSTNode searchNode(String word)
+    private static void sortBatch(String[] keys, int[] order, long[] scratch, int from, int to, int depth)
     {
-        /*
-         * Verifies if exists a path from the root to a node such that the concatenation of all the labels on the path
-         * is a superstring of the given word. If such a path is found, the last node on it is returned.
-         */
-        int currentNode = root;
-        int currentEdge = -1;
-
-        for (int i = 0; i < word.length(); ++i)
+        boolean longer = false;
+        for (int i = from; i < to; i++)
         {
-            char ch = word.charAt(i);
-            // follow the edge corresponding to this char
-            currentEdge = node(currentNode).getEdge(ch);
-            if (-1 == currentEdge)
+            String key = keys[order[i]];
+            int n = key.length();
+            long chars = (long) (depth < n ? key.charAt(depth) : 0) << 16 | (depth + 1 < n ? key.charAt(depth + 1) : 0);
+            longer |= n > depth + 2;
+            // flips the sign bit so that the signed order of the longs is the order of the chars
+            scratch[i] = (chars << 32 | order[i]) ^ Long.MIN_VALUE;
+        }
+        Arrays.sort(scratch, from, to);
+        for (int i = from; i < to; i++)
+        {
+            order[i] = (int) scratch[i];
+        }
+        if (!longer)
+        {
+            return;
+        }
+        int j;
+        for (int i = from; i < to; i = j)
+        {
+            j = i + 1;
+            while (j < to && scratch[j] >>> 32 == scratch[i] >>> 32)
             {
-                // there is no edge starting with this char
-                return null;
+                j++;
             }
-            else
+            if (j - i > 1)
             {
-                String label = edge(currentEdge).getLabel();
-                int lenToMatch = Math.min(word.length() - i, label.length());
-                if (!word.regionMatches(i, label, 0, lenToMatch))
-                {
-                    // the label on the edge does not correspond to the one in
-                    // the string to search
-                    return null;
-                }
-
-                if (label.length() >= word.length() - i)
-                {
-                    return node(edge(currentEdge).getDest());
-                }
-                else
-                {
-                    // advance to next node
-                    currentNode = edge(currentEdge).getDest();
-                    i += lenToMatch - 1;
-                }
+                sortBatch(keys, order, scratch, i, j, depth + 2);
             }
         }
-
-        return null;
     }
 
     /**
-     * Take word as prefix, searches for the longest match.
-     * 
-     * @param word the key to search for
-     * @return matched word for the given word
+     * Walks a range of sorted words, splitting the range while it is larger than CHUNK. Every walk resumes from the
+     * path of the previous word of the range.
      */
-    public String match(String word)
+    private class BatchTask extends RecursiveAction
     {
-        /*
-         * Verifies if exists a path from the root to a node such that the concatenation of all the labels on the path
-         * is a superstring of the given word. If such a path is found, the last node on it is returned.
-         */
-        StringBuffer result = new StringBuffer();
-        int currentNode = root;
-        int currentEdge = -1;
+        private static final long serialVersionUID = 1L;
 
-        for (int i = 0; i < word.length();)
+        private static final int CHUNK = 1024;
+
+        private final String[] keys;
+
+        private final int[] order;
+
+        private final int from;
+
+        private final int to;
+
+        private final Object[] out;
+
+        private final boolean search;
+
+        BatchTask(String[] keys, int[] order, int from, int to, Object[] out, boolean search)
         {
-            char ch = word.charAt(i);
-            currentEdge = node(currentNode).getEdge(ch);
-            if (-1 == currentEdge)
+            this.keys = keys;
+            this.order = order;
+            this.from = from;
+            this.to = to;
+            this.out = out;
+            this.search = search;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from <= CHUNK)
             {
-                return result.toString();
+                walk();
+                return;
             }
-            else
+            int mid = (from + to) >>> 1;
+            invokeAll(new BatchTask(keys, order, from, mid, out, search),
+                    new BatchTask(keys, order, mid, to, out, search));
+        }
+
+        void walk()
+        {
+            // the nodes on the path of the previous word, and the number of its chars each one spells
+            IntList path = new IntList();
+            IntList depths = new IntList();
+            path.add(root);
+            depths.add(0);
+            String previous = null;
+            // the length of the longest prefix of the previous word in the tree
+            int matched = 0;
+            Object result = null;
+            for (int k = from; k < to; k++)
             {
-                String label = edge(currentEdge).getLabel();
-                for (int j = 0; j < label.length(); j++)
+                String word = keys[order[k]];
+                int len = word.length();
+                int lcp = 0;
+                if (previous != null)
+                {
+                    int n = Math.min(len, previous.length());
+                    while (lcp < n && word.charAt(lcp) == previous.charAt(lcp))
+                    {
+                        lcp++;
+                    }
+                }
+                if (previous != null && lcp == len && len == previous.length())
+                {
+                    // the same word again
+                }
+                else if (previous != null && lcp > matched)
+                {
+                    // the word goes through the char the previous one stopped at
+                    result = search ? null : word.substring(0, matched);
+                }
+                else
                 {
-                    if (i >= word.length())
+                    while (depths.get(depths.size() - 1) > lcp)
+                    {
+                        path.setSize(path.size() - 1);
+                        depths.setSize(depths.size() - 1);
+                    }
+                    int locus = path.get(path.size() - 1);
+                    int i = depths.get(depths.size() - 1);
+                    while (i < len)
                     {
-                        return result.toString();
+                        int e = node(locus).getEdge(word.charAt(i));
+                        if (e == -1)
+                        {
+                            break;
+                        }
+                        GSTEdge edge = edge(e);
+                        int j = edge.getStart();
+                        int end = edge.getEnd();
+                        while (j < end && i < len && word.charAt(i) == arena.charAt(j))
+                        {
+                            i++;
+                            j++;
+                        }
+                        locus = edge.getDest();
+                        if (j < end)
+                        {
+                            break;
+                        }
+                        path.add(locus);
+                        depths.add(i);
                     }
-                    else if (word.charAt(i) == label.charAt(j))
+                    matched = i;
+                    if (search)
                     {
-                        result.append(label.charAt(j));
-                        i++;
+                        result = matched == len && len > 0 ? results(node(locus)) : null;
                     }
                     else
                     {
-                        return result.toString();
+                        result = word.substring(0, matched);
                     }
                 }
-                currentNode = edge(currentEdge).getDest();
+                out[order[k]] = result;
+                previous = word;
             }
         }
-
-        return result.toString();
     }
 
     /**
@@ -273,6 +2083,9 @@ public class GSuffixTree
      * Entries must be inserted so that their indexes are in non-decreasing order, otherwise an IllegalStateException
      * will be raised.
      * 
+     * The key is appended once to the text arena of the tree; all the labels created while inserting it are offsets
+     * into that copy, so the insertion does not allocate any String.
+     * 
      * @param key the string key that will be added to the index
      * @param index the value that will be added to the index
      * @throws IllegalStateException if an invalid index is passed as input
@@ -284,36 +2097,50 @@ public class GSuffixTree
             throw new IllegalStateException("The input index must not be less than any of the previously inserted ones. Got " + index
                     + ", expected at least " + last);
         }
+        else if (removed.contains(index))
+        {
+            throw new IllegalStateException("The input index was removed : " + index);
+        }
         else
         {
             last = index;
         }
+        version++;
+        topKLists = null;
+        IndexMetrics m = metrics;
+        long t1 = 0;
+        int nodeNum = 0;
+        int edgeNum = 0;
+        long splitNum = 0;
+        if (m != null)
+        {
+            t1 = System.nanoTime();
+            nodeNum = nodes.size();
+            edgeNum = edges.size();
+            splitNum = splits;
+        }
 
         // reset activeLeaf
         activeLeaf = root;
 
-        String remainder = key;
+        int wordStart = arena.append(key);
+        int wordEnd = arena.length();
         int s = root;
 
         // proceed with tree construction (closely related to procedure in
-        // Ukkonen's paper)
-        String text = "";
+        // Ukkonen's paper). The active string is always [k, i + 1) of the arena
+        int k = wordStart;
         // iterate over the string, one char at a time
-        for (int i = 0; i < remainder.length(); i++)
+        for (int i = wordStart; i < wordEnd; i++)
         {
-            // line 6
-            text += remainder.charAt(i);
-            // use intern to make sure the resulting string is in the pool.
-            text = text.intern();
-
             // line 7: update the tree with the new transitions due to this new
             // char
-            Pair<Integer, String> active = update(s, text, remainder.substring(i), index);
+            update(s, k, i, wordEnd, index);
             // line 8: make sure the active pair is canonical
-            active = canonize(active.getFirst(), active.getSecond());
+            canonize(canonNode, canonStart, i + 1);
 
-            s = active.getFirst();
-            text = active.getSecond();
+            s = canonNode;
+            k = canonStart;
         }
 
         // add leaf suffix link, is necessary
@@ -322,6 +2149,11 @@ public class GSuffixTree
             node(activeLeaf).setSuffix(s);
         }
 
+        if (m != null)
+        {
+            m.recordAddWord(System.nanoTime() - t1, key.length(), nodes.size() - nodeNum, edges.size() - edgeNum,
+                    splits - splitNum);
+        }
     }
 
     /**
@@ -331,51 +2163,59 @@ public class GSuffixTree
      * 
      * Then g will be split in two different edges, one having $end as label, and the other one having rest as label.
      * 
+     * All strings are [start, end) ranges of the arena. Whether (stringPart + t) is contained in the subtree starting
+     * in inputs is stored in {@link #endpoint}.
+     * 
      * @param s2 the starting node
-     * @param stringPart the string to search
+     * @param partStart start of the string to search
+     * @param partEnd end of the string to search
      * @param t the following character
-     * @param remainder the remainder of the string to add to the index
+     * @param restStart start of the remainder of the string to add to the index
+     * @param restEnd end of the remainder of the string to add to the index
      * @param value the value to add to the index
-     * @return a pair containing true/false depending on whether (stringPart + t) is contained in the subtree starting
-     *         in inputs the last node that can be reached by following the path denoted by stringPart starting from
-     *         inputs
+     * @return the last node that can be reached by following the path denoted by stringPart starting from inputs
      * 
      */
-    private Pair<Boolean, Integer> testAndSplit(final int s2, final String stringPart, final char t, final String remainder, final int value)
+    private int testAndSplit(final int s2, final int partStart, final int partEnd, final char t, final int restStart, final int restEnd,
+            final int value)
     {
         // descend the tree as far as possible
-        Pair<Integer, String> ret = canonize(s2, stringPart);
-        int s = ret.getFirst();
-        String str = ret.getSecond();
+        canonize(s2, partStart, partEnd);
+        int s = canonNode;
+        int strStart = canonStart;
+        int strLen = partEnd - strStart;
 
-        if (!"".equals(str))
+        if (strLen > 0)
         {
-            int g = node(s).getEdge(str.charAt(0));
+            int g = node(s).getEdge(arena.charAt(strStart));
 
-            String label = edge(g).getLabel();
+            GSTEdge edge = edge(g);
+            int labelStart = edge.getStart();
             // must see whether "str" is substring of the label of an edge
-            if (label.length() > str.length() && label.charAt(str.length()) == t)
+            if (edge.length() > strLen && arena.charAt(labelStart + strLen) == t)
             {
-                return new Pair<Boolean, Integer>(true, s);
+                endpoint = true;
+                return s;
             }
             else
             {
                 // need to split the edge
-                String newlabel = label.substring(str.length());
-                assert (label.startsWith(str));
+                assert (arena.regionMatches(labelStart, strStart, strLen));
+                splits++;
 
                 // build a new node
                 int r = createNode();
                 // build a new edge
-                int newedge = createEdge(str, r);
+                int newedge = createEdge(strStart, partEnd, r);
 
-                edge(g).setLabel(newlabel);
+                edge.setStart(labelStart + strLen);
 
                 // link s -> r
-                node(r).addEdge(newlabel.charAt(0), g);
-                node(s).addEdge(str.charAt(0), newedge);
+                node(r).addEdge(arena.charAt(labelStart + strLen), g);
+                node(s).addEdge(arena.charAt(strStart), newedge);
 
-                return new Pair<Boolean, Integer>(false, r);
+                endpoint = false;
+                return r;
             }
 
         }
@@ -385,40 +2225,48 @@ public class GSuffixTree
             if (-1 == e)
             {
                 // if there is no t-transtion from s
-                return new Pair<Boolean, Integer>(false, s);
+                endpoint = false;
+                return s;
             }
             else
             {
-                if (remainder.equals(edge(e).getLabel()))
+                GSTEdge edge = edge(e);
+                int labelLen = edge.length();
+                int restLen = restEnd - restStart;
+                if (restLen == labelLen && arena.regionMatches(restStart, edge.getStart(), labelLen))
                 {
                     // update payload of destination node
-                    addIndex(edge(e).getDest(), value);
-                    return new Pair<Boolean, Integer>(true, s);
+                    addIndex(edge.getDest(), value);
+                    endpoint = true;
+                    return s;
                 }
-                else if (remainder.startsWith(edge(e).getLabel()))
+                else if (restLen > labelLen && arena.regionMatches(restStart, edge.getStart(), labelLen))
                 {
-                    return new Pair<Boolean, Integer>(true, s);
+                    endpoint = true;
+                    return s;
                 }
-                else if (edge(e).getLabel().startsWith(remainder))
+                else if (labelLen > restLen && arena.regionMatches(restStart, edge.getStart(), restLen))
                 {
                     // need to split as above
                     int newNode = createNode(value);
 
-                    int newEdge = createEdge(remainder, newNode);
+                    int newEdge = createEdge(restStart, restEnd, newNode);
 
-                    edge(e).setLabel(edge(e).getLabel().substring(remainder.length()));
+                    edge.setStart(edge.getStart() + restLen);
 
-                    node(newNode).addEdge(edge(e).getLabel().charAt(0), e);
+                    node(newNode).addEdge(arena.charAt(edge.getStart()), e);
 
                     node(s).addEdge(t, newEdge);
 
-                    return new Pair<Boolean, Integer>(false, s);
+                    endpoint = false;
+                    return s;
                 }
                 else
                 {
                     // they are different words. No prefix. but they may still
                     // share some common substr
-                    return new Pair<Boolean, Integer>(true, s);
+                    endpoint = true;
+                    return s;
                 }
             }
         }
@@ -426,64 +2274,61 @@ public class GSuffixTree
     }
 
     /**
-     * Return a (Node, String) (n, remainder) pair such that n is a farthest descendant of s (the input node) that can
-     * be reached by following a path of edges denoting a prefix of inputstr and remainder will be string that must be
-     * appended to the concatenation of labels from s to n to get inpustr.
+     * Finds a (Node, String) (n, remainder) pair such that n is a farthest descendant of s (the input node) that can
+     * be reached by following a path of edges denoting a prefix of [start, end) and remainder will be string that must
+     * be appended to the concatenation of labels from s to n to get [start, end).
+     * 
+     * The node is stored in {@link #canonNode} and the remainder is [{@link #canonStart}, end).
      */
-    private Pair<Integer, String> canonize(final int s, final String inputstr)
+    private void canonize(final int s, final int start, final int end)
     {
-
-        if ("".equals(inputstr))
-        {
-            return new Pair<Integer, String>(s, inputstr);
-        }
-        else
+        int currentNode = s;
+        int str = start;
+        if (str < end)
         {
-            int currentNode = s;
-            String str = inputstr;
-            int g = node(s).getEdge(str.charAt(0));
+            int g = node(s).getEdge(arena.charAt(str));
             // descend the tree as long as a proper label is found
-            while (g != -1 && str.startsWith(edge(g).getLabel()))
+            while (g != -1 && end - str >= edge(g).length() && arena.regionMatches(str, edge(g).getStart(), edge(g).length()))
             {
-                str = str.substring(edge(g).getLabel().length());
+                str += edge(g).length();
                 currentNode = edge(g).getDest();
-                if (str.length() > 0)
+                if (str == end)
                 {
-                    g = node(currentNode).getEdge(str.charAt(0));
+                    break;
                 }
+                g = node(currentNode).getEdge(arena.charAt(str));
             }
-
-            return new Pair<Integer, String>(currentNode, str);
         }
+        canonNode = currentNode;
+        canonStart = str;
     }
 
     /**
-     * Updates the tree starting from inputNode and by adding stringPart.
+     * Updates the tree starting from inputNode and by adding stringPart, that is [partStart, newCharPos + 1).
      * 
-     * Returns a reference (Node, String) pair for the string that has been added so far. This means: - the Node will be
+     * Finds a reference (Node, String) pair for the string that has been added so far. This means: - the Node will be
      * the Node that can be reached by the longest path string (S1) that can be obtained by concatenating consecutive
      * edges in the tree and that is a substring of the string added so far to the tree. - the String will be the
-     * remainder that must be added to S1 to get the string added so far.
+     * remainder that must be added to S1 to get the string added so far. They are stored in {@link #canonNode} and
+     * {@link #canonStart}.
      * 
      * @param inputNode the node to start from
-     * @param stringPart the string to add to the tree
-     * @param rest the rest of the string
+     * @param partStart start of the string to add to the tree
+     * @param newCharPos position of the last char of the string to add, which is also the start of the rest
+     * @param restEnd end of the rest of the string
      * @param value the value to add to the index
      */
-    private Pair<Integer, String> update(int inputNode, final String stringPart, final String rest, final int value)
+    private void update(int inputNode, final int partStart, final int newCharPos, final int restEnd, final int value)
     {
         int s = inputNode;
-        String tempstr = stringPart;
-        char newChar = stringPart.charAt(stringPart.length() - 1);
+        int tempStart = partStart;
+        char newChar = arena.charAt(newCharPos);
 
         // line 1
         int oldroot = root;
 
         // line 1b
-        Pair<Boolean, Integer> ret = testAndSplit(s, tempstr.substring(0, tempstr.length() - 1), newChar, rest, value);
-
-        int r = ret.getSecond();
-        boolean endpoint = ret.getFirst();
+        int r = testAndSplit(s, tempStart, newCharPos, newChar, newCharPos, restEnd, value);
 
         int leaf = -1;
         // line 2
@@ -503,7 +2348,7 @@ public class GSuffixTree
             {
                 // must build a new leaf
                 leaf = createNode(value);
-                int newedge = createEdge(rest, leaf);
+                int newedge = createEdge(newCharPos, restEnd, leaf);
                 node(r).addEdge(newChar, newedge);
             }
 
@@ -529,21 +2374,17 @@ public class GSuffixTree
                 assert (root == s);
                 // this is a special case to handle what is referred to as node
                 // _|_ on the paper
-                tempstr = tempstr.substring(1);
+                tempStart++;
             }
             else
             {
-                Pair<Integer, String> canret = canonize(node(s).getSuffix(), safeCutLastChar(tempstr));
-                s = canret.getFirst();
-                // use intern to ensure that tempstr is a reference from the
-                // string pool
-                tempstr = (canret.getSecond() + tempstr.charAt(tempstr.length() - 1)).intern();
+                canonize(node(s).getSuffix(), tempStart, safeCutLastChar(tempStart, newCharPos));
+                s = canonNode;
+                tempStart = canonStart;
             }
 
             // line 7
-            ret = testAndSplit(s, safeCutLastChar(tempstr), newChar, rest, value);
-            r = ret.getSecond();
-            endpoint = ret.getFirst();
+            r = testAndSplit(s, tempStart, safeCutLastChar(tempStart, newCharPos), newChar, newCharPos, restEnd, value);
 
         }
 
@@ -554,7 +2395,8 @@ public class GSuffixTree
         }
         oldroot = root;
 
-        return new Pair<Integer, String>(s, tempstr);
+        canonNode = s;
+        canonStart = tempStart;
     }
 
     private int createNode()
@@ -570,9 +2412,9 @@ public class GSuffixTree
         return nodes.size() - 1;
     }
 
-    protected int createEdge(String rest, int leaf)
+    protected int createEdge(int start, int end, int dest)
     {
-        edges.add(new GSTEdge(rest, leaf));
+        edges.add(new GSTEdge(start, end, dest));
         return edges.size() - 1;
     }
 
@@ -586,18 +2428,46 @@ public class GSuffixTree
         return edges.get(index);
     }
 
+    /**
+     * Returns a copy of the label of the given edge
+     */
+    protected String label(int index)
+    {
+        GSTEdge edge = edge(index);
+        return arena.substring(edge.getStart(), edge.getEnd());
+    }
+
+    TextArena getArena()
+    {
+        return arena;
+    }
+
     protected GSTNode getRoot()
     {
         return node(root);
     }
 
-    private String safeCutLastChar(String seq)
+    int rootIndex()
     {
-        if (seq.length() == 0)
-        {
-            return "";
-        }
-        return seq.substring(0, seq.length() - 1);
+        return root;
+    }
+
+    /**
+     * Returns the indices of all the keys below the given node as a posting list, removed ones included: the list
+     * computed by flush, or a sorted copy of the range of the node after flushRanges
+     */
+    PostingList nodePostings(int nodeIdx)
+    {
+        GSTNode node = node(nodeIdx);
+        return payload == null ? node.getNodeIndices() : PostingList.copyOf(allResults(node));
+    }
+
+    /**
+     * Returns the end of [start, end) without its last char, given that end is newCharPos + 1
+     */
+    private int safeCutLastChar(int start, int newCharPos)
+    {
+        return Math.max(start, newCharPos);
     }
 
     /**
@@ -627,189 +2497,364 @@ public class GSuffixTree
         }
     }
 
-    /**
-     * A private class used to return a tuples of two elements
-     */
-    private class Pair<A, B>
-    {
-
-        private A first;
-
-        private B second;
-
-        public Pair(A first, B second)
-        {
-            this.first = first;
-            this.second = second;
-        }
-
-        public A getFirst()
-        {
-            return first;
-        }
-
-        public B getSecond()
-        {
-            return second;
-        }
-    }
-
-    private static GSuffixTree loadDictFile(String file) throws IllegalStateException, IOException
+    private static GSuffixTree loadDictFile(DictionaryLoader loader, String... files) throws IOException
     {
-        long t1 = System.currentTimeMillis();
-        System.out.print("Loading words from " + file + " ...");
-        GSuffixTree tree = new GSuffixTree();
-        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "utf-8"));
-        int index = 0;
-        String line = null;
-        while ((line = reader.readLine()) != null)
+        final GSuffixTree tree = new GSuffixTree();
+        loader.load(new DictionaryLoader.BatchConsumer()
         {
-            String word = line.trim();
-            tree.addWord(word, index++);
-            if (index % 10000 == 0)
+            public void accept(String[] keys, int size, int firstIndex)
             {
-                System.out.print(".");
+                for (int i = 0; i < size; i++)
+                {
+                    tree.addWord(keys[i], firstIndex + i);
+                }
             }
-        }
-        reader.close();
-        long t2 = System.currentTimeMillis();
-        System.out.println("Done : " + index + " : " + (t2 - t1) + "ms");
+        }, files);
         return tree;
     }
 
     /**
-     * Flush and write all nodes and edges to files
+     * Writes the whole tree to path + {@value #BINARY_SUFFIX}, in the format read back by {@link #GSuffixTree(String)}.
+     * 
+     * The file is a stream of big-endian sections, each one followed by the CRC32 of its bytes:
+     * 
+     * <pre>
+     * header   : int magic, int version, int last, int root, int nodeNum, int edgeNum, int textLen, int listNum, boolean ranges
+     * text     : char[textLen], the text arena
+     * edges    : edgeNum times int start, int end, int dest
+     * postings : listNum posting lists, each one as a VarInt count followed by the VarInt gaps of its ids
+     * nodes    : nodeNum times int suffix, int postings (a list number, -1 for none), own indices as a posting list,
+     *            VarInt childNum, childNum times char, int edge
+     * ranges   : only in range mode, the VarInt payload size and ids, then nodeNum times VarInt start, end, count
+     * </pre>
+     * 
+     * Posting lists shared by several nodes are written once. The reloaded tree gives the same results as this one and
+     * can still be added to.
      * 
      * @param path
      * @throws IOException
+     * @throws IllegalStateException if there are removed indices, see {@link #compact()}
      */
     public void writeToBinaryFile(String path) throws IOException
     {
-        // final HashSet<Integer> indices = new HashSet<Integer>(0);// empty indices
-        long t1 = System.currentTimeMillis();
-        String edgeFile = path + ".edges.gst.bin";
-        String nodeFile = path + ".nodes.gst.bin";
-        System.out.print("Writing to " + edgeFile + " and " + nodeFile + " ...");
-        BufferedWriter eWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(edgeFile), "utf-8"));
-        writeInt(eWriter, edges.size());
-        for (GSTEdge edge : edges)
+        if (!removed.isEmpty())
         {
-            writeInt(eWriter, edge.getLabel().length());
-            eWriter.write(edge.getLabel().toCharArray());
-            writeInt(eWriter, edge.getDest());
+            throw new IllegalStateException("The tree has removed indices, compact it first");
         }
-        eWriter.close();
-
-        BufferedWriter nWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(nodeFile), "utf-8"));
-        writeInt(nWriter, nodes.size());
+        // number the distinct posting lists
+        Map<PostingList, Integer> listIds = new IdentityHashMap<PostingList, Integer>();
+        List<PostingList> lists = new ArrayList<PostingList>();
+        int[] nodeLists = new int[nodes.size()];
         for (int i = 0; i < nodes.size(); i++)
         {
-//            HashSet<Integer> indices = node(i).getNodeIndices();
-//            writeInt(nWriter, indices.size());
-//            for (int idx : indices)
-//            {
-//                writeInt(nWriter, idx);
-//            }
-            writeInt(nWriter, node(i).getEdges().size());
-            for (String ch : node(i).getEdges().keySet())
+            PostingList postings = node(i).getPostings();
+            if (postings == null)
+            {
+                nodeLists[i] = -1;
+                continue;
+            }
+            Integer id = listIds.get(postings);
+            if (id == null)
+            {
+                id = lists.size();
+                listIds.put(postings, id);
+                lists.add(postings);
+            }
+            nodeLists[i] = id;
+        }
+
+        CRC32 crc = new CRC32();
+        DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(new FileOutputStream(
+                path + BINARY_SUFFIX), 1 << 16), crc));
+        try
+        {
+            out.writeInt(BINARY_MAGIC);
+            out.writeInt(BINARY_VERSION);
+            out.writeInt(last);
+            out.writeInt(root);
+            out.writeInt(nodes.size());
+            out.writeInt(edges.size());
+            out.writeInt(arena.length());
+            out.writeInt(lists.size());
+            out.writeBoolean(payload != null);
+            endSection(out, crc);
+
+            char[] text = arena.toCharArray();
+            byte[] buf = new byte[1 << 13];
+            for (int from = 0; from < text.length; from += buf.length / 2)
+            {
+                int len = Math.min(buf.length / 2, text.length - from);
+                for (int i = 0; i < len; i++)
+                {
+                    char ch = text[from + i];
+                    buf[2 * i] = (byte) (ch >>> 8);
+                    buf[2 * i + 1] = (byte) ch;
+                }
+                out.write(buf, 0, 2 * len);
+            }
+            endSection(out, crc);
+
+            for (GSTEdge edge : edges)
+            {
+                out.writeInt(edge.getStart());
+                out.writeInt(edge.getEnd());
+                out.writeInt(edge.getDest());
+            }
+            endSection(out, crc);
+
+            int[] ids = new int[16];
+            for (PostingList list : lists)
+            {
+                if (ids.length < list.size())
+                {
+                    ids = new int[list.size()];
+                }
+                writeIds(out, ids, list.copyTo(ids, 0));
+            }
+            endSection(out, crc);
+
+            for (int i = 0; i < nodes.size(); i++)
+            {
+                GSTNode node = node(i);
+                out.writeInt(node.getSuffix());
+                out.writeInt(nodeLists[i]);
+                IntList own = node.getOwnIndices();
+                if (own == null)
+                {
+                    writeVarInt(out, 0);
+                }
+                else
+                {
+                    writeIds(out, own.array(), own.size());
+                }
+                CharIntMap children = node.getEdges();
+                writeVarInt(out, children.size());
+                for (int j = 0; j < children.size(); j++)
+                {
+                    out.writeChar(children.keyAt(j));
+                    out.writeInt(children.valueAt(j));
+                }
+            }
+            endSection(out, crc);
+
+            if (payload != null)
             {
-                nWriter.write(ch.charAt(0));
-                writeInt(nWriter, node(i).getEdges().get(ch).intValue());
+                writeVarInt(out, payload.size());
+                for (int j = 0; j < payload.size(); j++)
+                {
+                    writeVarInt(out, payload.get(j));
+                }
+                for (GSTNode node : nodes)
+                {
+                    writeVarInt(out, node.getRangeStart());
+                    writeVarInt(out, node.getRangeEnd());
+                    writeVarInt(out, node.getRangeCount());
+                }
+                endSection(out, crc);
             }
         }
-        nWriter.close();
-        long t2 = System.currentTimeMillis();
-        System.out.println("Done : " + (t2 - t1) + "ms");
+        finally
+        {
+            out.close();
+        }
     }
 
     /**
-     * Load gst from bin files which is flushed
+     * Loads a tree written by writeToBinaryFile
      * 
      * @param path
+     * @throws IOException if the file cannot be read, or is corrupted
      */
-    private void readFromBinaryFile(String path)
+    private void readFromBinaryFile(String path) throws IOException
     {
+        String file = path + BINARY_SUFFIX;
+        CRC32 crc = new CRC32();
+        DataInputStream in = new DataInputStream(new CheckedInputStream(new BufferedInputStream(new FileInputStream(file),
+                1 << 16), crc));
         try
         {
-            System.out.print("Loading...");
-            long t1 = System.currentTimeMillis();
+            if (in.readInt() != BINARY_MAGIC)
+            {
+                throw new IOException(file + " is not a suffix tree file");
+            }
+            int version = in.readInt();
+            if (version != BINARY_VERSION)
+            {
+                throw new IOException("Unsupported version " + version + " in " + file);
+            }
+            this.last = in.readInt();
+            this.root = in.readInt();
+            int nodeNum = in.readInt();
+            int edgeNum = in.readInt();
+            int textLen = in.readInt();
+            int listNum = in.readInt();
+            boolean ranges = in.readBoolean();
+            checkSection(in, crc, file, "header");
+
+            char[] text = new char[textLen];
+            byte[] buf = new byte[1 << 13];
+            for (int from = 0; from < textLen; from += buf.length / 2)
+            {
+                int len = Math.min(buf.length / 2, textLen - from);
+                in.readFully(buf, 0, 2 * len);
+                for (int i = 0; i < len; i++)
+                {
+                    text[from + i] = (char) ((buf[2 * i] & 0xFF) << 8 | (buf[2 * i + 1] & 0xFF));
+                }
+            }
+            this.arena = new TextArena(textLen);
+            arena.append(text, 0, textLen);
+            checkSection(in, crc, file, "text");
 
-            BufferedReader eReader = new BufferedReader(new InputStreamReader(new FileInputStream(path + ".edges.gst.bin"), "utf-8"));
-            int edgeNum = readInt(eReader);
             this.edges = new ArrayList<GSTEdge>(edgeNum);
             for (int i = 0; i < edgeNum; i++)
             {
-                int lableCharNum = readInt(eReader);
-                char[] lableChar = new char[lableCharNum];
-                eReader.read(lableChar);
-                int dest = readInt(eReader);
-                edges.add(new GSTEdge(new String(lableChar), dest));
+                int start = in.readInt();
+                int end = in.readInt();
+                int dest = in.readInt();
+                edges.add(new GSTEdge(start, end, dest));
             }
-            eReader.close();
+            checkSection(in, crc, file, "edges");
 
-            BufferedReader nReader = new BufferedReader(new InputStreamReader(new FileInputStream(path + ".nodes.gst.bin"), "utf-8"));
+            PostingList[] lists = new PostingList[listNum];
+            for (int i = 0; i < listNum; i++)
+            {
+                lists[i] = PostingList.of(readIds(in));
+            }
+            checkSection(in, crc, file, "postings");
 
-            int nodeNum = readInt(nReader);
             this.nodes = new ArrayList<GSTNode>(nodeNum);
             for (int i = 0; i < nodeNum; i++)
             {
                 GSTNode node = new GSTNode();
-//                int indexNum = readInt(nReader);
-//                for (int j = 0; j < indexNum; j++)
-//                {
-//                    int index = readInt(nReader);
-//                    node.addIndex(index);
-//                }
-                int edgeMapNum = readInt(nReader);
-                for (int j = 0; j < edgeMapNum; j++)
-                {
-                    char ch = (char) nReader.read();
-                    int edgeIdx = readInt(nReader);
-                    node.addEdge(ch, edgeIdx);
+                node.setSuffix(in.readInt());
+                int list = in.readInt();
+                if (list != -1)
+                {
+                    node.setPostings(lists[list]);
+                }
+                IntList own = readIds(in);
+                for (int j = 0; j < own.size(); j++)
+                {
+                    node.addIndex(own.get(j));
+                }
+                int childNum = readVarInt(in);
+                for (int j = 0; j < childNum; j++)
+                {
+                    char ch = in.readChar();
+                    node.addEdge(ch, in.readInt());
                 }
                 nodes.add(node);
             }
+            checkSection(in, crc, file, "nodes");
 
-            nReader.close();
-            long t2 = System.currentTimeMillis();
-            System.out.println("Done : " + (t2 - t1) + "ms");
+            if (ranges)
+            {
+                int size = readVarInt(in);
+                IntList ids = new IntList(size);
+                for (int j = 0; j < size; j++)
+                {
+                    ids.add(readVarInt(in));
+                }
+                for (GSTNode node : nodes)
+                {
+                    node.setRange(readVarInt(in), readVarInt(in));
+                    node.setRangeCount(readVarInt(in));
+                }
+                checkSection(in, crc, file, "ranges");
+                this.payload = ids;
+            }
+            this.activeLeaf = root;
+        }
+        finally
+        {
+            in.close();
         }
-        catch (Exception ex)
+    }
+
+    /**
+     * Writes the CRC of the bytes written since the previous section, and starts a new section
+     */
+    private static void endSection(DataOutputStream out, CRC32 crc) throws IOException
+    {
+        out.writeInt((int) crc.getValue());
+        crc.reset();
+    }
+
+    /**
+     * Compares the CRC of the bytes read since the previous section with the one stored after them
+     */
+    private static void checkSection(DataInputStream in, CRC32 crc, String file, String section) throws IOException
+    {
+        int expect = (int) crc.getValue();
+        if (in.readInt() != expect)
         {
-            ex.printStackTrace();
+            throw new IOException("Checksum mismatch in the " + section + " section of " + file);
         }
+        crc.reset();
     }
 
-    private void writeInt(Writer writer, int intg) throws IOException
+    /**
+     * Writes len ascending ids as a VarInt count followed by VarInt gaps
+     */
+    private static void writeIds(DataOutputStream out, int[] ids, int len) throws IOException
     {
-        byte[] bytes = Utils.toBytes(intg);
+        writeVarInt(out, len);
+        int prev = 0;
+        for (int i = 0; i < len; i++)
+        {
+            writeVarInt(out, ids[i] - prev);
+            prev = ids[i];
+        }
+    }
 
-        for (byte b : bytes)
+    private static IntList readIds(DataInputStream in) throws IOException
+    {
+        int len = readVarInt(in);
+        IntList ids = new IntList(len);
+        int prev = 0;
+        for (int i = 0; i < len; i++)
         {
-            writer.write(b);
+            prev += readVarInt(in);
+            ids.add(prev);
         }
+        return ids;
     }
 
-    private int readInt(Reader reader) throws IOException
+    private static void writeVarInt(DataOutputStream out, int v) throws IOException
     {
-        byte[] bytes = new byte[4];
-        bytes[0] = (byte) reader.read();
-        bytes[1] = (byte) reader.read();
-        bytes[2] = (byte) reader.read();
-        bytes[3] = (byte) reader.read();
+        while ((v & ~0x7F) != 0)
+        {
+            out.write((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.write(v);
+    }
 
-        return Utils.toInteger(bytes);
+    private static int readVarInt(DataInputStream in) throws IOException
+    {
+        int v = 0;
+        for (int shift = 0; shift < 32; shift += 7)
+        {
+            int b = in.readUnsignedByte();
+            v |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+            {
+                return v;
+            }
+        }
+        throw new IOException("Malformed VarInt");
     }
 
     /**
-     * Load gst from bin files which is flushed
+     * Checks that every line of file is found by search, at its line number, and by match
      * 
-     * @param path
+     * @param file a dictionary the tree was built from
      * @throws IOException
+     * @throws IllegalStateException at the first line not found
      */
     public void testCaseByCase(String file) throws IOException
     {
-        System.out.println("Testing ");
         BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "utf-8"));
         int index = 0;
         String line = null;
@@ -819,36 +2864,40 @@ public class GSuffixTree
             Collection<Integer> indices = search(word);
             if (indices == null || !indices.contains(index))
             {
-                System.err.println("Not contains: " + word + "@" + index);
-                System.exit(-1);
+                reader.close();
+                throw new IllegalStateException("Not contains: " + word + "@" + index);
             }
 
             if (!word.equals(match(word)))
             {
-                System.err.println("Not matched:  " + word + "@" + index);
-                System.exit(-1);
+                reader.close();
+                throw new IllegalStateException("Not matched:  " + word + "@" + index);
             }
             index++;
         }
         reader.close();
     }
 
-    public static GSuffixTree buildTree(String path)
+    /**
+     * Builds a tree of the lines of the given files, plain or gzipped, every line indexed by its number across all
+     * the files
+     *
+     * @throws IOException if a file cannot be read
+     * @see DictionaryLoader
+     */
+    public static GSuffixTree buildTree(String... paths) throws IOException
     {
-        GSuffixTree tree = null;
-        try
-        {
-            tree = loadDictFile(path);
-        }
-        catch (IllegalStateException e)
-        {
-            e.printStackTrace();
-        }
-        catch (IOException e)
-        {
-            e.printStackTrace();
-        }
-        return tree;
+        return loadDictFile(new DictionaryLoader(), paths);
+    }
+
+    /**
+     * Builds a tree as {@link #buildTree(String...)} does, with the given loader, for example to follow its progress
+     *
+     * @throws IOException if a file cannot be read
+     */
+    public static GSuffixTree buildTree(DictionaryLoader loader, String... paths) throws IOException
+    {
+        return loadDictFile(loader, paths);
     }
 
     public static boolean compare(GSuffixTree tree, GSuffixTree tree2)
@@ -862,7 +2911,7 @@ public class GSuffixTree
         {
             GSTEdge edge = tree.edges.get(i);
             GSTEdge edge2 = tree2.edges.get(i);
-            if (!edge.equals(edge2))
+            if (edge.getDest() != edge2.getDest() || !tree.label(i).equals(tree2.label(i)))
             {
                 // System.err.println("Expect : "+edge.toString());
                 // System.err.println("Target : "+edge2.toString());
@@ -894,6 +2943,7 @@ public class GSuffixTree
         {
             return;
         }
+        version++;
 
         node(nodeIdx).addIndex(index);
 
@@ -918,10 +2968,12 @@ public class GSuffixTree
             {
                 System.out.println("@" + i + " -- ");
 
-                for (String ch : node(i).getEdges().keySet())
+                CharIntMap children = node(i).getEdges();
+                for (int j = 0; j < children.size(); j++)
                 {
-                    GSTEdge edge = edge(node(i).getEdges().get(ch));
-                    System.out.print("  " + edge.getLabel() + "\t" + edge.getDest());
+                    int edgeIdx = children.valueAt(j);
+                    GSTEdge edge = edge(edgeIdx);
+                    System.out.print("  " + label(edgeIdx) + "\t" + edge.getDest());
                     if (node(edge.getDest()).getEdges().size() == 0)
                     {
                         System.out.println("#" + node(edge.getDest()).getNodeIndices().toString() + " #");
@@ -947,12 +2999,13 @@ public class GSuffixTree
         // System.out.println(in.search("两"));
 
         String path = "data/poi.txt";
-        GSuffixTree tree = GSuffixTree.buildTree(path);
+        GSuffixTree tree = null;
         GSuffixTree treeFromFile = null;
         try
         {
+            tree = GSuffixTree.buildTree(path);
 //            tree.testCaseByCase(path);
-            tree.flush();
+            System.out.println(tree.flush());
             tree.writeToBinaryFile(path);
             treeFromFile = new GSuffixTree(path);
 //            treeFromFile.testCaseByCase(path);
@@ -0,0 +1,296 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.gst;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import rsvp.answering.index.common.Histogram;
+
+/**
+ * Counters and latency histograms of a {@link GSuffixTree}, enabled by {@link GSuffixTree#enableMetrics()}: the words
+ * added, the splits, nodes and edges they caused and the time they took, the flushes, and the latencies of search and
+ * match.
+ *
+ * Recording allocates nothing and takes no lock, so it may stay on in production; a tree without metrics does not even
+ * read the clock. The values can be pulled from the getters, or from JMX once {@link #register(String)} was called.
+ */
+public class IndexMetrics implements IndexMetricsMXBean
+{
+    private static final String DOMAIN = "rsvp.answering.index";
+
+    private final GSuffixTree tree;
+
+    private final AtomicLong words = new AtomicLong();
+
+    private final AtomicLong chars = new AtomicLong();
+
+    private final AtomicLong splits = new AtomicLong();
+
+    private final AtomicLong nodesCreated = new AtomicLong();
+
+    private final AtomicLong edgesCreated = new AtomicLong();
+
+    private final Histogram addWordLatency = new Histogram();
+
+    private final Histogram flushLatency = new Histogram();
+
+    private final Histogram searchLatency = new Histogram();
+
+    private final Histogram matchLatency = new Histogram();
+
+    private volatile long lastFlushNanos;
+
+    IndexMetrics(GSuffixTree tree)
+    {
+        this.tree = tree;
+    }
+
+    void recordAddWord(long nanos, int length, int nodes, int edges, long splitNum)
+    {
+        words.incrementAndGet();
+        chars.addAndGet(length);
+        nodesCreated.addAndGet(nodes);
+        edgesCreated.addAndGet(edges);
+        splits.addAndGet(splitNum);
+        addWordLatency.record(nanos);
+    }
+
+    void recordFlush(long nanos)
+    {
+        lastFlushNanos = nanos;
+        flushLatency.record(nanos);
+    }
+
+    void recordSearch(long nanos)
+    {
+        searchLatency.record(nanos);
+    }
+
+    void recordMatch(long nanos)
+    {
+        matchLatency.record(nanos);
+    }
+
+    /**
+     * Returns the latencies of addWord, in nanoseconds
+     */
+    public Histogram getAddWordLatency()
+    {
+        return addWordLatency;
+    }
+
+    /**
+     * Returns the durations of flush and flushRanges, in nanoseconds
+     */
+    public Histogram getFlushLatency()
+    {
+        return flushLatency;
+    }
+
+    /**
+     * Returns the latencies of search, in nanoseconds
+     */
+    public Histogram getSearchLatency()
+    {
+        return searchLatency;
+    }
+
+    /**
+     * Returns the latencies of match, in nanoseconds
+     */
+    public Histogram getMatchLatency()
+    {
+        return matchLatency;
+    }
+
+    public long getWordsAdded()
+    {
+        return words.get();
+    }
+
+    public long getCharsAdded()
+    {
+        return chars.get();
+    }
+
+    public long getSplits()
+    {
+        return splits.get();
+    }
+
+    public long getNodesCreated()
+    {
+        return nodesCreated.get();
+    }
+
+    public long getEdgesCreated()
+    {
+        return edgesCreated.get();
+    }
+
+    public double getBuildRate()
+    {
+        double nanos = addWordLatency.getMean() * addWordLatency.getCount();
+        return nanos == 0 ? 0 : addWordLatency.getCount() * 1e9 / nanos;
+    }
+
+    public long getFlushes()
+    {
+        return flushLatency.getCount();
+    }
+
+    public double getLastFlushMillis()
+    {
+        return lastFlushNanos / 1e6;
+    }
+
+    public long getSearches()
+    {
+        return searchLatency.getCount();
+    }
+
+    public double getSearchMeanMicros()
+    {
+        return searchLatency.getMean() / 1e3;
+    }
+
+    public double getSearchP50Micros()
+    {
+        return searchLatency.getValueAtPercentile(50) / 1e3;
+    }
+
+    public double getSearchP99Micros()
+    {
+        return searchLatency.getValueAtPercentile(99) / 1e3;
+    }
+
+    public double getSearchP999Micros()
+    {
+        return searchLatency.getValueAtPercentile(99.9) / 1e3;
+    }
+
+    public double getSearchMaxMicros()
+    {
+        return searchLatency.getMax() / 1e3;
+    }
+
+    public long getMatches()
+    {
+        return matchLatency.getCount();
+    }
+
+    public double getMatchMeanMicros()
+    {
+        return matchLatency.getMean() / 1e3;
+    }
+
+    public double getMatchP50Micros()
+    {
+        return matchLatency.getValueAtPercentile(50) / 1e3;
+    }
+
+    public double getMatchP99Micros()
+    {
+        return matchLatency.getValueAtPercentile(99) / 1e3;
+    }
+
+    public double getMatchP999Micros()
+    {
+        return matchLatency.getValueAtPercentile(99.9) / 1e3;
+    }
+
+    public double getMatchMaxMicros()
+    {
+        return matchLatency.getMax() / 1e3;
+    }
+
+    public int getNodeNum()
+    {
+        return tree.nodes.size();
+    }
+
+    public int getEdgeNum()
+    {
+        return tree.edges.size();
+    }
+
+    public String computeTreeStats()
+    {
+        return tree.computeStats().toString();
+    }
+
+    public void reset()
+    {
+        words.set(0);
+        chars.set(0);
+        splits.set(0);
+        nodesCreated.set(0);
+        edgesCreated.set(0);
+        addWordLatency.reset();
+        flushLatency.reset();
+        searchLatency.reset();
+        matchLatency.reset();
+        lastFlushNanos = 0;
+    }
+
+    /**
+     * Registers these metrics in the platform MBean server, as rsvp.answering.index:type=GSuffixTree,name=<name>
+     *
+     * @return the name registered, for unregister
+     * @throws IllegalStateException if the name is taken or invalid
+     */
+    public ObjectName register(String name)
+    {
+        try
+        {
+            ObjectName ret = new ObjectName(DOMAIN + ":type=GSuffixTree,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, ret);
+            return ret;
+        }
+        catch (JMException e)
+        {
+            throw new IllegalStateException("Cannot register the metrics as " + name, e);
+        }
+    }
+
+    /**
+     * Removes a name returned by register from the platform MBean server
+     */
+    public static void unregister(ObjectName name)
+    {
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        }
+        catch (JMException e)
+        {
+            throw new IllegalStateException("Cannot unregister " + name, e);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "IndexMetrics [words=" + getWordsAdded() + ", splits=" + getSplits() + ", nodesCreated="
+                + getNodesCreated() + ", buildRate=" + (long) getBuildRate() + "/s, flushes=" + getFlushes()
+                + ", lastFlush=" + String.format("%.1f", getLastFlushMillis()) + "ms, search=" + searchLatency
+                + ", match=" + matchLatency + "]";
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.gst;
+
+/**
+ * The JMX view of the {@link IndexMetrics} of a tree. The latencies are in microseconds, within the precision of the
+ * histograms.
+ */
+public interface IndexMetricsMXBean
+{
+    long getWordsAdded();
+
+    long getCharsAdded();
+
+    /**
+     * Returns the number of edges split while adding words
+     */
+    long getSplits();
+
+    long getNodesCreated();
+
+    long getEdgesCreated();
+
+    /**
+     * Returns the number of words added per second spent in addWord
+     */
+    double getBuildRate();
+
+    long getFlushes();
+
+    double getLastFlushMillis();
+
+    long getSearches();
+
+    double getSearchMeanMicros();
+
+    double getSearchP50Micros();
+
+    double getSearchP99Micros();
+
+    double getSearchP999Micros();
+
+    double getSearchMaxMicros();
+
+    long getMatches();
+
+    double getMatchMeanMicros();
+
+    double getMatchP50Micros();
+
+    double getMatchP99Micros();
+
+    double getMatchP999Micros();
+
+    double getMatchMaxMicros();
+
+    int getNodeNum();
+
+    int getEdgeNum();
+
+    /**
+     * Walks the whole tree, which must not be changing, and describes its shape
+     *
+     * @see GSuffixTree#computeStats()
+     */
+    String computeTreeStats();
+
+    /**
+     * Sets all the counters and histograms back to 0
+     */
+    void reset();
+}
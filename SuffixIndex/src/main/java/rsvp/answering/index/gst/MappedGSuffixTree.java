@@ -0,0 +1,552 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.gst;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import rsvp.answering.index.common.PostingList;
+
+/**
+ * A read-only suffix tree answering queries straight from a memory-mapped image file.
+ *
+ * The image is a flat copy of the arrays of a {@link CompactGSuffixTree}, written by {@link #write}. Opening it only
+ * maps the file, nothing is decoded or copied to the heap, so startup does not depend on the size of the tree and
+ * several processes opening the same file share the page cache.
+ *
+ * The file is little-endian. It starts with a header of {@value #HEADER_SIZE} bytes:
+ *
+ * <pre>
+ * int magic, int version, int root, int nodeNum, int edgeNum, int textLen, int childNum, int postingNum
+ * </pre>
+ *
+ * followed by these sections, each one starting at a multiple of 8 bytes:
+ *
+ * <pre>
+ * char text[textLen]
+ * int  edgeStart[edgeNum], edgeEnd[edgeNum], edgeDest[edgeNum]
+ * int  suffix[nodeNum], childOffsets[nodeNum + 1]
+ * char childChars[childNum]
+ * int  childEdges[childNum]
+ * int  postingStart[nodeNum], postingLen[nodeNum]
+ * int  postings[postingNum]
+ * </pre>
+ *
+ * The indices of node n are postings[postingStart[n], postingStart[n] + postingLen[n]), in ascending order. Nodes
+ * sharing one posting list in the source tree share it in the file too. Every section is mapped on its own, so each
+ * one must be smaller than 2 GB.
+ */
+public class MappedGSuffixTree
+{
+    static final int MAGIC = 0x4D545347;
+
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 32;
+
+    private final int root;
+
+    private final int nodeNum;
+
+    private final int edgeNum;
+
+    private final CharBuffer text;
+
+    private final IntBuffer edgeStart;
+
+    private final IntBuffer edgeEnd;
+
+    private final IntBuffer edgeDest;
+
+    private final IntBuffer suffix;
+
+    private final IntBuffer childOffsets;
+
+    private final CharBuffer childChars;
+
+    private final IntBuffer childEdges;
+
+    private final IntBuffer postingStart;
+
+    private final IntBuffer postingLen;
+
+    private final IntBuffer postings;
+
+    /**
+     * Maps the image file at the given path
+     *
+     * @param path a file written by {@link #write}
+     * @throws IOException if the file cannot be read or is not a tree image
+     */
+    public MappedGSuffixTree(String path) throws IOException
+    {
+        FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        try
+        {
+            if (channel.size() < HEADER_SIZE)
+            {
+                throw new IOException(path + " is not a suffix tree image");
+            }
+            IntBuffer header = map(channel, 0, HEADER_SIZE).asIntBuffer();
+            if (header.get(0) != MAGIC)
+            {
+                throw new IOException(path + " is not a suffix tree image");
+            }
+            if (header.get(1) != VERSION)
+            {
+                throw new IOException("Unsupported image version " + header.get(1) + " in " + path);
+            }
+            this.root = header.get(2);
+            this.nodeNum = header.get(3);
+            this.edgeNum = header.get(4);
+            int textLen = header.get(5);
+            int childNum = header.get(6);
+            int postingNum = header.get(7);
+
+            long pos = HEADER_SIZE;
+            this.text = map(channel, pos, 2L * textLen).asCharBuffer();
+            pos = align(pos + 2L * textLen);
+            this.edgeStart = mapInts(channel, pos, edgeNum);
+            pos = align(pos + 4L * edgeNum);
+            this.edgeEnd = mapInts(channel, pos, edgeNum);
+            pos = align(pos + 4L * edgeNum);
+            this.edgeDest = mapInts(channel, pos, edgeNum);
+            pos = align(pos + 4L * edgeNum);
+            this.suffix = mapInts(channel, pos, nodeNum);
+            pos = align(pos + 4L * nodeNum);
+            this.childOffsets = mapInts(channel, pos, nodeNum + 1);
+            pos = align(pos + 4L * (nodeNum + 1));
+            this.childChars = map(channel, pos, 2L * childNum).asCharBuffer();
+            pos = align(pos + 2L * childNum);
+            this.childEdges = mapInts(channel, pos, childNum);
+            pos = align(pos + 4L * childNum);
+            this.postingStart = mapInts(channel, pos, nodeNum);
+            pos = align(pos + 4L * nodeNum);
+            this.postingLen = mapInts(channel, pos, nodeNum);
+            pos = align(pos + 4L * nodeNum);
+            this.postings = mapInts(channel, pos, postingNum);
+        }
+        finally
+        {
+            // the mappings stay valid after the channel is closed
+            channel.close();
+        }
+    }
+
+    private static ByteBuffer map(FileChannel channel, long pos, long size) throws IOException
+    {
+        if (pos + size > channel.size())
+        {
+            throw new IOException("Section at " + pos + " goes past the end of the file");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, pos, size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static IntBuffer mapInts(FileChannel channel, long pos, int num) throws IOException
+    {
+        return map(channel, pos, 4L * num).asIntBuffer();
+    }
+
+    private static long align(long pos)
+    {
+        return (pos + 7) & ~7L;
+    }
+
+    /**
+     * Writes the image of the given tree to path, replacing the file if it exists
+     *
+     * @param tree the tree to write, whose source may have been flushed in either mode
+     * @param path
+     * @throws IOException
+     */
+    public static void write(CompactGSuffixTree tree, String path) throws IOException
+    {
+        int nodeNum = tree.getNodeNum();
+        // nodes sharing a posting list share its copy in the file
+        Map<PostingList, Integer> written = new IdentityHashMap<PostingList, Integer>();
+        int[] postingStart = new int[nodeNum];
+        int[] postingLen = new int[nodeNum];
+        long postingNum = 0;
+        for (int n = 0; n < nodeNum; n++)
+        {
+            PostingList list = tree.postings[n];
+            Integer start = written.get(list);
+            if (start == null)
+            {
+                start = (int) postingNum;
+                written.put(list, start);
+                postingNum += list.size();
+                if (4L * postingNum > Integer.MAX_VALUE)
+                {
+                    throw new IllegalArgumentException("The posting lists do not fit in one section");
+                }
+            }
+            postingStart[n] = start;
+            postingLen[n] = list.size();
+        }
+
+        FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try
+        {
+            SectionWriter out = new SectionWriter(channel);
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(tree.root);
+            out.putInt(nodeNum);
+            out.putInt(tree.getEdgeNum());
+            out.putInt(tree.text.length);
+            out.putInt(tree.childChars.length);
+            out.putInt((int) postingNum);
+            out.putChars(tree.text);
+            out.putInts(tree.edgeStart);
+            out.putInts(tree.edgeEnd);
+            out.putInts(tree.edgeDest);
+            out.putInts(tree.suffix);
+            out.putInts(tree.childOffsets);
+            out.putChars(tree.childChars);
+            out.putInts(tree.childEdges);
+            out.putInts(postingStart);
+            out.putInts(postingLen);
+            int[] buf = new int[1024];
+            for (int n = 0; n < nodeNum; n++)
+            {
+                PostingList list = tree.postings[n];
+                if (written.remove(list) != null)
+                {
+                    if (buf.length < list.size())
+                    {
+                        buf = new int[list.size()];
+                    }
+                    int len = list.copyTo(buf, 0);
+                    for (int i = 0; i < len; i++)
+                    {
+                        out.putInt(buf[i]);
+                    }
+                }
+            }
+            out.align();
+            out.flush();
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    /**
+     * Buffers little-endian values and pads every section to 8 bytes
+     */
+    private static class SectionWriter
+    {
+        private final FileChannel channel;
+
+        private final ByteBuffer buf = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+
+        private long pos;
+
+        SectionWriter(FileChannel channel)
+        {
+            this.channel = channel;
+        }
+
+        void putInt(int v) throws IOException
+        {
+            if (buf.remaining() < 4)
+            {
+                flush();
+            }
+            buf.putInt(v);
+            pos += 4;
+        }
+
+        void putInts(int[] values) throws IOException
+        {
+            for (int v : values)
+            {
+                putInt(v);
+            }
+            align();
+        }
+
+        void putChars(char[] values) throws IOException
+        {
+            for (char c : values)
+            {
+                if (buf.remaining() < 2)
+                {
+                    flush();
+                }
+                buf.putChar(c);
+                pos += 2;
+            }
+            align();
+        }
+
+        void align() throws IOException
+        {
+            while ((pos & 7) != 0)
+            {
+                if (!buf.hasRemaining())
+                {
+                    flush();
+                }
+                buf.put((byte) 0);
+                pos++;
+            }
+        }
+
+        void flush() throws IOException
+        {
+            buf.flip();
+            while (buf.hasRemaining())
+            {
+                channel.write(buf);
+            }
+            buf.clear();
+        }
+    }
+
+    /**
+     * @see GSuffixTree#search(String)
+     */
+    public Collection<Integer> search(String word)
+    {
+        int node = searchNode(word);
+        if (node == -1)
+        {
+            return null;
+        }
+        return new MappedPostings(postings, postingStart.get(node), postingLen.get(node));
+    }
+
+    /**
+     * Returns the node that corresponds to the given string, -1 if there is none.
+     */
+    private int searchNode(String word)
+    {
+        int currentNode = root;
+        for (int i = 0; i < word.length();)
+        {
+            int e = getEdge(currentNode, word.charAt(i));
+            if (e == -1)
+            {
+                return -1;
+            }
+            int start = edgeStart.get(e);
+            int lenToMatch = Math.min(word.length() - i, edgeEnd.get(e) - start);
+            for (int j = 0; j < lenToMatch; j++)
+            {
+                if (word.charAt(i + j) != text.get(start + j))
+                {
+                    return -1;
+                }
+            }
+            i += lenToMatch;
+            currentNode = edgeDest.get(e);
+        }
+        return word.length() == 0 ? -1 : currentNode;
+    }
+
+    /**
+     * @see GSuffixTree#match(String)
+     */
+    public String match(String word)
+    {
+        int currentNode = root;
+        int i = 0;
+        while (i < word.length())
+        {
+            int e = getEdge(currentNode, word.charAt(i));
+            if (e == -1)
+            {
+                break;
+            }
+            int j = edgeStart.get(e);
+            int end = edgeEnd.get(e);
+            while (j < end && i < word.length() && word.charAt(i) == text.get(j))
+            {
+                i++;
+                j++;
+            }
+            if (j < end)
+            {
+                break;
+            }
+            currentNode = edgeDest.get(e);
+        }
+        return word.substring(0, i);
+    }
+
+    /**
+     * Returns the edge leaving node whose label starts with ch, -1 if there is none.
+     */
+    int getEdge(int node, char ch)
+    {
+        int low = childOffsets.get(node);
+        int high = childOffsets.get(node + 1) - 1;
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            char midCh = childChars.get(mid);
+            if (midCh < ch)
+            {
+                low = mid + 1;
+            }
+            else if (midCh > ch)
+            {
+                high = mid - 1;
+            }
+            else
+            {
+                return childEdges.get(mid);
+            }
+        }
+        return -1;
+    }
+
+    int getSuffix(int node)
+    {
+        return suffix.get(node);
+    }
+
+    public int getNodeNum()
+    {
+        return nodeNum;
+    }
+
+    public int getEdgeNum()
+    {
+        return edgeNum;
+    }
+
+    /**
+     * A sorted run of indices in the mapped postings section, read in place
+     */
+    private static class MappedPostings extends AbstractCollection<Integer>
+    {
+        private final IntBuffer ids;
+
+        private final int from;
+
+        private final int to;
+
+        MappedPostings(IntBuffer ids, int from, int len)
+        {
+            this.ids = ids;
+            this.from = from;
+            this.to = from + len;
+        }
+
+        @Override
+        public int size()
+        {
+            return to - from;
+        }
+
+        @Override
+        public boolean contains(Object o)
+        {
+            if (!(o instanceof Integer))
+            {
+                return false;
+            }
+            int id = (Integer) o;
+            int low = from;
+            int high = to - 1;
+            while (low <= high)
+            {
+                int mid = (low + high) >>> 1;
+                int midId = ids.get(mid);
+                if (midId < id)
+                {
+                    low = mid + 1;
+                }
+                else if (midId > id)
+                {
+                    high = mid - 1;
+                }
+                else
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Iterator<Integer> iterator()
+        {
+            return new Iterator<Integer>()
+            {
+                private int pos = from;
+
+                public boolean hasNext()
+                {
+                    return pos < to;
+                }
+
+                public Integer next()
+                {
+                    if (pos >= to)
+                    {
+                        throw new NoSuchElementException();
+                    }
+                    return ids.get(pos++);
+                }
+
+                public void remove()
+                {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+
+    /**
+     * Builds a tree from a dictionary file and writes its image, or times the opening of an existing image.
+     *
+     * Usage: MappedGSuffixTree dict image, or MappedGSuffixTree image
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length > 1)
+        {
+            GSuffixTree tree = GSuffixTree.buildTree(args[0]);
+            tree.flush();
+            write(new CompactGSuffixTree(tree), args[1]);
+            return;
+        }
+        String path = args.length > 0 ? args[0] : "data/poi.gst.img";
+        long t1 = System.nanoTime();
+        MappedGSuffixTree tree = new MappedGSuffixTree(path);
+        long t2 = System.nanoTime();
+        System.out.println("Nodes : " + tree.getNodeNum() + ", Edges : " + tree.getEdgeNum());
+        System.out.println("Open time : " + (t2 - t1) / 1000 + " us");
+    }
+}
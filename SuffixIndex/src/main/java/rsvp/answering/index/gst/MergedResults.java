@@ -0,0 +1,154 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.gst;
+
+import java.util.AbstractCollection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import rsvp.answering.index.common.IntIterator;
+import rsvp.answering.index.common.PostingList;
+import rsvp.answering.index.common.Tombstones;
+
+/**
+ * The results of a search over several trees whose indices follow each other: every list is sorted, and its first id
+ * is not less than the last id of the list before it. The lists are read one after the other, and an id ending a list
+ * and starting the next one is returned once, so the view is sorted and distinct without copying anything. Removed
+ * indices, if any, are skipped.
+ */
+public class MergedResults extends AbstractCollection<Integer>
+{
+    private final PostingList[] lists;
+
+    private final int size;
+
+    private final Tombstones removed;
+
+    /**
+     * @param lists the lists, in index order
+     * @param size the number of distinct ids that are not removed
+     * @param removed the ids to skip, null if there are none
+     */
+    MergedResults(List<PostingList> lists, int size, Tombstones removed)
+    {
+        this.lists = lists.toArray(new PostingList[lists.size()]);
+        this.size = size;
+        this.removed = removed;
+    }
+
+    /**
+     * Returns the ids in ascending order
+     */
+    public IntIterator intIterator()
+    {
+        return new IntIterator()
+        {
+            private int list = 0;
+
+            private IntIterator it = lists[0].intIterator();
+
+            private boolean started;
+
+            private int last;
+
+            private boolean ready;
+
+            private int next;
+
+            public boolean hasNext()
+            {
+                while (!ready)
+                {
+                    while (!it.hasNext())
+                    {
+                        if (++list == lists.length)
+                        {
+                            return false;
+                        }
+                        it = lists[list].intIterator();
+                    }
+                    next = it.nextInt();
+                    ready = (!started || next != last) && (removed == null || !removed.contains(next));
+                }
+                return true;
+            }
+
+            public int nextInt()
+            {
+                if (!hasNext())
+                {
+                    throw new NoSuchElementException();
+                }
+                ready = false;
+                started = true;
+                last = next;
+                return next;
+            }
+        };
+    }
+
+    @Override
+    public Iterator<Integer> iterator()
+    {
+        final IntIterator it = intIterator();
+        return new Iterator<Integer>()
+        {
+            public boolean hasNext()
+            {
+                return it.hasNext();
+            }
+
+            public Integer next()
+            {
+                return it.nextInt();
+            }
+
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public boolean contains(Object o)
+    {
+        if (!(o instanceof Integer))
+        {
+            return false;
+        }
+        int value = ((Integer) o).intValue();
+        if (removed != null && removed.contains(value))
+        {
+            return false;
+        }
+        for (PostingList list : lists)
+        {
+            if (list.contains(value))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.gst;
+
+import java.util.AbstractCollection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import rsvp.answering.index.common.IntHashSet;
+import rsvp.answering.index.common.IntIterator;
+
+/**
+ * The results of a search on a tree flushed with {@link GSuffixTree#flushRanges()}: the distinct indices found in a
+ * [from, to) range of the payload of the tree, which lists the indices of all nodes in DFS order.
+ *
+ * Nothing is computed up front. The iterators walk the range and skip the indices they have returned already, so a
+ * caller that only needs the first k results stops after k distinct ones. size() is the number of distinct indices
+ * counted by the flush.
+ */
+public class RangeResults extends AbstractCollection<Integer>
+{
+    private final int[] payload;
+
+    private final int from;
+
+    private final int to;
+
+    private final int size;
+
+    /**
+     * @param size the number of distinct indices of the range
+     */
+    RangeResults(int[] payload, int from, int to, int size)
+    {
+        this.payload = payload;
+        this.from = from;
+        this.to = to;
+        this.size = size;
+    }
+
+    /**
+     * Returns the length of the range, the number of indices walked to iterate over the results
+     */
+    int span()
+    {
+        return to - from;
+    }
+
+    /**
+     * Returns the distinct indices of the range in DFS order
+     */
+    public IntIterator intIterator()
+    {
+        return new IntIterator()
+        {
+            private final IntHashSet seen = new IntHashSet();
+
+            private int pos = from;
+
+            public boolean hasNext()
+            {
+                while (pos < to && seen.contains(payload[pos]))
+                {
+                    pos++;
+                }
+                return pos < to;
+            }
+
+            public int nextInt()
+            {
+                if (!hasNext())
+                {
+                    throw new NoSuchElementException();
+                }
+                int value = payload[pos++];
+                seen.add(value);
+                return value;
+            }
+        };
+    }
+
+    @Override
+    public Iterator<Integer> iterator()
+    {
+        final IntIterator it = intIterator();
+        return new Iterator<Integer>()
+        {
+            public boolean hasNext()
+            {
+                return it.hasNext();
+            }
+
+            public Integer next()
+            {
+                return it.nextInt();
+            }
+
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public boolean contains(Object o)
+    {
+        if (!(o instanceof Integer))
+        {
+            return false;
+        }
+        int value = ((Integer) o).intValue();
+        for (int i = from; i < to; i++)
+        {
+            if (payload[i] == value)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return from == to;
+    }
+}
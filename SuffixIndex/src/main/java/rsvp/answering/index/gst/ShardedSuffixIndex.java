@@ -0,0 +1,272 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.gst;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import rsvp.answering.index.common.PostingList;
+
+/**
+ * An index split into several GSuffixTree shards, queried in parallel.
+ *
+ * Shard i holds the keys of one contiguous range of ids, and uses the global ids as its indices. The ranges are
+ * disjoint and ordered, so the results of the shards are merged by concatenation, in shard order, into sorted global
+ * ids.
+ *
+ * Every query runs on the first shard in the calling thread and on the other ones on the given executor, which may
+ * be any ExecutorService, including one running virtual threads. The executor is not shut down by this class.
+ */
+public class ShardedSuffixIndex
+{
+    private final GSuffixTree[] shards;
+
+    /**
+     * Shard i holds the ids [rangeStarts[i], rangeStarts[i + 1])
+     */
+    private final int[] rangeStarts;
+
+    private final ExecutorService executor;
+
+    /**
+     * Builds and flushes the shards of the given keys on the executor, key i getting id i
+     *
+     * @param keys the keys to index
+     * @param shardNum the number of shards
+     * @param executor runs the builds and the queries
+     */
+    public ShardedSuffixIndex(final List<String> keys, int shardNum, ExecutorService executor)
+    {
+        if (shardNum < 1)
+        {
+            throw new IllegalArgumentException("shardNum must be positive : " + shardNum);
+        }
+        this.executor = executor;
+        this.shards = new GSuffixTree[shardNum];
+        this.rangeStarts = new int[shardNum + 1];
+        for (int i = 0; i <= shardNum; i++)
+        {
+            rangeStarts[i] = (int) ((long) keys.size() * i / shardNum);
+        }
+        List<Future<GSuffixTree>> builds = new ArrayList<Future<GSuffixTree>>(shardNum);
+        for (int i = 0; i < shardNum; i++)
+        {
+            final int from = rangeStarts[i];
+            final int to = rangeStarts[i + 1];
+            builds.add(executor.submit(new Callable<GSuffixTree>()
+            {
+                public GSuffixTree call()
+                {
+                    GSuffixTree tree = new GSuffixTree();
+                    for (int id = from; id < to; id++)
+                    {
+                        tree.addWord(keys.get(id), id);
+                    }
+                    tree.flush();
+                    return tree;
+                }
+            }));
+        }
+        for (int i = 0; i < shardNum; i++)
+        {
+            shards[i] = get(builds.get(i));
+        }
+    }
+
+    /**
+     * A query run on every shard
+     */
+    private abstract static class ShardQuery<T>
+    {
+        abstract T run(GSuffixTree shard);
+    }
+
+    /**
+     * Runs query on all the shards and returns their answers, in shard order
+     */
+    private <T> List<T> fanOut(final ShardQuery<T> query)
+    {
+        List<Future<T>> futures = new ArrayList<Future<T>>(shards.length - 1);
+        for (int i = 1; i < shards.length; i++)
+        {
+            final GSuffixTree shard = shards[i];
+            futures.add(executor.submit(new Callable<T>()
+            {
+                public T call()
+                {
+                    return query.run(shard);
+                }
+            }));
+        }
+        List<T> ret = new ArrayList<T>(shards.length);
+        ret.add(query.run(shards[0]));
+        for (Future<T> future : futures)
+        {
+            ret.add(get(future));
+        }
+        return ret;
+    }
+
+    private static <T> T get(Future<T> future)
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a shard", e);
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Returns the ids of all the keys containing word, in ascending order
+     *
+     * @see GSuffixTree#search(String)
+     * @return null if no key contains word
+     */
+    public Collection<Integer> search(final String word)
+    {
+        List<Collection<Integer>> results = fanOut(new ShardQuery<Collection<Integer>>()
+        {
+            @Override
+            Collection<Integer> run(GSuffixTree shard)
+            {
+                return shard.search(word);
+            }
+        });
+        List<PostingList> lists = new ArrayList<PostingList>(results.size());
+        int size = 0;
+        for (Collection<Integer> result : results)
+        {
+            if (result != null)
+            {
+                // a shard may have removed ids or be flushed to ranges, its results are then views to copy
+                PostingList list = PostingList.copyOf(result);
+                lists.add(list);
+                size += list.size();
+            }
+        }
+        return lists.isEmpty() ? null : new MergedResults(lists, size, null);
+    }
+
+    /**
+     * @see GSuffixTree#count(String)
+     */
+    public int count(final String word)
+    {
+        int ret = 0;
+        for (int count : fanOut(new ShardQuery<Integer>()
+        {
+            @Override
+            Integer run(GSuffixTree shard)
+            {
+                return shard.count(word);
+            }
+        }))
+        {
+            ret += count;
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the k ids with the highest score whose key contains word, best first
+     *
+     * @see GSuffixTree#searchTopK(String, int, float[])
+     */
+    public int[] searchTopK(final String word, final int k, final float[] scores)
+    {
+        TopKCollector collector = new TopKCollector(scores, k);
+        for (int[] ids : fanOut(new ShardQuery<int[]>()
+        {
+            @Override
+            int[] run(GSuffixTree shard)
+            {
+                return shard.searchTopK(word, k, scores);
+            }
+        }))
+        {
+            for (int id : ids)
+            {
+                collector.offer(id);
+            }
+        }
+        return collector.drain();
+    }
+
+    /**
+     * Finds the longest substring of word found in some key of some shard, the leftmost one if there are several, with
+     * the ids of all the keys containing it
+     *
+     * @see GSuffixTree#longestSubstring(CharSequence)
+     */
+    public SubstringMatch longestSubstring(final String word)
+    {
+        return SubstringMatch.merge(fanOut(new ShardQuery<SubstringMatch>()
+        {
+            @Override
+            SubstringMatch run(GSuffixTree shard)
+            {
+                return shard.longestSubstring(word);
+            }
+        }));
+    }
+
+    public int getShardNum()
+    {
+        return shards.length;
+    }
+
+    public GSuffixTree getShard(int i)
+    {
+        return shards[i];
+    }
+
+    /**
+     * Returns the shard holding the given id
+     */
+    public int shardOf(int id)
+    {
+        for (int i = 0; i < shards.length; i++)
+        {
+            if (id < rangeStarts[i + 1])
+            {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown id : " + id);
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.gst;
+
+import java.util.Collection;
+import java.util.List;
+
+import rsvp.answering.index.common.IntList;
+import rsvp.answering.index.common.PostingList;
+
+/**
+ * The longest substring of a query found in a tree: its [start, end) span in the query, and the indices of the keys
+ * containing it, as search would return them for that substring.
+ * 
+ * @see GSuffixTree#longestSubstring(CharSequence)
+ */
+public class SubstringMatch
+{
+    private final int start;
+
+    private final int end;
+
+    private final Collection<Integer> results;
+
+    SubstringMatch(int start, int end, Collection<Integer> results)
+    {
+        this.start = start;
+        this.end = end;
+        this.results = results;
+    }
+
+    /**
+     * Combines the matches of the same query in several trees into the match over all their keys: the longest span,
+     * the leftmost one if there are several, with the indices of every tree having that span.
+     * 
+     * A tree contains the combined span only if that span is also its own match, so the other trees can be skipped.
+     * 
+     * @param matches one per tree, null for a tree with no match
+     * @return null if there is no match at all
+     */
+    static SubstringMatch merge(List<SubstringMatch> matches)
+    {
+        SubstringMatch best = null;
+        int found = 0;
+        for (SubstringMatch match : matches)
+        {
+            if (match == null)
+            {
+                continue;
+            }
+            if (best == null || match.length() > best.length() || match.length() == best.length()
+                    && match.start < best.start)
+            {
+                best = match;
+                found = 1;
+            }
+            else if (match.start == best.start && match.end == best.end)
+            {
+                found++;
+            }
+        }
+        if (found <= 1)
+        {
+            return best;
+        }
+        IntList ids = new IntList();
+        for (SubstringMatch match : matches)
+        {
+            if (match != null && match.start == best.start && match.end == best.end)
+            {
+                ids.addAll(match.results);
+            }
+        }
+        ids.sortDistinct();
+        return new SubstringMatch(best.start, best.end, PostingList.of(ids));
+    }
+
+    public int getStart()
+    {
+        return start;
+    }
+
+    public int getEnd()
+    {
+        return end;
+    }
+
+    public int length()
+    {
+        return end - start;
+    }
+
+    public Collection<Integer> getResults()
+    {
+        return results;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "[" + start + ", " + end + ") " + results;
+    }
+}
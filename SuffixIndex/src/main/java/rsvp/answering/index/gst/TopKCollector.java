@@ -0,0 +1,173 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.gst;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the k best distinct ids offered to it in a bounded heap. An id is better than another one if it has a higher
+ * score, or the same score and a lower id.
+ */
+class TopKCollector
+{
+    private final float[] scores;
+
+    private int k;
+
+    /**
+     * A min-heap on goodness: heap[0] is the worst of the ids kept
+     */
+    private int[] heap;
+
+    private int size;
+
+    TopKCollector(float[] scores, int k)
+    {
+        this.scores = scores;
+        reset(k);
+    }
+
+    void reset(int k)
+    {
+        this.k = k;
+        if (heap == null || heap.length < k)
+        {
+            heap = new int[Math.max(k, 1)];
+        }
+        size = 0;
+    }
+
+    private float score(int id)
+    {
+        return id < scores.length ? scores[id] : 0f;
+    }
+
+    boolean better(int a, int b)
+    {
+        float sa = score(a);
+        float sb = score(b);
+        return sa > sb || (sa == sb && a < b);
+    }
+
+    /**
+     * Returns whether the id would enter the heap right now
+     */
+    boolean accepts(int id)
+    {
+        return size < k || better(id, heap[0]);
+    }
+
+    void offer(int id)
+    {
+        if (k == 0 || !accepts(id))
+        {
+            return;
+        }
+        for (int i = 0; i < size; i++)
+        {
+            if (heap[i] == id)
+            {
+                return;
+            }
+        }
+        if (size < k)
+        {
+            int i = size++;
+            while (i > 0)
+            {
+                int parent = (i - 1) >>> 1;
+                if (!better(heap[parent], id))
+                {
+                    break;
+                }
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = id;
+        }
+        else
+        {
+            int i = 0;
+            while (true)
+            {
+                int child = 2 * i + 1;
+                if (child >= size)
+                {
+                    break;
+                }
+                if (child + 1 < size && better(heap[child], heap[child + 1]))
+                {
+                    child++;
+                }
+                if (better(heap[child], id))
+                {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = id;
+        }
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the ids kept, best first, and empties the collector
+     */
+    int[] drain()
+    {
+        int[] ret = new int[size];
+        for (int n = size - 1; n >= 0; n--)
+        {
+            ret[n] = heap[0];
+            int last = heap[--size];
+            int i = 0;
+            while (true)
+            {
+                int child = 2 * i + 1;
+                if (child >= size)
+                {
+                    break;
+                }
+                if (child + 1 < size && better(heap[child], heap[child + 1]))
+                {
+                    child++;
+                }
+                if (better(heap[child], last))
+                {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            if (size > 0)
+            {
+                heap[i] = last;
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public String toString()
+    {
+        return Arrays.toString(Arrays.copyOf(heap, size));
+    }
+}
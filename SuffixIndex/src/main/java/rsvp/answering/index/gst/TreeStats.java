@@ -0,0 +1,167 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.gst;
+
+import rsvp.answering.index.common.Histogram;
+
+/**
+ * The shape of a tree, computed by {@link GSuffixTree#computeStats()}: node and edge counts, the distributions of
+ * node depths, fan-outs and posting list sizes, and an estimate of the bytes used by every component of the tree on
+ * a 64-bit JVM with compressed references.
+ */
+public class TreeStats
+{
+    private final int nodeNum;
+
+    private final int edgeNum;
+
+    private final int leafNum;
+
+    private final Histogram depths;
+
+    private final Histogram fanOuts;
+
+    private final Histogram postingSizes;
+
+    private final long textBytes;
+
+    private final long nodeBytes;
+
+    private final long edgeBytes;
+
+    private final long indexBytes;
+
+    private final long postingBytes;
+
+    private final long payloadBytes;
+
+    TreeStats(int nodeNum, int edgeNum, int leafNum, Histogram depths, Histogram fanOuts, Histogram postingSizes,
+            long textBytes, long nodeBytes, long edgeBytes, long indexBytes, long postingBytes, long payloadBytes)
+    {
+        this.nodeNum = nodeNum;
+        this.edgeNum = edgeNum;
+        this.leafNum = leafNum;
+        this.depths = depths;
+        this.fanOuts = fanOuts;
+        this.postingSizes = postingSizes;
+        this.textBytes = textBytes;
+        this.nodeBytes = nodeBytes;
+        this.edgeBytes = edgeBytes;
+        this.indexBytes = indexBytes;
+        this.postingBytes = postingBytes;
+        this.payloadBytes = payloadBytes;
+    }
+
+    public int getNodeNum()
+    {
+        return nodeNum;
+    }
+
+    public int getEdgeNum()
+    {
+        return edgeNum;
+    }
+
+    public int getLeafNum()
+    {
+        return leafNum;
+    }
+
+    /**
+     * Returns the distribution of the number of edges from the root to every node
+     */
+    public Histogram getDepths()
+    {
+        return depths;
+    }
+
+    /**
+     * Returns the distribution of the number of children of the internal nodes
+     */
+    public Histogram getFanOuts()
+    {
+        return fanOuts;
+    }
+
+    /**
+     * Returns the distribution of the number of results of every node: the size of its posting list after flush, of
+     * its range after flushRanges, of its own indices before any flush
+     */
+    public Histogram getPostingSizes()
+    {
+        return postingSizes;
+    }
+
+    /**
+     * Returns the bytes of the text arena holding the labels
+     */
+    public long getTextBytes()
+    {
+        return textBytes;
+    }
+
+    /**
+     * Returns the bytes of the nodes and of their child maps
+     */
+    public long getNodeBytes()
+    {
+        return nodeBytes;
+    }
+
+    public long getEdgeBytes()
+    {
+        return edgeBytes;
+    }
+
+    /**
+     * Returns the bytes of the own indices of the nodes
+     */
+    public long getIndexBytes()
+    {
+        return indexBytes;
+    }
+
+    /**
+     * Returns the bytes of the posting lists computed by flush, a list shared by several nodes counted once
+     */
+    public long getPostingBytes()
+    {
+        return postingBytes;
+    }
+
+    /**
+     * Returns the bytes of the payload computed by flushRanges
+     */
+    public long getPayloadBytes()
+    {
+        return payloadBytes;
+    }
+
+    public long getTotalBytes()
+    {
+        return textBytes + nodeBytes + edgeBytes + indexBytes + postingBytes + payloadBytes;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "TreeStats [nodes=" + nodeNum + ", edges=" + edgeNum + ", leaves=" + leafNum + ", maxDepth="
+                + depths.getMax() + ", meanDepth=" + String.format("%.1f", depths.getMean()) + ", maxFanOut="
+                + fanOuts.getMax() + ", p99PostingSize=" + postingSizes.getValueAtPercentile(99) + ", textBytes="
+                + textBytes + ", nodeBytes=" + nodeBytes + ", edgeBytes=" + edgeBytes + ", indexBytes=" + indexBytes
+                + ", postingBytes=" + postingBytes + ", payloadBytes=" + payloadBytes + "]";
+    }
+}
@@ -0,0 +1,299 @@
+/**
+ *
+ * Copyright 2013 University of Waterloo. All rights reserved.
+ * AhoCorasickAutomaton.java
+ *
+ */
+package rsvp.answering.index.trie;
+
+import java.util.Arrays;
+
+import rsvp.answering.index.common.CharIntMap;
+import rsvp.answering.index.common.IntList;
+import rsvp.answering.index.common.TextArena;
+
+/**
+ * An Aho-Corasick automaton over the words of a frozen {@link TrieTree}, finding all the words occurring in a text in
+ * one pass.
+ *
+ * The labels of the trie are expanded to one state per char. Every state has a failure link, to the state of its
+ * longest proper suffix that is also in the trie, and an output link, to the nearest state on the failure chain that
+ * ends a word. Scanning a text of n chars then takes O(n + matches) steps and allocates nothing.
+ *
+ * Words are numbered from 0 in the order the states are built, see {@link #getWord(int)}. The automaton does not
+ * change when the trie does, and can be shared by any number of threads.
+ *
+ * @author Kun Xiong (xiongkun04@gmail.com)
+ * @date 2026-10-18
+ */
+public class AhoCorasickAutomaton
+{
+    /**
+     * Receives the matches found by scan
+     */
+    public interface Callback
+    {
+        /**
+         * Called for every occurrence of a word, text[start, end) being the word
+         */
+        void match(int start, int end, int wordId);
+    }
+
+    private static final int ROOT = 0;
+
+    /**
+     * The parent and the incoming char of every state, the root is its own parent
+     */
+    private final int[] parent;
+
+    private final char[] inChar;
+
+    private final int[] depth;
+
+    /**
+     * The children of state s are childChars/childStates[childOffsets[s], childOffsets[s + 1]), sorted by char
+     */
+    private final int[] childOffsets;
+
+    private final char[] childChars;
+
+    private final int[] childStates;
+
+    private final int[] fail;
+
+    /**
+     * The word ending at every state, -1 if none
+     */
+    private final int[] wordIds;
+
+    /**
+     * The nearest state on the failure chain (excluding the state itself) that ends a word, -1 if none
+     */
+    private final int[] outputs;
+
+    /**
+     * The state ending every word
+     */
+    private final int[] wordStates;
+
+    /**
+     * Builds the automaton of the words of the given trie
+     *
+     * @param trie a frozen trie
+     * @throws IllegalStateException if the trie is not frozen
+     */
+    public AhoCorasickAutomaton(TrieTree trie)
+    {
+        if (!trie.isFrozen())
+        {
+            throw new IllegalStateException("The trie must be frozen");
+        }
+        TextArena arena = trie.getArena();
+
+        // expand the labels, depth first
+        IntList parents = new IntList();
+        StringBuilder chars = new StringBuilder();
+        IntList words = new IntList();
+        parents.add(ROOT);
+        chars.append('\0');
+        IntList stack = new IntList();
+        stack.add(trie.getRoot());
+        stack.add(ROOT);
+        while (!stack.isEmpty())
+        {
+            int state = stack.get(stack.size() - 1);
+            int nodeIdx = stack.get(stack.size() - 2);
+            stack.setSize(stack.size() - 2);
+            CharIntMap children = trie.node(nodeIdx).getEdges();
+            for (int i = 0; i < children.size(); i++)
+            {
+                TrieEdge edge = trie.edge(children.valueAt(i));
+                int s = state;
+                for (int j = edge.getStart(); j < edge.getEnd(); j++)
+                {
+                    parents.add(s);
+                    chars.append(arena.charAt(j));
+                    s = parents.size() - 1;
+                }
+                if (edge.getDest() == -1)
+                {
+                    words.add(s);
+                }
+                else
+                {
+                    if (trie.node(edge.getDest()).isWord())
+                    {
+                        words.add(s);
+                    }
+                    stack.add(edge.getDest());
+                    stack.add(s);
+                }
+            }
+        }
+
+        int stateNum = parents.size();
+        this.parent = parents.toArray();
+        this.inChar = new char[stateNum];
+        chars.getChars(0, stateNum, inChar, 0);
+        this.wordStates = words.toArray();
+        this.wordIds = new int[stateNum];
+        Arrays.fill(wordIds, -1);
+        for (int id = 0; id < wordStates.length; id++)
+        {
+            wordIds[wordStates[id]] = id;
+        }
+
+        // group the children of every state, sorted by char
+        this.childOffsets = new int[stateNum + 1];
+        for (int s = 1; s < stateNum; s++)
+        {
+            childOffsets[parent[s] + 1]++;
+        }
+        for (int s = 0; s < stateNum; s++)
+        {
+            childOffsets[s + 1] += childOffsets[s];
+        }
+        long[] keyed = new long[stateNum - 1];
+        int[] next = Arrays.copyOf(childOffsets, stateNum);
+        for (int s = 1; s < stateNum; s++)
+        {
+            keyed[next[parent[s]]++] = (long) inChar[s] << 32 | s;
+        }
+        this.childChars = new char[stateNum - 1];
+        this.childStates = new int[stateNum - 1];
+        for (int s = 0; s < stateNum; s++)
+        {
+            Arrays.sort(keyed, childOffsets[s], childOffsets[s + 1]);
+        }
+        for (int i = 0; i < keyed.length; i++)
+        {
+            childChars[i] = (char) (keyed[i] >>> 32);
+            childStates[i] = (int) keyed[i];
+        }
+
+        // failure and output links, breadth first
+        this.depth = new int[stateNum];
+        this.fail = new int[stateNum];
+        this.outputs = new int[stateNum];
+        outputs[ROOT] = -1;
+        int[] queue = new int[stateNum];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = ROOT;
+        while (head < tail)
+        {
+            int s = queue[head++];
+            for (int i = childOffsets[s]; i < childOffsets[s + 1]; i++)
+            {
+                int child = childStates[i];
+                char ch = childChars[i];
+                depth[child] = depth[s] + 1;
+                if (s == ROOT)
+                {
+                    fail[child] = ROOT;
+                }
+                else
+                {
+                    int f = fail[s];
+                    int to;
+                    while ((to = child(f, ch)) == -1 && f != ROOT)
+                    {
+                        f = fail[f];
+                    }
+                    fail[child] = to == -1 ? ROOT : to;
+                }
+                int f = fail[child];
+                outputs[child] = wordIds[f] != -1 ? f : outputs[f];
+                queue[tail++] = child;
+            }
+        }
+    }
+
+    /**
+     * Returns the child of state s for ch, -1 if there is none
+     */
+    private int child(int s, char ch)
+    {
+        int low = childOffsets[s];
+        int high = childOffsets[s + 1] - 1;
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            char midCh = childChars[mid];
+            if (midCh < ch)
+            {
+                low = mid + 1;
+            }
+            else if (midCh > ch)
+            {
+                high = mid - 1;
+            }
+            else
+            {
+                return childStates[mid];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reports every occurrence of every word in text, ordered by end, then from the longest word to the shortest.
+     *
+     * @param text the text to scan
+     * @param callback receives the matches
+     */
+    public void scan(CharSequence text, Callback callback)
+    {
+        int s = ROOT;
+        for (int i = 0; i < text.length(); i++)
+        {
+            char ch = text.charAt(i);
+            int to;
+            while ((to = child(s, ch)) == -1 && s != ROOT)
+            {
+                s = fail[s];
+            }
+            s = to == -1 ? ROOT : to;
+            for (int o = wordIds[s] != -1 ? s : outputs[s]; o != -1; o = outputs[o])
+            {
+                callback.match(i + 1 - depth[o], i + 1, wordIds[o]);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of words, word ids range from 0 to this number excluded
+     */
+    public int getWordNum()
+    {
+        return wordStates.length;
+    }
+
+    /**
+     * Returns the word with the given id
+     */
+    public String getWord(int wordId)
+    {
+        int s = wordStates[wordId];
+        char[] ret = new char[depth[s]];
+        for (int i = ret.length - 1; i >= 0; i--)
+        {
+            ret[i] = inChar[s];
+            s = parent[s];
+        }
+        return new String(ret);
+    }
+
+    /**
+     * Returns the length of the word with the given id
+     */
+    public int getWordLength(int wordId)
+    {
+        return depth[wordStates[wordId]];
+    }
+
+    public int getStateNum()
+    {
+        return parent.length;
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ *
+ * Copyright 2013 University of Waterloo. All rights reserved.
+ * Completion.java
+ *
+ */
+package rsvp.answering.index.trie;
+
+/**
+ * A word found by {@link TrieTree#complete(String, int)}, with the id and weight it was added with
+ *
+ * @author Kun Xiong (xiongkun04@gmail.com)
+ * @date 2026-10-18
+ */
+public class Completion
+{
+    private final String word;
+
+    private final int id;
+
+    private final float weight;
+
+    Completion(String word, int id, float weight)
+    {
+        this.word = word;
+        this.id = id;
+        this.weight = weight;
+    }
+
+    public String getWord()
+    {
+        return word;
+    }
+
+    /**
+     * Returns the id the word was added with, -1 for a word added without one
+     */
+    public int getId()
+    {
+        return id;
+    }
+
+    public float getWeight()
+    {
+        return weight;
+    }
+
+    @Override
+    public String toString()
+    {
+        return word + "#" + id + "@" + weight;
+    }
+}
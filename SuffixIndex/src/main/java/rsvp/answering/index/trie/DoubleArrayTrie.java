@@ -0,0 +1,436 @@
+/**
+ *
+ * Copyright 2013 University of Waterloo. All rights reserved.
+ * DoubleArrayTrie.java
+ *
+ */
+package rsvp.answering.index.trie;
+
+import java.util.Arrays;
+
+import rsvp.answering.index.common.CharIntMap;
+import rsvp.answering.index.common.IntList;
+import rsvp.answering.index.common.TextArena;
+
+/**
+ * A read-only double-array trie compiled from a frozen {@link TrieTree}.
+ *
+ * Every char of the trie is a state, and the child of state s for char c is t = base[s] + code(c), valid only if
+ * check[t] == s. A lookup is then one array read per char with no object in between. Chars are given dense codes, the
+ * most frequent first, so that the two arrays stay small even for CJK text.
+ *
+ * The unique remainder of a word, from the point where it leaves all the other words, is not expanded into states but
+ * kept in a tail buffer: such a state has a negative base, -(position + 1) of an entry made of the length of the
+ * remainder followed by its chars. The remainder is never empty, a word ends at the end of it.
+ *
+ * @author Kun Xiong (xiongkun04@gmail.com)
+ * @date 2026-10-18
+ */
+public class DoubleArrayTrie
+{
+    private static final int ROOT = 0;
+
+    /**
+     * check value of an unused cell
+     */
+    private static final int FREE = -1;
+
+    private int[] base;
+
+    private int[] check;
+
+    /**
+     * One bit per state, set if a word ends at the state
+     */
+    private long[] words;
+
+    private final char[] tail;
+
+    /**
+     * The code of every char, 0 for chars that appear in no word
+     */
+    private final char[] codes;
+
+    private final int stateNum;
+
+    /**
+     * The first cell that may be free, where the search for a base starts
+     */
+    private int firstFree = 1;
+
+    /**
+     * Compiles the given trie
+     *
+     * @param trie a frozen trie
+     * @throws IllegalStateException if the trie is not frozen
+     */
+    public DoubleArrayTrie(TrieTree trie)
+    {
+        if (!trie.isFrozen())
+        {
+            throw new IllegalStateException("The trie must be frozen");
+        }
+        TextArena arena = trie.getArena();
+        this.codes = buildCodes(trie);
+
+        int capacity = Math.max(16, trie.getNodeNum() * 2);
+        base = new int[capacity];
+        check = new int[capacity];
+        Arrays.fill(check, FREE);
+        check[ROOT] = ROOT;
+        words = new long[(capacity + 63) >>> 6];
+        StringBuilder tailChars = new StringBuilder();
+
+        /*
+         * Breadth first over the positions of the trie, each one being a state. A position is either a trie node (edge
+         * = -1) or the point after offset chars of the label of edge. Leaf nodes, the ones after the label of an edge
+         * without destination, are written as node = -1.
+         */
+        IntList queue = new IntList();
+        queue.add(ROOT);
+        queue.add(trie.getRoot());
+        queue.add(-1);
+        queue.add(0);
+        int[] childCodes = new int[16];
+        int[] childNodes = new int[16];
+        int[] childEdges = new int[16];
+        int[] childOffsets = new int[16];
+        int maxState = ROOT;
+        for (int head = 0; head < queue.size(); head += 4)
+        {
+            int state = queue.get(head);
+            int nodeIdx = queue.get(head + 1);
+            int edgeIdx = queue.get(head + 2);
+            int offset = queue.get(head + 3);
+            maxState = Math.max(maxState, state);
+
+            int childNum;
+            if (edgeIdx != -1)
+            {
+                TrieEdge edge = trie.edge(edgeIdx);
+                if (edge.getDest() == -1)
+                {
+                    // the rest of the label belongs to one word only
+                    int len = edge.length() - offset;
+                    if (len <= Character.MAX_VALUE)
+                    {
+                        base[state] = -(tailChars.length() + 1);
+                        tailChars.append((char) len);
+                        for (int j = edge.getStart() + offset; j < edge.getEnd(); j++)
+                        {
+                            tailChars.append(arena.charAt(j));
+                        }
+                        continue;
+                    }
+                }
+                childNum = 1;
+                childCodes[0] = codes[arena.charAt(edge.getStart() + offset)];
+                setChild(childNodes, childEdges, childOffsets, 0, trie, edgeIdx, offset + 1);
+            }
+            else if (nodeIdx == -1)
+            {
+                setWord(state);
+                continue;
+            }
+            else
+            {
+                TrieNode node = trie.node(nodeIdx);
+                if (node.isWord() && nodeIdx != trie.getRoot())
+                {
+                    setWord(state);
+                }
+                CharIntMap children = node.getEdges();
+                childNum = children.size();
+                if (childNum > childCodes.length)
+                {
+                    childCodes = new int[childNum];
+                    childNodes = new int[childNum];
+                    childEdges = new int[childNum];
+                    childOffsets = new int[childNum];
+                }
+                // sorted by code
+                long[] sorted = new long[childNum];
+                for (int i = 0; i < childNum; i++)
+                {
+                    sorted[i] = (long) codes[children.keyAt(i)] << 32 | children.valueAt(i);
+                }
+                Arrays.sort(sorted);
+                for (int i = 0; i < childNum; i++)
+                {
+                    childCodes[i] = (int) (sorted[i] >>> 32);
+                    setChild(childNodes, childEdges, childOffsets, i, trie, (int) sorted[i], 1);
+                }
+            }
+            if (childNum == 0)
+            {
+                continue;
+            }
+
+            int b = findBase(childCodes, childNum);
+            base[state] = b;
+            for (int i = 0; i < childNum; i++)
+            {
+                int child = b + childCodes[i];
+                check[child] = state;
+                queue.add(child);
+                queue.add(childNodes[i]);
+                queue.add(childEdges[i]);
+                queue.add(childOffsets[i]);
+            }
+            while (check[firstFree] != FREE)
+            {
+                firstFree++;
+            }
+            // the queue only needs what is ahead of head
+            if (head > (1 << 16) && head * 2 > queue.size())
+            {
+                int rest = queue.size() - head - 4;
+                System.arraycopy(queue.array(), head + 4, queue.array(), 0, rest);
+                queue.setSize(rest);
+                head = -4;
+            }
+        }
+
+        this.stateNum = maxState + 1;
+        this.tail = tailChars.toString().toCharArray();
+        base = Arrays.copyOf(base, stateNum);
+        check = Arrays.copyOf(check, stateNum);
+        words = Arrays.copyOf(words, (stateNum + 63) >>> 6);
+    }
+
+    /**
+     * Fills the position reached after offset chars of the label of edgeIdx
+     */
+    private static void setChild(int[] nodes, int[] edges, int[] offsets, int i, TrieTree trie, int edgeIdx, int offset)
+    {
+        TrieEdge edge = trie.edge(edgeIdx);
+        if (offset < edge.length())
+        {
+            nodes[i] = -1;
+            edges[i] = edgeIdx;
+            offsets[i] = offset;
+        }
+        else
+        {
+            // a leaf if the edge has no destination
+            nodes[i] = edge.getDest();
+            edges[i] = -1;
+            offsets[i] = 0;
+        }
+    }
+
+    /**
+     * Gives a code to every char of the labels, from 1 for the most frequent one
+     */
+    private static char[] buildCodes(TrieTree trie)
+    {
+        TextArena arena = trie.getArena();
+        final int[] counts = new int[Character.MAX_VALUE + 1];
+        for (int e = 0; e < trie.getEdgeNum(); e++)
+        {
+            TrieEdge edge = trie.edge(e);
+            for (int j = edge.getStart(); j < edge.getEnd(); j++)
+            {
+                counts[arena.charAt(j)]++;
+            }
+        }
+        long[] byCount = new long[counts.length];
+        int n = 0;
+        for (int c = 0; c < counts.length; c++)
+        {
+            if (counts[c] > 0)
+            {
+                byCount[n++] = (long) -counts[c] << 32 | c;
+            }
+        }
+        Arrays.sort(byCount, 0, n);
+        char[] ret = new char[counts.length];
+        for (int i = 0; i < n; i++)
+        {
+            ret[(int) byCount[i] & 0xFFFF] = (char) (i + 1);
+        }
+        return ret;
+    }
+
+    /**
+     * Finds a base b such that all the cells b + code are free, growing the arrays if needed
+     */
+    private int findBase(int[] childCodes, int childNum)
+    {
+        int pos = Math.max(firstFree, childCodes[0] + 1);
+        while (true)
+        {
+            ensureCapacity(pos + 1);
+            if (check[pos] == FREE)
+            {
+                int b = pos - childCodes[0];
+                ensureCapacity(b + childCodes[childNum - 1] + 1);
+                int i = 1;
+                while (i < childNum && check[b + childCodes[i]] == FREE)
+                {
+                    i++;
+                }
+                if (i == childNum)
+                {
+                    return b;
+                }
+            }
+            pos++;
+        }
+    }
+
+    private void ensureCapacity(int capacity)
+    {
+        if (capacity > base.length)
+        {
+            int newCapacity = Math.max(capacity, base.length + (base.length >> 1));
+            base = Arrays.copyOf(base, newCapacity);
+            int old = check.length;
+            check = Arrays.copyOf(check, newCapacity);
+            Arrays.fill(check, old, newCapacity, FREE);
+            words = Arrays.copyOf(words, (newCapacity + 63) >>> 6);
+        }
+    }
+
+    private void setWord(int state)
+    {
+        words[state >>> 6] |= 1L << state;
+    }
+
+    private boolean isWord(int state)
+    {
+        return (words[state >>> 6] & 1L << state) != 0;
+    }
+
+    /**
+     * Returns the child of state for ch, -1 if there is none
+     */
+    private int child(int state, char ch)
+    {
+        int code = codes[ch];
+        int b = base[state];
+        if (code == 0 || b <= 0)
+        {
+            return -1;
+        }
+        int t = b + code;
+        return t < check.length && check[t] == state ? t : -1;
+    }
+
+    /**
+     * Returns the number of chars of text, from position from, that match the tail entry at pos
+     */
+    private int matchTail(int pos, CharSequence text, int from)
+    {
+        int len = tail[pos];
+        int n = Math.min(len, text.length() - from);
+        int i = 0;
+        while (i < n && tail[pos + 1 + i] == text.charAt(from + i))
+        {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @see TrieTree#containsWord(String)
+     */
+    public boolean containsWord(CharSequence word)
+    {
+        int s = ROOT;
+        for (int i = 0; i < word.length(); i++)
+        {
+            if (base[s] < 0)
+            {
+                int pos = -base[s] - 1;
+                int len = tail[pos];
+                return len == word.length() - i && matchTail(pos, word, i) == len;
+            }
+            s = child(s, word.charAt(i));
+            if (s == -1)
+            {
+                return false;
+            }
+        }
+        return s != ROOT && isWord(s);
+    }
+
+    /**
+     * @see TrieTree#containsPrefix(String)
+     */
+    public boolean containsPrefix(CharSequence prefix)
+    {
+        return prefix.length() > 0 && match(prefix) == prefix.length();
+    }
+
+    /**
+     * Returns the length of the longest prefix of word that is a prefix of some word of the trie
+     *
+     * @see TrieTree#match(String)
+     */
+    public int match(CharSequence word)
+    {
+        int s = ROOT;
+        for (int i = 0; i < word.length(); i++)
+        {
+            if (base[s] < 0)
+            {
+                return i + matchTail(-base[s] - 1, word, i);
+            }
+            s = child(s, word.charAt(i));
+            if (s == -1)
+            {
+                return i;
+            }
+        }
+        return word.length();
+    }
+
+    /**
+     * Finds all the words of the trie that are a prefix of text.substring(from)
+     *
+     * @param text
+     * @param from where the words must start
+     * @return the lengths of the words found, ascending
+     */
+    public int[] commonPrefixSearch(CharSequence text, int from)
+    {
+        IntList ret = new IntList(4);
+        int s = ROOT;
+        for (int i = from; i < text.length(); i++)
+        {
+            if (base[s] < 0)
+            {
+                int pos = -base[s] - 1;
+                if (matchTail(pos, text, i) == tail[pos])
+                {
+                    ret.add(i - from + tail[pos]);
+                }
+                return ret.toArray();
+            }
+            s = child(s, text.charAt(i));
+            if (s == -1)
+            {
+                return ret.toArray();
+            }
+            if (isWord(s))
+            {
+                ret.add(i + 1 - from);
+            }
+        }
+        return ret.toArray();
+    }
+
+    public int getStateNum()
+    {
+        return stateNum;
+    }
+
+    /**
+     * Returns the number of bytes held by the arrays of this trie, not counting object headers
+     */
+    public long estimateBytes()
+    {
+        return 4L * (base.length + check.length) + 8L * words.length + 2L * (tail.length + codes.length);
+    }
+}
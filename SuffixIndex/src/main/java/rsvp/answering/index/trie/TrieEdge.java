@@ -13,24 +13,58 @@ package rsvp.answering.index.trie;
 public class TrieEdge
 {
 
-    private String label;
+    /**
+     * Offset of the first label character in the text arena of the trie
+     */
+    private int start;
+
+    /**
+     * Offset after the last label character in the text arena of the trie
+     */
+    private int end;
 
     private int dest;
 
-    public TrieEdge(String label, int dest)
+    /**
+     * The slot of the word ending at the end of this edge in its trie, -1 if none
+     */
+    private int word = -1;
+
+    /**
+     * The greatest weight of the words ending at the end of this edge or below it
+     */
+    private float maxWeight = Float.NEGATIVE_INFINITY;
+
+    public TrieEdge(int start, int end, int dest)
     {
-        this.label = label;
+        this.start = start;
+        this.end = end;
         this.dest = dest;
     }
 
-    public String getLabel()
+    public int getStart()
+    {
+        return start;
+    }
+
+    public void setStart(int start)
+    {
+        this.start = start;
+    }
+
+    public int getEnd()
+    {
+        return end;
+    }
+
+    public void setEnd(int end)
     {
-        return label;
+        this.end = end;
     }
 
-    public void setLabel(String label)
+    public int length()
     {
-        this.label = label;
+        return end - start;
     }
 
     public int getDest()
@@ -43,10 +77,30 @@ public class TrieEdge
         this.dest = dest;
     }
 
+    public int getWord()
+    {
+        return word;
+    }
+
+    public void setWord(int word)
+    {
+        this.word = word;
+    }
+
+    public float getMaxWeight()
+    {
+        return maxWeight;
+    }
+
+    public void setMaxWeight(float maxWeight)
+    {
+        this.maxWeight = maxWeight;
+    }
+
     @Override
     public String toString()
     {
-        return "TrieEdge [label=" + label + ", dest=" + dest + "]";
+        return "TrieEdge [start=" + start + ", end=" + end + ", dest=" + dest + "]";
     }
 
 }
\ No newline at end of file
@@ -6,8 +6,7 @@
  */
 package rsvp.answering.index.trie;
 
-import java.util.HashMap;
-import java.util.Map;
+import rsvp.answering.index.common.CharIntMap;
 
 /**
  * @author Kun Xiong (xiongkun04@gmail.com)
@@ -16,10 +15,15 @@ import java.util.Map;
 public class TrieNode
 {
 
-    private Map<Character, Integer> edges = new HashMap<Character, Integer>();
+    private CharIntMap edges = new CharIntMap();
     
     private boolean isWord = false;
 
+    /**
+     * The edges of the children by decreasing max weight, null until computed and after a change of the children
+     */
+    private int[] byWeight;
+
     public TrieNode()
     {
     }
@@ -32,6 +36,7 @@ public class TrieNode
     public void addEdge(char ch, int argChild)
     {
         edges.put(ch, argChild);
+        byWeight = null;
     }
 
     public boolean containsEdge(char c)
@@ -39,19 +44,14 @@ public class TrieNode
         return edges.containsKey(c);
     }
 
-    public Map<Character, Integer> getEdges()
+    public CharIntMap getEdges()
     {
         return edges;
     }
 
     public int getEdge(char c)
     {
-        Integer idx = edges.get(c);
-        if (idx == null)
-        {
-            return -1;
-        }
-        return idx.intValue();
+        return edges.get(c);
     }
 
     
@@ -74,5 +74,16 @@ public class TrieNode
     public void removeEdge(char key)
     {
         this.edges.remove(key);
+        byWeight = null;
+    }
+
+    int[] getChildrenByWeight()
+    {
+        return byWeight;
+    }
+
+    void setChildrenByWeight(int[] byWeight)
+    {
+        this.byWeight = byWeight;
     }
 }
\ No newline at end of file
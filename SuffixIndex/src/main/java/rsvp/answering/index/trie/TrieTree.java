@@ -6,13 +6,17 @@
  */
 package rsvp.answering.index.trie;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import rsvp.answering.index.common.CharIntMap;
+import rsvp.answering.index.common.DictionaryLoader;
+import rsvp.answering.index.common.IntList;
+import rsvp.answering.index.common.TextArena;
 
 /**
  * @author Kun Xiong (xiongkun04@gmail.com)
@@ -20,9 +24,30 @@ import java.util.ArrayList;
  */
 public class TrieTree
 {
-    public static ArrayList<TrieNode> nodes = new ArrayList<TrieNode>();
+    private final ArrayList<TrieNode> nodes = new ArrayList<TrieNode>();
+
+    private final ArrayList<TrieEdge> edges = new ArrayList<TrieEdge>();
+
+    /**
+     * The characters of all the added words. Edge labels are ranges of it.
+     */
+    private final TextArena arena = new TextArena();
+
+    /**
+     * The id, weight and range in the arena of every distinct word, by slot. The edge a word ends at holds its slot.
+     */
+    private final IntList wordIds = new IntList();
+
+    private float[] weights = new float[0];
 
-    public static ArrayList<TrieEdge> edges = new ArrayList<TrieEdge>();
+    private final IntList wordStarts = new IntList();
+
+    private final IntList wordEnds = new IntList();
+
+    /**
+     * Set by freeze. A frozen trie takes no more words, and is read without locking.
+     */
+    private volatile boolean frozen = false;
 
     // private Map<Character, Integer> roots = new HashMap<Character, Integer>();
 
@@ -83,41 +108,25 @@ public class TrieTree
     // }
     // }
 
-    public TrieTree(String path)
+    /**
+     * Builds a trie of the lines of the given file, plain or gzipped
+     *
+     * @throws IOException if a file cannot be read
+     * @see DictionaryLoader
+     */
+    public TrieTree(String path) throws IOException
     {
         root = createNode();
-        try
+        new DictionaryLoader().load(new DictionaryLoader.BatchConsumer()
         {
-            long t1 = System.currentTimeMillis();
-            System.out.print("Loading from " + path + " ...");
-            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(path), "utf-8"));
-            int index = 0;
-            String line = null;
-            while ((line = reader.readLine()) != null)
+            public void accept(String[] keys, int size, int firstIndex)
             {
-                addWord(line.trim());
-                index++;
-                if (index % 100000 == 0)
+                for (int i = 0; i < size; i++)
                 {
-                    System.out.print(".");
+                    addWord(keys[i]);
                 }
             }
-            long t2 = System.currentTimeMillis();
-            System.out.println("Done");
-            System.out.println("Loaded " + index + " words in " + (t2 - t1) + "ms");
-        }
-        catch (UnsupportedEncodingException e)
-        {
-            e.printStackTrace();
-        }
-        catch (FileNotFoundException e)
-        {
-            e.printStackTrace();
-        }
-        catch (IOException e)
-        {
-            e.printStackTrace();
-        }
+        }, path);
     }
 
     // public void toFile(String path)
@@ -155,49 +164,98 @@ public class TrieTree
     // }
     // }
 
-    protected void addWord(String word)
+    /**
+     * Adds a word to the trie, without id and with weight 0 if it is new. The word is appended once to the text arena
+     * and every label created for it is a range of that copy.
+     * 
+     * @param word the word to add
+     * @throws IllegalStateException if the trie is frozen
+     */
+    protected synchronized void addWord(String word)
     {
+        insert(word, -1, 0, false);
+    }
+
+    /**
+     * Adds a word with the id and weight complete returns it with. Adding a word again replaces its id and weight.
+     * 
+     * @param word the word to add
+     * @param id the id of the word, for example its line in the dictionary
+     * @param weight the rank of the word among the completions of its prefixes, higher first
+     * @throws IllegalStateException if the trie is frozen
+     */
+    public synchronized void addWord(String word, int id, float weight)
+    {
+        insert(word, id, weight, true);
+    }
+
+    private void insert(String word, int id, float weight, boolean weighted)
+    {
+        if (frozen)
+        {
+            throw new IllegalStateException("The trie is frozen");
+        }
+        int wordStart = arena.append(word);
+        int wordEnd = arena.length();
+        if (wordEnd == wordStart)
+        {
+            return;
+        }
+        // the edges walked down to the end of the word, and the nodes they start from
+        IntList path = new IntList();
+        IntList parents = new IntList();
         int nodeIdx = root;
-        for (int j = 0; j < word.length();)
+        for (int j = wordStart; j < wordEnd;)
         {
-            int edgeIdx = node(nodeIdx).getEdge(word.charAt(j));
+            char ch = arena.charAt(j);
+            int edgeIdx = node(nodeIdx).getEdge(ch);
+            parents.add(nodeIdx);
             if (edgeIdx == -1) // create edge
             {
-                int newEdgeIdx = createEdge(word.substring(j), -1);
-                node(nodeIdx).addEdge(word.charAt(j), newEdgeIdx);
+                int newEdgeIdx = createEdge(j, wordEnd, -1);
+                node(nodeIdx).addEdge(ch, newEdgeIdx);
+                path.add(newEdgeIdx);
+                setWord(path, parents, wordStart, wordEnd, id, weight, weighted);
                 return;
             }
             else
             // match through edge
             {
-                String lable = edge(edgeIdx).getLabel();
-                for (int i = 0; i < lable.length(); i++)
+                int lableStart = edge(edgeIdx).getStart();
+                int lableEnd = edge(edgeIdx).getEnd();
+                for (int i = lableStart; i < lableEnd; i++)
                 {
-                    if (j >= word.length()) // the end
+                    if (j >= wordEnd) // the end
                     {
-                        int midNode = split(nodeIdx, edgeIdx, i);
+                        int midNode = split(nodeIdx, edgeIdx, i - lableStart);
                         node(midNode).setIsWord(true);
+                        path.add(node(nodeIdx).getEdge(ch));
+                        setWord(path, parents, wordStart, wordEnd, id, weight, weighted);
                         return;
                     }
                     else
                     {
-                        if (word.charAt(j) == lable.charAt(i)) // next character
+                        if (arena.charAt(j) == arena.charAt(i)) // next character
                         {
                             j++;
                         }
                         else
                         // split edge
                         {
-                            String lastWord = word.substring(j);
-                            int splitNode = split(nodeIdx, edgeIdx, i);
+                            int splitNode = split(nodeIdx, edgeIdx, i - lableStart);
+                            path.add(node(nodeIdx).getEdge(ch));
                             // add new branch edge
-                            int branchEdge = createEdge(lastWord, -1);
-                            node(splitNode).addEdge(lastWord.charAt(0), branchEdge);
+                            int branchEdge = createEdge(j, wordEnd, -1);
+                            node(splitNode).addEdge(arena.charAt(j), branchEdge);
+                            parents.add(splitNode);
+                            path.add(branchEdge);
+                            setWord(path, parents, wordStart, wordEnd, id, weight, weighted);
                             return;
                         }
                     }
                 }
 
+                path.add(edgeIdx);
                 nodeIdx = edge(edgeIdx).getDest(); // go to next node
                 if (nodeIdx == -1)
                 {
@@ -206,6 +264,77 @@ public class TrieTree
                 }
             }
         }
+        // the word ends at an existing node
+        node(nodeIdx).setIsWord(true);
+        setWord(path, parents, wordStart, wordEnd, id, weight, weighted);
+    }
+
+    /**
+     * Records the word ending at the end of the last edge of path, and updates the max weights of the edges above it
+     */
+    private void setWord(IntList path, IntList parents, int wordStart, int wordEnd, int id, float weight,
+            boolean weighted)
+    {
+        TrieEdge last = edge(path.last());
+        int word = last.getWord();
+        float old = Float.NEGATIVE_INFINITY;
+        if (word == -1)
+        {
+            word = wordIds.size();
+            wordIds.add(id);
+            wordStarts.add(wordStart);
+            wordEnds.add(wordEnd);
+            if (word == weights.length)
+            {
+                weights = Arrays.copyOf(weights, Math.max(16, word * 2));
+            }
+            weights[word] = weight;
+            last.setWord(word);
+        }
+        else if (weighted)
+        {
+            old = weights[word];
+            wordIds.set(word, id);
+            weights[word] = weight;
+        }
+        else
+        {
+            return;
+        }
+
+        if (weight >= old)
+        {
+            for (int i = 0; i < path.size(); i++)
+            {
+                TrieEdge edge = edge(path.get(i));
+                if (edge.getMaxWeight() < weight)
+                {
+                    edge.setMaxWeight(weight);
+                    node(parents.get(i)).setChildrenByWeight(null);
+                }
+            }
+            return;
+        }
+        // a lower weight, the max of every edge above is computed again from its children
+        for (int i = path.size() - 1; i >= 0; i--)
+        {
+            TrieEdge edge = edge(path.get(i));
+            float max = edge.getWord() == -1 ? Float.NEGATIVE_INFINITY : weights[edge.getWord()];
+            if (edge.getDest() != -1)
+            {
+                CharIntMap children = node(edge.getDest()).getEdges();
+                for (int c = 0; c < children.size(); c++)
+                {
+                    max = Math.max(max, edge(children.valueAt(c)).getMaxWeight());
+                }
+            }
+            if (max == edge.getMaxWeight())
+            {
+                break;
+            }
+            edge.setMaxWeight(max);
+            node(parents.get(i)).setChildrenByWeight(null);
+        }
     }
 
     private int split(int nodeIdx, int edgeIdx, int posInLabe)
@@ -215,32 +344,58 @@ public class TrieTree
             return nodeIdx;// do not need to split
         }
 
-        String orgLable = edge(edgeIdx).getLabel();
-
-        String newLable = orgLable.substring(0, posInLabe);
+        int orgStart = edge(edgeIdx).getStart();
 
-        String lastLable = orgLable.substring(posInLabe);
+        int lastStart = orgStart + posInLabe;
 
         // set top cut edge
         int midNode = createNode();
 
-        int topCutEdge = createEdge(newLable, midNode);
-        
-        node(nodeIdx).addEdge(newLable.charAt(0), topCutEdge);
+        int topCutEdge = createEdge(orgStart, lastStart, midNode);
+        edge(topCutEdge).setMaxWeight(edge(edgeIdx).getMaxWeight());
+
+        node(nodeIdx).addEdge(arena.charAt(orgStart), topCutEdge);
 
         // set bottom cut edge
-        edge(edgeIdx).setLabel(lastLable);
+        edge(edgeIdx).setStart(lastStart);
 
-        node(midNode).addEdge(lastLable.charAt(0), edgeIdx);
+        node(midNode).addEdge(arena.charAt(lastStart), edgeIdx);
 
-        // set branch edge
-        // int branchEndNode = createNode(true);
+        return midNode;
+    }
 
-        // int branchEdge = createEdge(lastWord, -1);
-        //
-        // node(midNode).addEdge(lastWord.charAt(0), branchEdge);
+    /**
+     * Stops the trie from taking more words and releases its spare capacity. The children of every node are sorted
+     * for complete.
+     * 
+     * Until then, queries lock the trie so that they can run while words are added. Once frozen they do not lock
+     * anymore: freeze writes a volatile flag that every query reads first, so all the words added before are visible
+     * to any thread that sees the trie as frozen, however the trie was handed to it.
+     * 
+     * @return this trie
+     */
+    public synchronized TrieTree freeze()
+    {
+        nodes.trimToSize();
+        edges.trimToSize();
+        arena.trimToSize();
+        wordIds.trimToSize();
+        wordStarts.trimToSize();
+        wordEnds.trimToSize();
+        weights = Arrays.copyOf(weights, wordIds.size());
+        for (TrieNode node : nodes)
+        {
+            node.getEdges().trimToSize();
+            // complete must not write to a frozen trie
+            childrenByWeight(node);
+        }
+        frozen = true;
+        return this;
+    }
 
-        return midNode;
+    public boolean isFrozen()
+    {
+        return frozen;
     }
 
     /**
@@ -251,67 +406,258 @@ public class TrieTree
      */
     public String match(String word)
     {
-        StringBuffer result = new StringBuffer();
+        if (frozen)
+        {
+            return matchUnlocked(word);
+        }
+        synchronized (this)
+        {
+            return matchUnlocked(word);
+        }
+    }
+
+    private String matchUnlocked(String word)
+    {
         int currentNode = root;
-        int currentEdge = -1;
+        int i = 0;
 
-        for (int i = 0; i < word.length();)
+        while (i < word.length() && currentNode != -1)
         {
-            if (currentNode == -1)
+            int currentEdge = node(currentNode).getEdge(word.charAt(i));
+            if (-1 == currentEdge)
             {
-                return result.toString();
+                break;
             }
-            char ch = word.charAt(i);
-            currentEdge = node(currentNode).getEdge(ch);
-            if (-1 == currentEdge)
+            int j = edge(currentEdge).getStart();
+            int end = edge(currentEdge).getEnd();
+            while (j < end && i < word.length() && word.charAt(i) == arena.charAt(j))
             {
-                return result.toString();
+                i++;
+                j++;
             }
-            else
+            if (j < end)
             {
-                String label = edge(currentEdge).getLabel();
-                for (int j = 0; j < label.length(); j++)
+                break;
+            }
+            currentNode = edge(currentEdge).getDest();
+        }
+
+        return word.substring(0, i);
+    }
+
+    /**
+     * Returns the k words of greatest weight starting with prefix, by decreasing weight. Words of the same weight come
+     * in no particular order.
+     * 
+     * Every edge holds the greatest weight below it, and every node its children sorted by that weight, so the walk is
+     * a best-first search that only opens the best child of a node and the next sibling of an opened edge: it takes
+     * O(k * depth * log(k * depth)) whatever the number of words under prefix.
+     * 
+     * @param prefix the prefix typed so far, the empty one for the k best words
+     * @param k the number of words wanted
+     * @return at most k words
+     */
+    public List<Completion> complete(String prefix, int k)
+    {
+        if (frozen)
+        {
+            return completeUnlocked(prefix, k);
+        }
+        synchronized (this)
+        {
+            return completeUnlocked(prefix, k);
+        }
+    }
+
+    /**
+     * A word, or an edge with a rank among the children of its parent, in the queue of complete
+     */
+    private static final class Candidate
+    {
+        private final float weight;
+
+        private final int word;
+
+        private final int edge;
+
+        private final TrieNode parent;
+
+        private final int rank;
+
+        Candidate(float weight, int word, int edge, TrieNode parent, int rank)
+        {
+            this.weight = weight;
+            this.word = word;
+            this.edge = edge;
+            this.parent = parent;
+            this.rank = rank;
+        }
+    }
+
+    private static final Comparator<Candidate> BY_WEIGHT = new Comparator<Candidate>()
+    {
+        public int compare(Candidate o1, Candidate o2)
+        {
+            int ret = Float.compare(o2.weight, o1.weight);
+            if (ret == 0)
+            {
+                // a word before an edge that can only give words as heavy
+                ret = (o1.word == -1 ? 1 : 0) - (o2.word == -1 ? 1 : 0);
+            }
+            return ret;
+        }
+    };
+
+    private List<Completion> completeUnlocked(String prefix, int k)
+    {
+        List<Completion> ret = new ArrayList<Completion>();
+        if (k <= 0)
+        {
+            return ret;
+        }
+        PriorityQueue<Candidate> queue = new PriorityQueue<Candidate>(16, BY_WEIGHT);
+        if (prefix.isEmpty())
+        {
+            pushChild(queue, node(root), 0);
+        }
+        else
+        {
+            int edgeIdx = getPrefixEdge(prefix);
+            if (edgeIdx == -1)
+            {
+                return ret;
+            }
+            queue.add(new Candidate(edge(edgeIdx).getMaxWeight(), -1, edgeIdx, null, 0));
+        }
+        while (!queue.isEmpty() && ret.size() < k)
+        {
+            Candidate candidate = queue.poll();
+            if (candidate.word != -1)
+            {
+                int word = candidate.word;
+                ret.add(new Completion(arena.substring(wordStarts.get(word), wordEnds.get(word)), wordIds.get(word),
+                        weights[word]));
+                continue;
+            }
+            if (candidate.parent != null)
+            {
+                pushChild(queue, candidate.parent, candidate.rank + 1);
+            }
+            TrieEdge edge = edge(candidate.edge);
+            if (edge.getWord() != -1)
+            {
+                queue.add(new Candidate(weights[edge.getWord()], edge.getWord(), -1, null, 0));
+            }
+            if (edge.getDest() != -1)
+            {
+                pushChild(queue, node(edge.getDest()), 0);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Queues the child of the given rank of a node, if there is one
+     */
+    private void pushChild(PriorityQueue<Candidate> queue, TrieNode node, int rank)
+    {
+        int[] children = childrenByWeight(node);
+        if (rank < children.length)
+        {
+            queue.add(new Candidate(edge(children[rank]).getMaxWeight(), -1, children[rank], node, rank));
+        }
+    }
+
+    /**
+     * Returns the edges of the children of node by decreasing max weight, sorting them if they changed
+     */
+    private int[] childrenByWeight(TrieNode node)
+    {
+        int[] ret = node.getChildrenByWeight();
+        if (ret == null)
+        {
+            CharIntMap children = node.getEdges();
+            // the weights as ints ordered as the floats, next to the edges
+            long[] keys = new long[children.size()];
+            for (int i = 0; i < keys.length; i++)
+            {
+                int bits = Float.floatToIntBits(edge(children.valueAt(i)).getMaxWeight());
+                bits ^= (bits >> 31) & 0x7FFFFFFF;
+                keys[i] = (long) bits << 32 | children.valueAt(i);
+            }
+            Arrays.sort(keys);
+            ret = new int[keys.length];
+            for (int i = 0; i < keys.length; i++)
+            {
+                ret[i] = (int) keys[keys.length - 1 - i];
+            }
+            node.setChildrenByWeight(ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the edge the given non empty prefix ends on, -1 if no word starts with it
+     */
+    private int getPrefixEdge(String prefix)
+    {
+        int nodeIdx = root;
+        int j = 0;
+        while (nodeIdx != -1)
+        {
+            int edgeIdx = node(nodeIdx).getEdge(prefix.charAt(j));
+            if (edgeIdx == -1)
+            {
+                return -1;
+            }
+            TrieEdge edge = edge(edgeIdx);
+            for (int i = edge.getStart(); i < edge.getEnd() && j < prefix.length(); i++, j++)
+            {
+                if (prefix.charAt(j) != arena.charAt(i))
                 {
-                    if (i >= word.length())
-                    {
-                        return result.toString();
-                    }
-                    else if (word.charAt(i) == label.charAt(j))
-                    {
-                        result.append(label.charAt(j));
-                        i++;
-                    }
-                    else
-                    {
-                        return result.toString();
-                    }
+                    return -1;
                 }
-                currentNode = edge(currentEdge).getDest();
             }
+            if (j == prefix.length())
+            {
+                return edgeIdx;
+            }
+            nodeIdx = edge.getDest();
         }
-
-        return result.toString();
+        return -1;
     }
 
     public boolean containsWord(String argString)
     {
-        int node = getNode(argString);
-        return node == -1 || (node > 0 && node(node).isWord());
+        return getNode(argString) == -1;
     }
 
     public boolean containsPrefix(String argString)
     {
         int node = getNode(argString);
-        return node > 0 || node == -3 || node == -1;
+        return node == -3 || node == -1;
     }
 
     /**
-     * -2 not matched, -3 matched partial, -1 word node
+     * -2 not matched, -3 matched partial, -1 word node, 0 the empty word. The node is read under the lock of an
+     * unfrozen trie, so no node index is returned.
      * 
      * @param word
      * @return
      */
     private int getNode(String word)
+    {
+        if (frozen)
+        {
+            return getNodeUnlocked(word);
+        }
+        synchronized (this)
+        {
+            return getNodeUnlocked(word);
+        }
+    }
+
+    private int getNodeUnlocked(String word)
     {
         int nodeIdx = root;
         for (int j = 0; j < word.length();)
@@ -328,8 +674,8 @@ public class TrieTree
             else
             // match through edge
             {
-                String lable = edge(edgeIdx).getLabel();
-                for (int i = 0; i < lable.length(); i++)
+                int lableEnd = edge(edgeIdx).getEnd();
+                for (int i = edge(edgeIdx).getStart(); i < lableEnd; i++)
                 {
                     if (j >= word.length()) // the end
                     {
@@ -337,7 +683,7 @@ public class TrieTree
                     }
                     else
                     {
-                        if (word.charAt(j) == lable.charAt(i)) // next character
+                        if (word.charAt(j) == arena.charAt(i)) // next character
                         {
                             j++;
                         }
@@ -350,38 +696,62 @@ public class TrieTree
             }
             nodeIdx = edge(edgeIdx).getDest();
         }
+        if (nodeIdx > 0)
+        {
+            return node(nodeIdx).isWord() ? -1 : -3;
+        }
         return nodeIdx;
     }
 
-    protected static TrieNode node(int index)
+    int getRoot()
+    {
+        return root;
+    }
+
+    TextArena getArena()
+    {
+        return arena;
+    }
+
+    protected TrieNode node(int index)
     {
         return nodes.get(index);
     }
 
-    protected static TrieEdge edge(int index)
+    protected TrieEdge edge(int index)
     {
         return edges.get(index);
     }
 
-    protected static int createEdge(String lable, int dest)
+    protected int createEdge(int start, int end, int dest)
     {
-        edges.add(new TrieEdge(lable, dest));
+        edges.add(new TrieEdge(start, end, dest));
         return edges.size() - 1;
     }
 
-    protected static int createNode()
+    protected int createNode()
     {
         nodes.add(new TrieNode());
         return nodes.size() - 1;
     }
 
-    protected static int createNode(boolean isWord)
+    protected int createNode(boolean isWord)
     {
         nodes.add(new TrieNode(isWord));
         return nodes.size() - 1;
     }
 
-    public void print()
+    public int getNodeNum()
+    {
+        return nodes.size();
+    }
+
+    public int getEdgeNum()
+    {
+        return edges.size();
+    }
+
+    public synchronized void print()
     {
         for (int i = 0; i < nodes.size(); i++)
         {
@@ -389,10 +759,11 @@ public class TrieTree
             {
                 System.out.println("@" + i + " -- ");
 
-                for (char ch : node(i).getEdges().keySet())
+                CharIntMap children = node(i).getEdges();
+                for (int j = 0; j < children.size(); j++)
                 {
-                    TrieEdge edge = edge(node(i).getEdges().get(ch));
-                    System.out.println("  " + edge.getLabel() + "\t" + edge.getDest());
+                    TrieEdge edge = edge(children.valueAt(j));
+                    System.out.println("  " + arena.substring(edge.getStart(), edge.getEnd()) + "\t" + edge.getDest());
                 }
             }
         }
@@ -404,7 +775,7 @@ public class TrieTree
     // return nodes.size() - 1;
     // }
 
-    public static void main(String[] args)
+    public static void main(String[] args) throws IOException
     {
         // TrieTree tree = new TrieTree();
         // tree.addWord("五道口");
@@ -417,7 +788,7 @@ public class TrieTree
         TrieTree tree = new TrieTree("data/poi2.txt");
 
         tree.print();
-        System.out.println("Nodes : " + TrieTree.nodes.size());
+        System.out.println("Nodes : " + tree.getNodeNum());
 
         System.out.println(tree.containsPrefix("杭州湾环线高速公路"));
     }
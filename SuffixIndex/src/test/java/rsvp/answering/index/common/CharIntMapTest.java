@@ -0,0 +1,86 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.common;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class CharIntMapTest extends TestCase
+{
+
+    public void testAllLayouts()
+    {
+        Random random = new Random(42);
+        // small fan-out stays sorted, medium is hashed, large goes direct
+        for (int n : new int[]
+        { 5, CharIntMap.SORTED_MAX + 1, 300, CharIntMap.HASHED_MAX + 500 })
+        {
+            CharIntMap map = new CharIntMap();
+            Map<Character, Integer> expect = new HashMap<Character, Integer>();
+            while (expect.size() < n)
+            {
+                // CJK range, like the root of a tree built from POI names
+                char ch = (char) (0x4E00 + random.nextInt(20000));
+                int value = random.nextInt(1000000);
+                map.put(ch, value);
+                expect.put(ch, value);
+            }
+            assertSame(map, expect);
+
+            for (int i = 0; i < n / 2; i++)
+            {
+                char ch = map.keyAt(random.nextInt(map.size()));
+                map.remove(ch);
+                expect.remove(ch);
+            }
+            assertSame(map, expect);
+        }
+    }
+
+    public void testSortedKeys()
+    {
+        CharIntMap map = new CharIntMap();
+        String s = "五道口城铁地铁站西直门东";
+        for (int i = 0; i < s.length(); i++)
+        {
+            map.put(s.charAt(i), i);
+        }
+        char[] keys = map.sortedKeys();
+        for (int i = 1; i < keys.length; i++)
+        {
+            assertTrue(keys[i - 1] < keys[i]);
+        }
+        assertEquals(-1, map.get('北'));
+        assertEquals(2, map.get('口'));
+    }
+
+    private void assertSame(CharIntMap map, Map<Character, Integer> expect)
+    {
+        assertEquals(expect.size(), map.size());
+        for (Map.Entry<Character, Integer> entry : expect.entrySet())
+        {
+            assertEquals(entry.getValue().intValue(), map.get(entry.getKey()));
+        }
+        for (int i = 0; i < map.size(); i++)
+        {
+            assertEquals(expect.get(map.keyAt(i)).intValue(), map.valueAt(i));
+        }
+        assertEquals(-1, map.get('a'));
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.common;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+import rsvp.answering.index.gst.GSuffixTree;
+
+public class DictionaryLoaderTest extends TestCase
+{
+    private final List<File> files = new ArrayList<File>();
+
+    @Override
+    protected void tearDown()
+    {
+        for (File file : files)
+        {
+            file.delete();
+        }
+    }
+
+    private String write(String text, boolean gzip) throws IOException
+    {
+        File file = File.createTempFile("dict", gzip ? ".txt.gz" : ".txt");
+        files.add(file);
+        OutputStream out = new FileOutputStream(file);
+        if (gzip)
+        {
+            out = new GZIPOutputStream(out);
+        }
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+        out.close();
+        return file.getPath();
+    }
+
+    public void testPlainGzipAndSeveralFiles() throws IOException
+    {
+        StringBuilder longLine = new StringBuilder();
+        while (longLine.length() < 70000)
+        {
+            longLine.append("五道口城铁站");
+        }
+        String first = write("\ufeff五道口\r\n  西直门 \n\n" + longLine + "\n东直门", false);
+        String second = write("知春路\n中关村\n", true);
+
+        final List<String> keys = new ArrayList<String>();
+        final List<Integer> batches = new ArrayList<Integer>();
+        DictionaryLoader loader = new DictionaryLoader(2, 1);
+        loader.setProgressListener(new DictionaryLoader.ProgressListener()
+        {
+            public void progress(LoadStats stats)
+            {
+                assertEquals(keys.size(), stats.getLines());
+            }
+        });
+        LoadStats stats = loader.load(new DictionaryLoader.BatchConsumer()
+        {
+            public void accept(String[] batch, int size, int firstIndex)
+            {
+                assertEquals(keys.size(), firstIndex);
+                keys.addAll(Arrays.asList(batch).subList(0, size));
+                batches.add(size);
+            }
+        }, first, second);
+        assertEquals(Arrays.asList("五道口", "西直门", "", longLine.toString(), "东直门", "知春路", "中关村"), keys);
+        assertEquals(Arrays.asList(2, 2, 2, 1), batches);
+        assertEquals(7, stats.getLines());
+        assertEquals(2, stats.getFiles());
+        assertTrue(stats.getBytes() > longLine.length());
+
+        String third = write("五道口城铁\n西直门\n", false);
+        GSuffixTree tree = GSuffixTree.buildTree(second, third);
+        tree.flush();
+        assertEquals(Arrays.asList(2), new ArrayList<Integer>(tree.search("五道口")));
+        assertEquals(Arrays.asList(1), new ArrayList<Integer>(tree.search("中关")));
+        assertEquals(Integer.valueOf(5), Utils.generateHashMap(first, second).get("知春路"));
+    }
+
+    public void testErrors() throws IOException
+    {
+        try
+        {
+            new DictionaryLoader().load(new DictionaryLoader.BatchConsumer()
+            {
+                public void accept(String[] keys, int size, int firstIndex)
+                {
+                }
+            }, write("五道口\n", false), new File(files.get(0).getPath() + ".missing").getPath());
+            fail();
+        }
+        catch (IOException e)
+        {
+            // the second file does not exist
+        }
+
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 10000; i++)
+        {
+            text.append(i).append('\n');
+        }
+        try
+        {
+            // the reader blocked on the full queue must not hang the failing load
+            new DictionaryLoader(10, 1).load(new DictionaryLoader.BatchConsumer()
+            {
+                public void accept(String[] keys, int size, int firstIndex)
+                {
+                    throw new IllegalStateException(keys[0]);
+                }
+            }, write(text.toString(), true));
+            fail();
+        }
+        catch (IllegalStateException e)
+        {
+            assertEquals("0", e.getMessage());
+        }
+    }
+}
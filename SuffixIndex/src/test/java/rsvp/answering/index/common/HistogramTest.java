@@ -0,0 +1,112 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.common;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class HistogramTest extends TestCase
+{
+    public void testBuckets()
+    {
+        for (int i = 0; i < 960; i++)
+        {
+            assertEquals(i, Histogram.bucket(Histogram.lowest(i)));
+            assertEquals(i, Histogram.bucket(Histogram.highest(i)));
+            assertTrue(Histogram.highest(i) - Histogram.lowest(i) <= Histogram.lowest(i) / 16);
+        }
+        assertEquals(959, Histogram.bucket(Long.MAX_VALUE));
+    }
+
+    public void testPercentiles()
+    {
+        Random random = new Random(7);
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        long[] values = new long[10000];
+        long sum = 0;
+        for (int i = 0; i < values.length; i++)
+        {
+            values[i] = (long) (-Math.log(random.nextDouble()) * 100000);
+            histogram.record(values[i]);
+            sum += values[i];
+        }
+        Arrays.sort(values);
+        assertEquals(values.length, histogram.getCount());
+        assertEquals(values[values.length - 1], histogram.getMax());
+        assertEquals((double) sum / values.length, histogram.getMean(), 1e-6);
+        double[] percentiles = { 1, 50, 90, 99, 99.9, 100 };
+        for (double percentile : percentiles)
+        {
+            long expected = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            long actual = histogram.getValueAtPercentile(percentile);
+            assertTrue(actual >= expected);
+            assertTrue(actual <= expected + expected / 16 + 1);
+        }
+        assertEquals(values.length, histogram.getCountBetween(0, Long.MAX_VALUE));
+
+        histogram.record(-5);
+        assertEquals(countZeros(values) + 1, histogram.getCountBetween(0, 0));
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getCountBetween(0, Long.MAX_VALUE));
+    }
+
+    private static int countZeros(long[] values)
+    {
+        int ret = 0;
+        for (long value : values)
+        {
+            if (value == 0)
+            {
+                ret++;
+            }
+        }
+        return ret;
+    }
+
+    public void testConcurrentRecords() throws InterruptedException
+    {
+        final Histogram histogram = new Histogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++)
+        {
+            final int offset = t;
+            threads[t] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for (int i = 0; i < 100000; i++)
+                    {
+                        histogram.record(i % 1000 + offset);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+        assertEquals(400000, histogram.getCount());
+        assertEquals(1002, histogram.getMax());
+        assertEquals(400000, histogram.getCountBetween(0, 1002));
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.common;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+public class PostingListTest extends TestCase
+{
+
+    public void testSmallSetIsArray()
+    {
+        int[] ids = new int[]
+        { 1, 5, 9, 300000 };
+        PostingList list = PostingList.of(ids, 0, ids.length);
+        assertEquals(PostingList.ARRAY, list.encoding());
+        check(ids, list);
+    }
+
+    public void testSparseSetIsVarInt()
+    {
+        int[] ids = randomIds(5000, 200000);
+        PostingList list = PostingList.of(ids, 0, ids.length);
+        assertEquals(PostingList.VARINT, list.encoding());
+        assertTrue(list.sizeInBytes() < 4L * ids.length);
+        check(ids, list);
+    }
+
+    public void testDenseSetIsBitmap()
+    {
+        // mostly dense, with a sparse tail to get both kinds of containers
+        int[] dense = randomIds(150000, 200000);
+        int[] sparse = randomIds(100, 1 << 24);
+        TreeSet<Integer> all = new TreeSet<Integer>();
+        for (int id : dense)
+        {
+            all.add(id);
+        }
+        for (int id : sparse)
+        {
+            all.add(id + 200000);
+        }
+        int[] ids = new int[all.size()];
+        int i = 0;
+        for (int id : all)
+        {
+            ids[i++] = id;
+        }
+        PostingList list = PostingList.of(ids, 0, ids.length);
+        assertEquals(PostingList.BITMAP, list.encoding());
+        assertTrue(list.sizeInBytes() < 4L * ids.length);
+        check(ids, list);
+    }
+
+    public void testEmpty()
+    {
+        PostingList list = PostingList.of(new int[0], 0, 0);
+        assertTrue(list.isEmpty());
+        assertFalse(list.contains(0));
+        assertFalse(list.intIterator().hasNext());
+    }
+
+    private int[] randomIds(int n, int bound)
+    {
+        Random random = new Random(n);
+        TreeSet<Integer> set = new TreeSet<Integer>();
+        while (set.size() < n)
+        {
+            set.add(random.nextInt(bound));
+        }
+        int[] ids = new int[n];
+        int i = 0;
+        for (int id : set)
+        {
+            ids[i++] = id;
+        }
+        return ids;
+    }
+
+    private void check(int[] ids, PostingList list)
+    {
+        assertEquals(ids.length, list.size());
+        assertTrue(Arrays.equals(ids, list.toIntArray()));
+        int i = 0;
+        for (int id : list)
+        {
+            assertEquals(ids[i++], id);
+        }
+        for (int id : ids)
+        {
+            assertTrue(list.contains(id));
+            assertEquals(Arrays.binarySearch(ids, id + 1) >= 0, list.contains(id + 1));
+        }
+        assertFalse(list.contains(-1));
+        assertFalse(list.contains(Integer.valueOf(ids[ids.length - 1] + 1)));
+        assertTrue(list.sameIds(PostingList.of(ids, 0, ids.length)));
+    }
+}
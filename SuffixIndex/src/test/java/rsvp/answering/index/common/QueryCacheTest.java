@@ -0,0 +1,141 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.common;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+public class QueryCacheTest extends TestCase
+{
+    public void testAdmission()
+    {
+        QueryCache<String, String> cache = new QueryCache<String, String>(1000, 1024);
+        for (int i = 0; i < 10; i++)
+        {
+            assertNull(cache.get("hot" + i, 0));
+            assertTrue(cache.put("hot" + i, "v" + i, 100, 0));
+            cache.get("hot" + i, 0);
+            cache.get("hot" + i, 0);
+        }
+        assertEquals(1000, cache.getStats().getBytes());
+
+        // one-off queries do not push the hot ones out
+        for (int i = 0; i < 100; i++)
+        {
+            assertNull(cache.get("cold" + i, 0));
+            assertFalse(cache.put("cold" + i, "c" + i, 100, 0));
+        }
+        for (int i = 0; i < 10; i++)
+        {
+            assertEquals("v" + i, cache.get("hot" + i, 0));
+        }
+
+        // a query getting popular evicts the least recently used ones, as many as it needs
+        for (int i = 0; i < 5; i++)
+        {
+            cache.get("warm", 0);
+        }
+        assertTrue(cache.put("warm", "w", 250, 0));
+        assertNull(cache.get("hot0", 0));
+        assertNull(cache.get("hot1", 0));
+        assertNull(cache.get("hot2", 0));
+        assertEquals("v3", cache.get("hot3", 0));
+        assertEquals("w", cache.get("warm", 0));
+        assertFalse(cache.put("huge", "h", 1001, 0));
+
+        CacheStats stats = cache.getStats();
+        assertEquals(8, stats.getEntries());
+        assertEquals(950, stats.getBytes());
+        assertEquals(3, stats.getEvictions());
+        assertEquals(101, stats.getRejections());
+        assertEquals(10 + 100 + 5 + 3, stats.getMisses());
+        assertEquals(20 + 10 + 2, stats.getHits());
+    }
+
+    public void testVersions()
+    {
+        QueryCache<String, String> cache = new QueryCache<String, String>(1000, 64);
+        cache.get("a", 1);
+        assertTrue(cache.put("a", "1", 10, 1));
+        assertEquals("1", cache.get("a", 1));
+
+        // the source changed
+        assertNull(cache.get("a", 2));
+        assertEquals(1, cache.getStats().getInvalidations());
+        // computed before the change
+        assertFalse(cache.put("a", "1", 10, 1));
+        assertNull(cache.get("a", 2));
+        assertTrue(cache.put("a", "2", 10, 2));
+        assertEquals("2", cache.get("a", 2));
+        assertEquals(0.4, cache.getStats().getHitRate(), 1e-9);
+    }
+
+    /**
+     * Lookups from several threads, while one of them offers values, only see the values of their keys and are all
+     * counted
+     */
+    public void testConcurrentLookups() throws InterruptedException
+    {
+        final QueryCache<Integer, String> cache = new QueryCache<Integer, String>(50 * 16, 64);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final int lookups = 20000;
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++)
+        {
+            final int seed = t;
+            threads[t] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for (int i = 0; i < lookups; i++)
+                        {
+                            // skewed towards the small keys
+                            int key = (i * 31 + seed) % 100 % (1 + i % 100);
+                            String value = cache.get(key, 0);
+                            if (value == null)
+                            {
+                                cache.put(key, "v" + key, 16, 0);
+                            }
+                            else if (!value.equals("v" + key))
+                            {
+                                throw new AssertionError(key + " : " + value);
+                            }
+                        }
+                    }
+                    catch (Throwable e)
+                    {
+                        failure.set(e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+        assertNull(failure.get());
+        CacheStats stats = cache.getStats();
+        assertEquals(threads.length * lookups, stats.getHits() + stats.getMisses());
+        assertTrue(stats.getBytes() <= 50 * 16);
+        assertEquals(16L * stats.getEntries(), stats.getBytes());
+        assertTrue(stats.getHitRate() > 0.5);
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.gst;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class CachedSuffixIndexTest extends TestCase
+{
+    public void testSameAsTree()
+    {
+        Random random = new Random(23);
+        GSuffixTree tree = new GSuffixTree();
+        GSuffixTree expected = new GSuffixTree();
+        int n = 0;
+        for (; n < 2000; n++)
+        {
+            String key = randomWord(random, 1 + random.nextInt(8));
+            tree.addWord(key, n);
+            expected.addWord(key, n);
+        }
+        tree.flush();
+        expected.flush();
+
+        CachedSuffixIndex index = new CachedSuffixIndex(tree, 1 << 16);
+        String[] queries = { "a", "ab", "ba", "abc", "cab", "x", "ca", "bb" };
+        for (int round = 0; round < 6; round++)
+        {
+            for (int i = 0; i < 50; i++)
+            {
+                // skewed: the first queries come back far more often
+                String query = queries[Math.min(queries.length - 1, (int) (-Math.log(random.nextDouble()) * 1.5))];
+                check(expected, index, query);
+            }
+            // every change of the tree drops the cached results
+            if (round == 2)
+            {
+                tree.addWord("abcabc", n);
+                expected.addWord("abcabc", n++);
+                tree.flush();
+                expected.flush();
+            }
+            else if (round == 4)
+            {
+                for (int i = 0; i < 300; i += 3)
+                {
+                    assertTrue(index.remove(i));
+                    expected.remove(i);
+                }
+            }
+        }
+        assertEquals(2, index.getStats().getInvalidations());
+        assertTrue(index.getStats().getHitRate() > 0.5);
+        assertTrue(index.getStats().getBytes() <= 1 << 16);
+
+        // a bound too small for the results, only the counts fit
+        CachedSuffixIndex small = new CachedSuffixIndex(tree, 128);
+        for (int i = 0; i < 20; i++)
+        {
+            check(expected, small, "a");
+        }
+        assertEquals(19, small.getStats().getHits());
+        assertEquals(40, small.getStats().getRejections());
+    }
+
+    private static void check(GSuffixTree expected, CachedSuffixIndex index, String query)
+    {
+        assertEquals(list(expected.search(query)), list(index.search(query)));
+        assertEquals(expected.count(query), index.count(query));
+        SubstringMatch match = expected.longestSubstring(query + "z");
+        SubstringMatch actual = index.longestSubstring(query + "z");
+        assertEquals(match == null, actual == null);
+        if (match != null)
+        {
+            assertEquals(match.getStart(), actual.getStart());
+            assertEquals(match.getEnd(), actual.getEnd());
+            assertEquals(list(match.getResults()), list(actual.getResults()));
+        }
+    }
+
+    private static List<Integer> list(Collection<Integer> results)
+    {
+        return results == null ? null : new ArrayList<Integer>(results);
+    }
+
+    private static String randomWord(Random random, int length)
+    {
+        StringBuilder ret = new StringBuilder();
+        for (int i = 0; i < length; i++)
+        {
+            ret.append((char) ('a' + random.nextInt(3)));
+        }
+        return ret.toString();
+    }
+}
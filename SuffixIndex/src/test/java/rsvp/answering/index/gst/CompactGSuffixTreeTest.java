@@ -0,0 +1,85 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.gst;
+
+import static rsvp.answering.index.common.Utils.getSubstrings;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+
+import junit.framework.TestCase;
+
+public class CompactGSuffixTreeTest extends TestCase
+{
+    private static final String[] WORDS = new String[]
+    { "五道口", "五道口城铁", "五道口地铁站", "西直门", "东直门", "cacao", "banana", "bano", "ba", "cacacato" };
+
+    public void testSameAsSource()
+    {
+        GSuffixTree tree = new GSuffixTree();
+        for (int i = 0; i < WORDS.length; i++)
+        {
+            tree.addWord(WORDS[i], i);
+        }
+        tree.flush();
+        CompactGSuffixTree compact = new CompactGSuffixTree(tree);
+
+        assertEquals(tree.nodes.size(), compact.getNodeNum());
+        assertEquals(tree.edges.size(), compact.getEdgeNum());
+        for (int i = 0; i < WORDS.length; i++)
+        {
+            for (String s : getSubstrings(WORDS[i]))
+            {
+                Collection<Integer> expect = tree.search(s);
+                Collection<Integer> actual = compact.search(s);
+                assertNotNull("result null for string " + s, actual);
+                assertTrue(actual.contains(i));
+                assertEquals(new HashSet<Integer>(expect), new HashSet<Integer>(actual));
+                assertEquals(s, compact.match(s));
+            }
+        }
+        assertNull(compact.search("aoca"));
+        assertNull(compact.search("五道口城站"));
+        assertEquals("五道口", compact.match("五道口附近"));
+        assertEquals("", compact.match("附近"));
+    }
+
+    public void testFromFlushRanges()
+    {
+        GSuffixTree materialized = new GSuffixTree();
+        GSuffixTree lazy = new GSuffixTree();
+        for (int i = 0; i < WORDS.length; i++)
+        {
+            materialized.addWord(WORDS[i], i);
+            lazy.addWord(WORDS[i], i);
+        }
+        materialized.flush();
+        lazy.flushRanges();
+        CompactGSuffixTree compact = new CompactGSuffixTree(lazy);
+
+        // the ids of all the keys below a node, not only its own, sorted as after flush
+        assertEquals(Arrays.asList(5, 6, 7, 8, 9), new ArrayList<Integer>(compact.search("a")));
+        for (int i = 0; i < WORDS.length; i++)
+        {
+            for (String s : getSubstrings(WORDS[i]))
+            {
+                assertEquals(new ArrayList<Integer>(materialized.search(s)), new ArrayList<Integer>(compact.search(s)));
+            }
+        }
+    }
+}
@@ -0,0 +1,293 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.gst;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+public class ConcurrentSuffixIndexTest extends TestCase
+{
+    public void testSameAsSingleTree()
+    {
+        Random random = new Random(23);
+        ConcurrentSuffixIndex index = new ConcurrentSuffixIndex();
+        assertNull(index.search("a"));
+        assertEquals(0, index.count("a"));
+
+        GSuffixTree tree = new GSuffixTree();
+        List<String> keys = new ArrayList<String>();
+        float[] scores = new float[2000];
+        for (int i = 0; i < scores.length; i++)
+        {
+            scores[i] = random.nextInt(50);
+        }
+        for (int batch = 1; batch <= 20; batch++)
+        {
+            int size = 1 + random.nextInt(200);
+            for (int i = 0; i < size && keys.size() < scores.length; i++)
+            {
+                String key = randomWord(random, 1 + random.nextInt(10));
+                index.addWord(key, keys.size());
+                keys.add(key);
+            }
+            // not visible before the commit
+            assertEquals(batch - 1, index.snapshot().getVersion());
+            ConcurrentSuffixIndex.Snapshot snapshot = index.commit();
+            assertSame(snapshot, index.snapshot());
+            assertEquals(batch, snapshot.getVersion());
+            assertEquals(keys.size(), snapshot.getKeyNum());
+            assertTrue(snapshot.getSegmentNum() <= 1 + 2 * Math.log(keys.size()) / Math.log(2));
+        }
+        assertSame(index.snapshot(), index.commit());
+
+        for (int i = 0; i < keys.size(); i++)
+        {
+            tree.addWord(keys.get(i), i);
+        }
+        tree.flush();
+        for (int q = 0; q < 100; q++)
+        {
+            String query = randomWord(random, 1 + random.nextInt(6));
+            Collection<Integer> expected = tree.search(query);
+            Collection<Integer> actual = index.search(query);
+            if (expected == null)
+            {
+                assertNull(actual);
+            }
+            else
+            {
+                assertEquals(new ArrayList<Integer>(expected), new ArrayList<Integer>(actual));
+            }
+            assertEquals(tree.count(query), index.count(query));
+            assertTrue(Arrays.equals(tree.searchTopK(query, 5, scores), index.searchTopK(query, 5, scores)));
+
+            String text = randomWord(random, random.nextInt(20)) + "d";
+            SubstringMatch expectedMatch = tree.longestSubstring(text);
+            SubstringMatch actualMatch = index.longestSubstring(text);
+            if (expectedMatch == null)
+            {
+                assertNull(actualMatch);
+            }
+            else
+            {
+                assertEquals(expectedMatch.getStart(), actualMatch.getStart());
+                assertEquals(expectedMatch.getEnd(), actualMatch.getEnd());
+                assertEquals(new ArrayList<Integer>(expectedMatch.getResults()),
+                        new ArrayList<Integer>(actualMatch.getResults()));
+            }
+        }
+    }
+
+    public void testSameIndexInSeveralSegments()
+    {
+        ConcurrentSuffixIndex index = new ConcurrentSuffixIndex();
+        index.addWord("西直门", 1);
+        index.addWord("五道口城铁", 2);
+        index.addWord("东直门", 3);
+        index.commit();
+        index.addWord("五道口", 3);
+        index.commit();
+        assertEquals(2, index.snapshot().getSegmentNum());
+        assertEquals(Arrays.asList(2, 3), new ArrayList<Integer>(index.search("五道口")));
+        assertEquals(2, index.count("五道口"));
+        assertEquals(Arrays.asList(1, 3), new ArrayList<Integer>(index.search("门")));
+        try
+        {
+            index.addWord("西直门", 2);
+            fail();
+        }
+        catch (IllegalStateException e)
+        {
+        }
+    }
+
+    public void testRemove() throws InterruptedException
+    {
+        ExecutorService compactor = Executors.newSingleThreadExecutor();
+        try
+        {
+            ConcurrentSuffixIndex[] indexes = new ConcurrentSuffixIndex[]
+            { new ConcurrentSuffixIndex(), new ConcurrentSuffixIndex(compactor, 0.2f) };
+            for (ConcurrentSuffixIndex index : indexes)
+            {
+                Random random = new Random(29);
+                List<String> keys = new ArrayList<String>();
+                Set<Integer> removed = new HashSet<Integer>();
+                float[] scores = new float[3000];
+                for (int i = 0; i < scores.length; i++)
+                {
+                    scores[i] = random.nextInt(50);
+                }
+                for (int batch = 0; batch < 20; batch++)
+                {
+                    int size = 1 + random.nextInt(150);
+                    for (int i = 0; i < size; i++)
+                    {
+                        String key = randomWord(random, 1 + random.nextInt(10));
+                        index.addWord(key, keys.size());
+                        keys.add(key);
+                    }
+                    for (int i = 0; i < size / 3; i++)
+                    {
+                        int id = random.nextInt(keys.size());
+                        assertEquals(removed.add(id), index.remove(id));
+                    }
+                    index.commit();
+                    while (index.isCompacting())
+                    {
+                        Thread.sleep(1);
+                    }
+                    check(index, keys, removed, scores, random);
+                }
+                // an id can be removed before it is added, and then cannot be added
+                assertTrue(index.remove(keys.size()));
+                try
+                {
+                    index.addWord("abc", keys.size());
+                    fail();
+                }
+                catch (IllegalStateException e)
+                {
+                }
+                try
+                {
+                    index.remove(-1);
+                    fail();
+                }
+                catch (IllegalArgumentException e)
+                {
+                }
+
+                ConcurrentSuffixIndex.Snapshot snapshot = index.compact();
+                assertEquals(0, snapshot.getDeadKeyNum());
+                assertEquals(keys.size() - removed.size(), snapshot.getKeyNum());
+                check(index, keys, removed, scores, random);
+            }
+        }
+        finally
+        {
+            compactor.shutdown();
+        }
+    }
+
+    private static void check(ConcurrentSuffixIndex index, List<String> keys, Set<Integer> removed, float[] scores,
+            Random random)
+    {
+        GSuffixTree tree = new GSuffixTree();
+        for (int i = 0; i < keys.size(); i++)
+        {
+            if (!removed.contains(i))
+            {
+                tree.addWord(keys.get(i), i);
+            }
+        }
+        tree.flush();
+        assertEquals(keys.size() - removed.size(), index.snapshot().getKeyNum());
+        for (int q = 0; q < 20; q++)
+        {
+            String query = randomWord(random, 1 + random.nextInt(5));
+            Collection<Integer> expected = tree.search(query);
+            Collection<Integer> actual = index.search(query);
+            assertEquals(expected == null ? new ArrayList<Integer>() : new ArrayList<Integer>(expected),
+                    actual == null ? new ArrayList<Integer>() : new ArrayList<Integer>(actual));
+            assertEquals(expected == null ? 0 : expected.size(), actual == null ? 0 : actual.size());
+            assertEquals(tree.count(query), index.count(query));
+            assertTrue(Arrays.equals(tree.searchTopK(query, 5, scores), index.searchTopK(query, 5, scores)));
+
+            // a span only removed keys contain is not a match
+            String text = randomWord(random, random.nextInt(20)) + "d";
+            assertEquals(String.valueOf(tree.longestSubstring(text)), String.valueOf(index.longestSubstring(text)));
+        }
+    }
+
+    /**
+     * Readers searching while a writer commits always see all the keys of the snapshot they read
+     */
+    public void testConcurrentReads() throws InterruptedException
+    {
+        final ConcurrentSuffixIndex index = new ConcurrentSuffixIndex();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final int batches = 200;
+        Thread[] readers = new Thread[3];
+        for (int r = 0; r < readers.length; r++)
+        {
+            readers[r] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        long last = 0;
+                        while (last < batches)
+                        {
+                            ConcurrentSuffixIndex.Snapshot snapshot = index.snapshot();
+                            assertTrue(snapshot.getVersion() >= last);
+                            last = snapshot.getVersion();
+                            // every batch adds one key containing "x"
+                            assertEquals(snapshot.getKeyNum() / 10, snapshot.count("x"));
+                            Collection<Integer> results = snapshot.search("x" + (last - 1) + "y");
+                            assertTrue(last == 0 || results != null && results.contains((int) (last - 1) * 10));
+                        }
+                    }
+                    catch (Throwable e)
+                    {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            };
+            readers[r].start();
+        }
+        int id = 0;
+        for (int batch = 0; batch < batches; batch++)
+        {
+            index.addWord("x" + batch + "y", id++);
+            for (int i = 1; i < 10; i++)
+            {
+                index.addWord("w" + batch + "z" + i, id++);
+            }
+            index.commit();
+        }
+        for (Thread reader : readers)
+        {
+            reader.join();
+        }
+        if (failure.get() != null)
+        {
+            throw new AssertionError(failure.get());
+        }
+    }
+
+    private static String randomWord(Random random, int length)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++)
+        {
+            sb.append((char) ('a' + random.nextInt(3)));
+        }
+        return sb.toString();
+    }
+}
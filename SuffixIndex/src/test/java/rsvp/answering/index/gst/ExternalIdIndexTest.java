@@ -0,0 +1,124 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.gst;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class ExternalIdIndexTest extends TestCase
+{
+    public void testStringIds()
+    {
+        ExternalIdIndex<String> index = new ExternalIdIndex<String>();
+        index.addWord("poi-9", "五道口城铁");
+        index.addWord("poi-1", "西直门");
+        index.addWord("poi-5", "五道口");
+        assertNull(index.search("五道口"));
+        index.commit();
+        assertEquals(Arrays.asList("poi-9", "poi-5"), index.search("五道口"));
+        assertEquals(2, index.count("五道口"));
+        assertNull(index.search("东直门"));
+
+        // a second key for an id already in the index
+        index.addWord("poi-1", "西直门地铁站");
+        index.addWord("poi-3", "东直门");
+        index.commit();
+        assertEquals(Arrays.asList("poi-1", "poi-3"), index.search("直门"));
+        assertEquals(Arrays.asList("poi-1"), index.search("西直门"));
+        assertEquals(1, index.count("西直门"));
+        assertEquals("poi-1", index.getExternalId(index.getInternalId("poi-1")));
+
+        assertTrue(index.remove("poi-1"));
+        assertFalse(index.remove("poi-1"));
+        assertEquals(-1, index.getInternalId("poi-1"));
+        index.commit();
+        assertNull(index.search("西直门"));
+        assertEquals(Arrays.asList("poi-3"), index.search("直门"));
+
+        // and back again
+        index.addWord("poi-1", "西直门");
+        index.compact();
+        assertEquals(Arrays.asList("poi-3", "poi-1"), index.search("直门"));
+    }
+
+    public void testLongIdsInAnyOrder()
+    {
+        Random random = new Random(31);
+        ExternalIdIndex<Long> index = new ExternalIdIndex<Long>();
+        Map<Long, String> keys = new HashMap<Long, String>();
+        List<Long> ids = new ArrayList<Long>();
+        for (int i = 0; i < 2000; i++)
+        {
+            ids.add(random.nextLong());
+        }
+        Collections.shuffle(ids, random);
+        for (int i = 0; i < ids.size(); i++)
+        {
+            StringBuilder key = new StringBuilder();
+            for (int j = 1 + random.nextInt(8); j > 0; j--)
+            {
+                key.append((char) ('a' + random.nextInt(3)));
+            }
+            keys.put(ids.get(i), key.toString());
+            index.addWord(ids.get(i), key.toString());
+            if (i % 300 == 299)
+            {
+                index.commit();
+            }
+        }
+        index.commit();
+
+        for (String query : new String[] { "a", "ab", "cab", "abca", "bbb" })
+        {
+            List<Long> expected = new ArrayList<Long>();
+            for (Long id : ids)
+            {
+                if (keys.get(id).contains(query))
+                {
+                    expected.add(id);
+                }
+            }
+            List<Long> actual = index.search(query);
+            assertEquals(expected, actual == null ? new ArrayList<Long>() : actual);
+            assertEquals(expected.size(), index.count(query));
+        }
+        Set<Long> removed = new HashSet<Long>(ids.subList(0, 500));
+        for (Long id : removed)
+        {
+            assertTrue(index.remove(id));
+        }
+        index.commit();
+        List<Long> expected = new ArrayList<Long>();
+        for (Long id : ids)
+        {
+            if (!removed.contains(id) && keys.get(id).contains("a"))
+            {
+                expected.add(id);
+            }
+        }
+        assertEquals(expected, index.search("a"));
+        assertEquals(expected.size(), index.count("a"));
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.gst;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+public class IndexMetricsTest extends TestCase
+{
+    private static final String[] WORDS = { "北京五道口", "五道口城铁站", "西直门", "北京西站", "五道口",
+            "东直门外" };
+
+    public void testCounters()
+    {
+        GSuffixTree tree = new GSuffixTree();
+        assertNull(tree.getMetrics());
+        tree.addWord("知春路", 0);
+        IndexMetrics metrics = tree.enableMetrics();
+        assertSame(metrics, tree.enableMetrics());
+        int nodeNum = tree.nodes.size();
+        int edgeNum = tree.edges.size();
+        long chars = 0;
+        for (int i = 0; i < WORDS.length; i++)
+        {
+            tree.addWord(WORDS[i], i + 1);
+            chars += WORDS[i].length();
+        }
+        assertEquals(WORDS.length, metrics.getWordsAdded());
+        assertEquals(chars, metrics.getCharsAdded());
+        assertEquals(tree.nodes.size() - nodeNum, metrics.getNodesCreated());
+        assertEquals(tree.edges.size() - edgeNum, metrics.getEdgesCreated());
+        // every split creates a node, the other nodes are leaves
+        assertTrue(metrics.getSplits() > 0);
+        assertTrue(metrics.getSplits() < metrics.getNodesCreated());
+        assertTrue(metrics.getBuildRate() > 0);
+        assertEquals(WORDS.length, metrics.getAddWordLatency().getCount());
+
+        tree.flush();
+        tree.flushRanges();
+        assertEquals(2, metrics.getFlushes());
+        assertTrue(metrics.getLastFlushMillis() > 0);
+
+        for (int i = 0; i < 10; i++)
+        {
+            tree.search("五道口");
+            tree.search("南京");
+        }
+        tree.match("五道口城铁");
+        assertEquals(20, metrics.getSearches());
+        assertEquals(1, metrics.getMatches());
+        assertTrue(metrics.getSearchMaxMicros() >= metrics.getSearchP50Micros());
+        assertTrue(metrics.getSearchP99Micros() > 0);
+        assertEquals(tree.nodes.size(), metrics.getNodeNum());
+        assertEquals(tree.edges.size(), metrics.getEdgeNum());
+
+        metrics.reset();
+        assertEquals(0, metrics.getWordsAdded());
+        assertEquals(0, metrics.getSearches());
+        assertEquals(0.0, metrics.getLastFlushMillis());
+    }
+
+    public void testTreeStats()
+    {
+        GSuffixTree tree = new GSuffixTree();
+        for (int i = 0; i < WORDS.length; i++)
+        {
+            tree.addWord(WORDS[i], i);
+        }
+        TreeStats stats = tree.computeStats();
+        assertEquals(tree.nodes.size(), stats.getNodeNum());
+        assertEquals(tree.edges.size(), stats.getEdgeNum());
+        assertEquals(stats.getNodeNum(), stats.getDepths().getCount());
+        // every node but the root is reached by one edge
+        assertEquals(stats.getEdgeNum(), stats.getNodeNum() - 1);
+        assertEquals(stats.getNodeNum() - stats.getLeafNum(), stats.getFanOuts().getCount());
+        assertEquals(stats.getNodeNum(), stats.getPostingSizes().getCount());
+        assertEquals(0, stats.getPostingBytes());
+        assertTrue(stats.getTextBytes() > 0);
+        assertTrue(stats.getIndexBytes() > 0);
+
+        tree.flush();
+        stats = tree.computeStats();
+        // the root finds all the words
+        assertEquals(WORDS.length, stats.getPostingSizes().getMax());
+        assertTrue(stats.getPostingBytes() > 0);
+        assertEquals(0, stats.getPayloadBytes());
+
+        tree.flushRanges();
+        stats = tree.computeStats();
+        assertEquals(WORDS.length, stats.getPostingSizes().getMax());
+        assertEquals(0, stats.getPostingBytes());
+        assertTrue(stats.getPayloadBytes() > 0);
+        assertEquals(stats.getTextBytes() + stats.getNodeBytes() + stats.getEdgeBytes() + stats.getIndexBytes()
+                + stats.getPayloadBytes(), stats.getTotalBytes());
+    }
+
+    public void testJmx() throws JMException
+    {
+        GSuffixTree tree = new GSuffixTree();
+        for (int i = 0; i < WORDS.length; i++)
+        {
+            tree.addWord(WORDS[i], i);
+        }
+        tree.flush();
+        tree.search("五道口");
+        IndexMetrics metrics = tree.enableMetrics();
+        tree.search("五道口");
+        ObjectName name = metrics.register("test \"tree\"");
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertEquals(1L, server.getAttribute(name, "Searches"));
+            assertEquals(tree.nodes.size(), server.getAttribute(name, "NodeNum"));
+            String stats = (String) server.invoke(name, "computeTreeStats", new Object[0], new String[0]);
+            assertTrue(stats.startsWith("TreeStats [nodes=" + tree.nodes.size()));
+            try
+            {
+                metrics.register("test \"tree\"");
+                fail();
+            }
+            catch (IllegalStateException e)
+            {
+                // already registered
+            }
+        }
+        finally
+        {
+            IndexMetrics.unregister(name);
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+}
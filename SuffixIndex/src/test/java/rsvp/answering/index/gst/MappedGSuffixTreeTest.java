@@ -0,0 +1,134 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.gst;
+
+import static rsvp.answering.index.common.Utils.getSubstrings;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+import junit.framework.TestCase;
+
+public class MappedGSuffixTreeTest extends TestCase
+{
+    private static final String[] WORDS = new String[]
+    { "五道口", "五道口城铁", "五道口地铁站", "西直门", "东直门", "cacao", "banana", "bano", "ba", "cacacato" };
+
+    public void testSameAsSource() throws IOException
+    {
+        GSuffixTree tree = new GSuffixTree();
+        for (int i = 0; i < WORDS.length; i++)
+        {
+            tree.addWord(WORDS[i], i);
+        }
+        tree.flush();
+        CompactGSuffixTree compact = new CompactGSuffixTree(tree);
+        File file = File.createTempFile("gst", ".img");
+        try
+        {
+            MappedGSuffixTree.write(compact, file.getPath());
+            MappedGSuffixTree mapped = new MappedGSuffixTree(file.getPath());
+
+            assertEquals(compact.getNodeNum(), mapped.getNodeNum());
+            assertEquals(compact.getEdgeNum(), mapped.getEdgeNum());
+            for (int n = 0; n < compact.getNodeNum(); n++)
+            {
+                assertEquals(compact.suffix[n], mapped.getSuffix(n));
+            }
+            for (int i = 0; i < WORDS.length; i++)
+            {
+                for (String s : getSubstrings(WORDS[i]))
+                {
+                    Collection<Integer> expect = compact.search(s);
+                    Collection<Integer> actual = mapped.search(s);
+                    assertNotNull("result null for string " + s, actual);
+                    assertTrue(actual.contains(i));
+                    assertFalse(actual.contains(WORDS.length));
+                    // same ids in the same order
+                    assertEquals(new ArrayList<Integer>(expect), new ArrayList<Integer>(actual));
+                    assertEquals(s, mapped.match(s));
+                }
+            }
+            assertNull(mapped.search("aoca"));
+            assertEquals("五道口", mapped.match("五道口附近"));
+            assertEquals("", mapped.match("附近"));
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    public void testFromFlushRanges() throws IOException
+    {
+        GSuffixTree materialized = new GSuffixTree();
+        GSuffixTree lazy = new GSuffixTree();
+        for (int i = 0; i < WORDS.length; i++)
+        {
+            materialized.addWord(WORDS[i], i);
+            lazy.addWord(WORDS[i], i);
+        }
+        materialized.flush();
+        lazy.flushRanges();
+        File file = File.createTempFile("gst", ".img");
+        try
+        {
+            MappedGSuffixTree.write(new CompactGSuffixTree(lazy), file.getPath());
+            MappedGSuffixTree mapped = new MappedGSuffixTree(file.getPath());
+            assertEquals(Arrays.asList(5, 6, 7, 8, 9), new ArrayList<Integer>(mapped.search("a")));
+            for (int i = 0; i < WORDS.length; i++)
+            {
+                for (String s : getSubstrings(WORDS[i]))
+                {
+                    assertEquals(new ArrayList<Integer>(materialized.search(s)),
+                            new ArrayList<Integer>(mapped.search(s)));
+                }
+            }
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    public void testRejectsOtherFiles() throws IOException
+    {
+        File file = File.createTempFile("gst", ".img");
+        try
+        {
+            FileOutputStream out = new FileOutputStream(file);
+            out.write(new byte[64]);
+            out.close();
+            try
+            {
+                new MappedGSuffixTree(file.getPath());
+                fail();
+            }
+            catch (IOException e)
+            {
+                // expected
+            }
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright 2012 Alessandro Bahgat Shehata
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rsvp.answering.index.gst;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+public class ShardedSuffixIndexTest extends TestCase
+{
+    public void testSameAsSingleTree()
+    {
+        Random random = new Random(17);
+        List<String> keys = new ArrayList<String>();
+        for (int i = 0; i < 3000; i++)
+        {
+            keys.add(randomWord(random, 1 + random.nextInt(10)));
+        }
+        keys.add("五道口城铁");
+        keys.add("五道口");
+        float[] scores = new float[keys.size()];
+        for (int i = 0; i < scores.length; i++)
+        {
+            scores[i] = random.nextInt(50);
+        }
+
+        GSuffixTree tree = new GSuffixTree();
+        for (int i = 0; i < keys.size(); i++)
+        {
+            tree.addWord(keys.get(i), i);
+        }
+        tree.flush();
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try
+        {
+            for (int shardNum : new int[] { 1, 4, 7 })
+            {
+                ShardedSuffixIndex index = new ShardedSuffixIndex(keys, shardNum, executor);
+                assertEquals(shardNum, index.getShardNum());
+                assertEquals(0, index.shardOf(0));
+                assertEquals(shardNum - 1, index.shardOf(keys.size() - 1));
+
+                assertEquals(Arrays.asList(keys.size() - 2, keys.size() - 1),
+                        new ArrayList<Integer>(index.search("五道口")));
+                assertNull(index.search("d"));
+                assertEquals(0, index.count("d"));
+
+                for (int q = 0; q < 50; q++)
+                {
+                    String query = randomWord(random, 1 + random.nextInt(6));
+                    Collection<Integer> expected = tree.search(query);
+                    Collection<Integer> actual = index.search(query);
+                    if (expected == null)
+                    {
+                        assertNull(actual);
+                    }
+                    else
+                    {
+                        assertEquals(new ArrayList<Integer>(expected), new ArrayList<Integer>(actual));
+                    }
+                    assertEquals(tree.count(query), index.count(query));
+                    assertTrue(Arrays.equals(tree.searchTopK(query, 5, scores), index.searchTopK(query, 5, scores)));
+
+                    String text = randomWord(random, random.nextInt(20)) + "d";
+                    SubstringMatch expectedMatch = tree.longestSubstring(text);
+                    SubstringMatch actualMatch = index.longestSubstring(text);
+                    if (expectedMatch == null)
+                    {
+                        assertNull(actualMatch);
+                    }
+                    else
+                    {
+                        assertEquals(expectedMatch.getStart(), actualMatch.getStart());
+                        assertEquals(expectedMatch.getEnd(), actualMatch.getEnd());
+                        assertEquals(new ArrayList<Integer>(expectedMatch.getResults()),
+                                new ArrayList<Integer>(actualMatch.getResults()));
+                    }
+                }
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    public void testChangedShards()
+    {
+        Random random = new Random(19);
+        List<String> keys = new ArrayList<String>();
+        for (int i = 0; i < 1000; i++)
+        {
+            keys.add(randomWord(random, 1 + random.nextInt(8)));
+        }
+        // the only key with a d, removed below
+        keys.add("dd");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try
+        {
+            ShardedSuffixIndex index = new ShardedSuffixIndex(keys, 3, executor);
+            // the results of these shards are no longer posting lists
+            index.getShard(0).flushRanges();
+            index.getShard(1).remove(keys.size() / 2);
+            index.getShard(2).flushRanges();
+            index.getShard(2).remove(keys.size() - 1);
+
+            GSuffixTree tree = new GSuffixTree();
+            for (int i = 0; i < keys.size(); i++)
+            {
+                if (i != keys.size() / 2 && i != keys.size() - 1)
+                {
+                    tree.addWord(keys.get(i), i);
+                }
+            }
+            tree.flush();
+            assertNull(index.search("d"));
+            assertEquals(0, index.count("d"));
+            for (int q = 0; q < 50; q++)
+            {
+                String query = randomWord(random, 1 + random.nextInt(5));
+                Collection<Integer> expected = tree.search(query);
+                Collection<Integer> actual = index.search(query);
+                assertEquals(expected == null, actual == null);
+                assertEquals(expected == null ? new ArrayList<Integer>() : new ArrayList<Integer>(expected),
+                        actual == null ? new ArrayList<Integer>() : new ArrayList<Integer>(actual));
+                assertEquals(expected == null ? 0 : expected.size(), actual == null ? 0 : actual.size());
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    private static String randomWord(Random random, int length)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++)
+        {
+            sb.append((char) ('a' + random.nextInt(3)));
+        }
+        return sb.toString();
+    }
+}
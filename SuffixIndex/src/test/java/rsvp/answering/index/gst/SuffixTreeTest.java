@@ -17,10 +17,20 @@ package rsvp.answering.index.gst;
 
 import static rsvp.answering.index.common.Utils.getSubstrings;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import rsvp.answering.index.common.IntIterator;
+import rsvp.answering.index.common.Utils;
 
 import junit.framework.TestCase;
 
@@ -225,7 +235,7 @@ public class SuffixTreeTest extends TestCase
     // }
     // }
 
-    public void testChinese()
+    public void testChinese() throws IOException
     {
         GSuffixTree in = new GSuffixTree();
         String[] words = new String[]
@@ -273,15 +283,8 @@ public class SuffixTreeTest extends TestCase
         assertNull(in.flushAndSearch("aoca"));
         
         String file = "data/test";
-        try
-        {
-            in.writeToBinaryFile(file);
-        }
-        catch (IOException e)
-        {
-            e.printStackTrace();
-        }
-        
+        in.writeToBinaryFile(file);
+
         GSuffixTree fromFile = new GSuffixTree(file);
         for (int i = 0; i < words.length; ++i)
         {
@@ -296,6 +299,754 @@ public class SuffixTreeTest extends TestCase
         
     }
 
+    public void testBinaryRoundTrip() throws IOException
+    {
+        String[] words = new String[]
+        { "五道口", "五道口城铁", "五道口地铁站", "西直门", "东直门", "西直门地铁站", "cacao", "banana", "bano", "ba", "cacacato" };
+        // large indices whose bytes are >= 0x80
+        int base = 0x7F80FF;
+        GSuffixTree materialized = new GSuffixTree();
+        GSuffixTree lazy = new GSuffixTree();
+        for (int i = 0; i < words.length; ++i)
+        {
+            materialized.addWord(words[i], base + i * 0x81);
+            lazy.addWord(words[i], base + i * 0x81);
+        }
+        materialized.flush();
+        lazy.flushRanges();
+
+        File file = File.createTempFile("gst", "");
+        try
+        {
+            for (GSuffixTree tree : Arrays.asList(materialized, lazy))
+            {
+                tree.writeToBinaryFile(file.getPath());
+                GSuffixTree fromFile = new GSuffixTree(file.getPath());
+                assertEquals(tree.nodes.size(), fromFile.nodes.size());
+                assertEquals(tree.edges.size(), fromFile.edges.size());
+                for (int n = 0; n < tree.nodes.size(); n++)
+                {
+                    assertEquals(tree.node(n).getSuffix(), fromFile.node(n).getSuffix());
+                }
+                for (int i = 0; i < words.length; ++i)
+                {
+                    for (String s : getSubstrings(words[i]))
+                    {
+                        assertEquals(new HashSet<Integer>(tree.search(s)), new HashSet<Integer>(fromFile.search(s)));
+                        assertEquals(tree.count(s), fromFile.count(s));
+                        assertEquals(s, fromFile.match(s));
+                    }
+                }
+
+                // the reloaded tree can be added to
+                fromFile.addWord("五道口宾馆", base + words.length * 0x81);
+                fromFile.flush();
+                assertEquals(4, fromFile.search("五道口").size());
+                assertTrue(fromFile.search("宾馆").contains(base + words.length * 0x81));
+            }
+
+            // flip one byte of the file
+            File bin = new File(file.getPath() + GSuffixTree.BINARY_SUFFIX);
+            RandomAccessFile raf = new RandomAccessFile(bin, "rw");
+            raf.seek(bin.length() / 2);
+            int b = raf.read();
+            raf.seek(bin.length() / 2);
+            raf.write(b ^ 0x10);
+            raf.close();
+            try
+            {
+                new GSuffixTree(file.getPath());
+                fail();
+            }
+            catch (IOException e)
+            {
+                // expected
+            }
+            bin.delete();
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    public void testMatchingStatistics()
+    {
+        Random random = new Random(11);
+        for (int round = 0; round < 50; round++)
+        {
+            GSuffixTree tree = new GSuffixTree();
+            for (int i = 0; i < 20; i++)
+            {
+                tree.addWord(randomWord(random, 1 + random.nextInt(12)), i);
+            }
+            if (round % 2 == 0)
+            {
+                tree.flush();
+            }
+            else
+            {
+                tree.flushRanges();
+            }
+            for (int q = 0; q < 20; q++)
+            {
+                String query = randomWord(random, random.nextInt(30));
+                int[] ms = tree.matchingStatistics(query);
+                int best = 0;
+                for (int i = 0; i < query.length(); i++)
+                {
+                    assertEquals(tree.match(query.substring(i)).length(), ms[i]);
+                    best = Math.max(best, ms[i]);
+                }
+
+                SubstringMatch match = tree.longestSubstring(query);
+                if (best == 0)
+                {
+                    assertNull(match);
+                    continue;
+                }
+                assertEquals(best, match.length());
+                assertEquals(best, ms[match.getStart()]);
+                for (int i = 0; i < match.getStart(); i++)
+                {
+                    assertTrue(ms[i] < best);
+                }
+                String s = query.substring(match.getStart(), match.getEnd());
+                assertEquals(new HashSet<Integer>(tree.search(s)), new HashSet<Integer>(match.getResults()));
+                assertEquals(s, Utils.findLongestSubstring(tree, query));
+            }
+        }
+    }
+
+    private static String randomWord(Random random, int length)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++)
+        {
+            sb.append((char) ('a' + random.nextInt(3)));
+        }
+        return sb.toString();
+    }
+
+    public void testParallelBuild()
+    {
+        Random random = new Random(13);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        for (int round = 0; round < 5; round++)
+        {
+            List<String> keys = new ArrayList<String>();
+            for (int i = 0; i < 5000; i++)
+            {
+                keys.add(randomWord(random, 1 + random.nextInt(10)));
+            }
+            keys.add("五道口城铁");
+            keys.add("五道口");
+
+            GSuffixTree serial = new GSuffixTree();
+            for (int i = 0; i < keys.size(); i++)
+            {
+                serial.addWord(keys.get(i), i);
+            }
+            GSuffixTree parallel = GSuffixTree.buildParallel(keys, pool);
+            assertEquals(serial.nodes.size(), parallel.nodes.size());
+            assertEquals(serial.edges.size(), parallel.edges.size());
+
+            // keep adding to the merged tree
+            serial.addWord("cabbage", keys.size());
+            parallel.addWord("cabbage", keys.size());
+            serial.flush();
+            parallel.flush();
+            for (int q = 0; q < 500; q++)
+            {
+                String query = randomWord(random, 1 + random.nextInt(6));
+                Collection<Integer> expect = serial.search(query);
+                Collection<Integer> actual = parallel.search(query);
+                if (expect == null)
+                {
+                    assertNull(actual);
+                }
+                else
+                {
+                    assertEquals(new ArrayList<Integer>(expect), new ArrayList<Integer>(actual));
+                }
+                assertTrue(Arrays.equals(serial.matchingStatistics(query), parallel.matchingStatistics(query)));
+            }
+            assertEquals(2, parallel.search("五道口").size());
+            assertEquals(1, parallel.search("bbag").size());
+        }
+        pool.shutdown();
+    }
+
+    public void testParallelFlush()
+    {
+        String[] words = new String[]
+        { "五道口", "五道口城铁", "五道口地铁站", "西直门", "东直门", "西直门地铁站", "cacao", "banana", "bano", "ba", "cacacato" };
+        GSuffixTree serial = new GSuffixTree();
+        GSuffixTree parallel = new GSuffixTree();
+        for (int i = 0; i < words.length; ++i)
+        {
+            serial.addWord(words[i], i);
+            parallel.addWord(words[i], i);
+        }
+        FlushStats stats = serial.flush();
+        assertEquals(serial.nodes.size(), stats.getNodes());
+        assertTrue(stats.getHeapBytesBefore() > 0 && stats.getHeapBytesAfter() > 0);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        stats = parallel.flush(pool);
+        pool.shutdown();
+        assertEquals(parallel.nodes.size(), stats.getNodes());
+
+        for (int i = 0; i < words.length; ++i)
+        {
+            for (String s : getSubstrings(words[i]))
+            {
+                assertEquals(new HashSet<Integer>(serial.search(s)), new HashSet<Integer>(parallel.search(s)));
+            }
+        }
+        assertEquals(3, serial.search("地铁站").size() + serial.search("城铁").size());
+    }
+
+    public void testRangeFlush()
+    {
+        String[] words = new String[]
+        { "五道口", "五道口城铁", "五道口地铁站", "西直门", "东直门", "西直门地铁站", "cacao", "banana", "bano", "ba", "cacacato" };
+        GSuffixTree materialized = new GSuffixTree();
+        GSuffixTree lazy = new GSuffixTree();
+        for (int i = 0; i < words.length; ++i)
+        {
+            materialized.addWord(words[i], i);
+            lazy.addWord(words[i], i);
+        }
+        materialized.flush();
+        lazy.flushRanges();
+
+        for (int i = 0; i < words.length; ++i)
+        {
+            for (String s : getSubstrings(words[i]))
+            {
+                Collection<Integer> expect = materialized.search(s);
+                Collection<Integer> actual = lazy.search(s);
+                assertTrue(actual instanceof RangeResults);
+                assertEquals(expect.size(), actual.size());
+                assertEquals(new HashSet<Integer>(expect), new HashSet<Integer>(actual));
+                assertTrue(actual.contains(i));
+            }
+        }
+
+        // stop after the first result
+        IntIterator it = ((RangeResults) lazy.search("a")).intIterator();
+        assertTrue(it.hasNext());
+        assertTrue(materialized.search("a").contains(it.nextInt()));
+    }
+
+    public void testBatch()
+    {
+        Random random = new Random(29);
+        GSuffixTree tree = new GSuffixTree();
+        for (int i = 0; i < 3000; i++)
+        {
+            tree.addWord(randomWord(random, 1 + random.nextInt(10)), i);
+        }
+        tree.flush();
+        tree.remove(7);
+        List<String> words = new ArrayList<String>();
+        for (int i = 0; i < 5000; i++)
+        {
+            // repeated words and words sharing prefixes, as in an address list
+            words.add(i % 10 == 9 ? words.get(random.nextInt(i)) : randomWord(random, random.nextInt(14)));
+        }
+        words.add("");
+
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try
+        {
+            for (ForkJoinPool p : Arrays.asList(null, pool))
+            {
+                List<Collection<Integer>> results = tree.searchBatch(words, p);
+                List<String> matches = tree.matchBatch(words, p);
+                assertEquals(words.size(), results.size());
+                for (int i = 0; i < words.size(); i++)
+                {
+                    Collection<Integer> expect = tree.search(words.get(i));
+                    if (expect == null)
+                    {
+                        assertNull(results.get(i));
+                    }
+                    else
+                    {
+                        assertEquals(new ArrayList<Integer>(expect), new ArrayList<Integer>(results.get(i)));
+                    }
+                    assertEquals(tree.match(words.get(i)), matches.get(i));
+                }
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    public void testSearchApprox()
+    {
+        Random random = new Random(31);
+        List<String> keys = new ArrayList<String>();
+        GSuffixTree tree = new GSuffixTree();
+        for (int i = 0; i < 400; i++)
+        {
+            keys.add(randomWord(random, 1 + random.nextInt(10)) + (i % 3 == 0 ? "d" : ""));
+            tree.addWord(keys.get(i), i);
+        }
+        tree.remove(11);
+        for (int round = 0; round < 2; round++)
+        {
+            if (round == 0)
+            {
+                tree.flush();
+            }
+            else
+            {
+                tree.flushRanges();
+            }
+            for (int q = 0; q < 60; q++)
+            {
+                String query = randomWord(random, random.nextInt(8)) + (q % 4 == 0 ? "dd" : "");
+                int maxEdits = q % 4;
+                ApproxResults results = tree.searchApprox(query, maxEdits);
+                List<String> expect = new ArrayList<String>();
+                for (int d = 0; d <= maxEdits; d++)
+                {
+                    for (int i = 0; i < keys.size(); i++)
+                    {
+                        if (i != 11 && substringDistance(query, keys.get(i)) == d)
+                        {
+                            expect.add(i + "@" + d);
+                        }
+                    }
+                }
+                assertEquals(expect.toString(), results.toString());
+            }
+        }
+
+        ApproxResults results = tree.searchApprox("dcba", 0);
+        assertTrue(results.isEmpty());
+        assertEquals(tree.search("abc").size(), tree.searchApprox("abc", 0).size());
+        results = tree.searchApprox("abcd", 1);
+        assertEquals(results.countWithin(0), tree.search("abcd").size());
+        try
+        {
+            tree.searchApprox("abc", -1);
+            fail();
+        }
+        catch (IllegalArgumentException e)
+        {
+            // negative maxEdits
+        }
+    }
+
+    /**
+     * The smallest edit distance between word and a substring of key, as computed by Sellers
+     */
+    private static int substringDistance(String word, String key)
+    {
+        int[] row = new int[key.length() + 1];
+        for (int i = 1; i <= word.length(); i++)
+        {
+            int diagonal = row[0];
+            row[0] = i;
+            for (int j = 1; j <= key.length(); j++)
+            {
+                int cell = Math.min(diagonal + (word.charAt(i - 1) == key.charAt(j - 1) ? 0 : 1),
+                        Math.min(row[j], row[j - 1]) + 1);
+                diagonal = row[j];
+                row[j] = cell;
+            }
+        }
+        int ret = Integer.MAX_VALUE;
+        for (int cell : row)
+        {
+            ret = Math.min(ret, cell);
+        }
+        return ret;
+    }
+
+    public void testCountAndTopK()
+    {
+        String[] words = new String[]
+        { "五道口", "五道口城铁", "五道口地铁站", "西直门", "东直门", "西直门地铁站", "cacao", "banana", "bano", "ba", "cacacato" };
+        float[] scores = new float[]
+        { 3, 1, 4, 1, 5, 9, 2, 6, 5, 3, 5 };
+        GSuffixTree materialized = new GSuffixTree();
+        GSuffixTree lazy = new GSuffixTree();
+        for (int i = 0; i < words.length; ++i)
+        {
+            materialized.addWord(words[i], i);
+            lazy.addWord(words[i], i);
+        }
+        materialized.flush();
+        lazy.flushRanges();
+
+        for (String word : words)
+        {
+            for (String s : getSubstrings(word))
+            {
+                Collection<Integer> expect = materialized.search(s);
+                assertEquals(expect.size(), materialized.count(s));
+                assertEquals(expect.size(), lazy.count(s));
+
+                Integer[] sorted = expect.toArray(new Integer[expect.size()]);
+                Arrays.sort(sorted, byScore(scores));
+                for (int k = 1; k <= 3; k++)
+                {
+                    int[] top = Arrays.copyOf(toIntArray(sorted), Math.min(k, sorted.length));
+                    assertTrue(Arrays.equals(top, materialized.searchTopK(s, k, scores)));
+                    assertTrue(Arrays.equals(top, lazy.searchTopK(s, k, scores)));
+                    assertEquals(Arrays.asList(sorted).subList(0, top.length), materialized.searchTopK(s, k, byScore(scores)));
+                }
+            }
+        }
+        assertEquals(0, materialized.count("xyz"));
+        assertEquals(0, materialized.searchTopK("xyz", 3, scores).length);
+
+        // precomputed lists give the same answers, and fall back to a scan for a larger k
+        materialized.precomputeTopK(scores, 2);
+        lazy.precomputeTopK(scores, 2);
+        for (String word : words)
+        {
+            for (String s : getSubstrings(word))
+            {
+                for (int k = 1; k <= 4; k++)
+                {
+                    int[] expect = toIntArray(materialized.searchTopK(s, k, byScore(scores)).toArray(new Integer[0]));
+                    assertTrue(Arrays.equals(expect, materialized.searchTopK(s, k, scores)));
+                    assertTrue(Arrays.equals(expect, lazy.searchTopK(s, k, scores)));
+                }
+            }
+        }
+        // no results for k <= 0, with or without a precomputed list
+        for (int k = -1; k <= 0; k++)
+        {
+            assertEquals(0, materialized.searchTopK("五道口", k, scores).length);
+            assertEquals(0, lazy.searchTopK("五道口", k, scores).length);
+            assertEquals(0, new GSuffixTree().searchTopK("五道口", k, scores).length);
+            assertTrue(materialized.searchTopK("五道口", k, byScore(scores)).isEmpty());
+        }
+    }
+
+    public void testRemove() throws IOException
+    {
+        String[] words = new String[]
+        { "五道口", "五道口城铁", "五道口地铁站", "西直门", "东直门", "西直门地铁站", "cacao", "banana", "bano", "ba", "cacacato" };
+        float[] scores = new float[]
+        { 3, 1, 4, 1, 5, 9, 2, 6, 5, 3, 5 };
+        int[] removedIds = new int[]
+        { 2, 5, 7, 10 };
+        GSuffixTree materialized = new GSuffixTree();
+        GSuffixTree lazy = new GSuffixTree();
+        GSuffixTree expected = new GSuffixTree();
+        for (int i = 0; i < words.length; ++i)
+        {
+            materialized.addWord(words[i], i);
+            lazy.addWord(words[i], i);
+            if (Arrays.binarySearch(removedIds, i) < 0)
+            {
+                expected.addWord(words[i], i);
+            }
+        }
+        materialized.flush();
+        lazy.flushRanges();
+        expected.flush();
+        materialized.precomputeTopK(scores, 2);
+        for (int id : removedIds)
+        {
+            assertTrue(materialized.remove(id));
+            assertTrue(lazy.remove(id));
+        }
+        assertFalse(materialized.remove(2));
+        assertTrue(materialized.isRemoved(5));
+        assertEquals(removedIds.length, materialized.getRemovedNum());
+        try
+        {
+            materialized.addWord("cacao", 10);
+            fail();
+        }
+        catch (IllegalStateException e)
+        {
+        }
+        try
+        {
+            materialized.writeToBinaryFile("data/test");
+            fail();
+        }
+        catch (IllegalStateException e)
+        {
+        }
+        // ids that cannot be in the tree, which would size the tombstones with them
+        for (int id : new int[] { -1, words.length, Integer.MAX_VALUE })
+        {
+            try
+            {
+                materialized.remove(id);
+                fail();
+            }
+            catch (IllegalArgumentException e)
+            {
+            }
+        }
+
+        for (int round = 0; round < 2; round++)
+        {
+            for (String word : words)
+            {
+                for (String s : getSubstrings(word))
+                {
+                    Collection<Integer> expect = expected.search(s);
+                    List<Integer> live = expect == null ? new ArrayList<Integer>() : new ArrayList<Integer>(expect);
+                    // the substrings of removed keys only are not found at all
+                    assertEquals(expect == null, materialized.search(s) == null);
+                    assertEquals(expect == null, lazy.search(s) == null);
+                    assertEquals(live, toList(materialized.search(s)));
+                    assertEquals(new HashSet<Integer>(live), new HashSet<Integer>(toList(lazy.search(s))));
+                    assertEquals(live.size(), toList(materialized.search(s)).size());
+                    assertEquals(live.size(), materialized.count(s));
+                    assertEquals(live.size(), lazy.count(s));
+                    for (int k = 1; k <= 3; k++)
+                    {
+                        int[] top = expected.searchTopK(s, k, scores);
+                        assertTrue(Arrays.equals(top, materialized.searchTopK(s, k, scores)));
+                        assertTrue(Arrays.equals(top, lazy.searchTopK(s, k, scores)));
+                    }
+                }
+            }
+            // the same results once the postings no longer have the removed indices
+            materialized.compact();
+            lazy.compact();
+            assertEquals(0, materialized.getRemovedNum());
+        }
+        assertEquals(Arrays.asList(0, 1), new ArrayList<Integer>(materialized.search("五道口")));
+    }
+
+    public void testCompactRemovesAllOwnIndices()
+    {
+        GSuffixTree materialized = new GSuffixTree();
+        GSuffixTree lazy = new GSuffixTree();
+        for (GSuffixTree tree : Arrays.asList(materialized, lazy))
+        {
+            tree.addWord("b", 0);
+            tree.addWord("bc", 1);
+        }
+        materialized.flush();
+        lazy.flushRanges();
+        for (GSuffixTree tree : Arrays.asList(materialized, lazy))
+        {
+            // the node of "b" only had 0 of its own
+            tree.remove(0);
+            tree.compact();
+            assertEquals(Arrays.asList(1), new ArrayList<Integer>(tree.search("b")));
+            assertEquals(1, tree.count("b"));
+            assertEquals(Arrays.asList(1), new ArrayList<Integer>(tree.search("c")));
+        }
+    }
+
+    public void testLongestSubstringSkipsRemoved()
+    {
+        GSuffixTree materialized = new GSuffixTree();
+        GSuffixTree lazy = new GSuffixTree();
+        for (GSuffixTree tree : Arrays.asList(materialized, lazy))
+        {
+            tree.addWord("五道口城铁", 0);
+            tree.addWord("五道", 1);
+            tree.addWord("城铁站", 2);
+        }
+        materialized.flush();
+        lazy.flushRanges();
+        for (GSuffixTree tree : Arrays.asList(materialized, lazy))
+        {
+            assertEquals("[0, 5) [0]", tree.longestSubstring("五道口城铁").toString());
+            // 0 held the longest span, the best live one is the leftmost of length 2
+            tree.remove(0);
+            SubstringMatch match = tree.longestSubstring("五道口城铁");
+            assertEquals(0, match.getStart());
+            assertEquals(2, match.getEnd());
+            assertEquals(Arrays.asList(1), new ArrayList<Integer>(match.getResults()));
+            assertEquals("五道", Utils.findLongestSubstring(tree, "五道口城铁"));
+            assertNull(tree.longestSubstring("口"));
+        }
+
+        Random random = new Random(31);
+        for (int round = 0; round < 20; round++)
+        {
+            GSuffixTree tree = new GSuffixTree();
+            GSuffixTree expected = new GSuffixTree();
+            String[] keys = new String[1 + random.nextInt(30)];
+            for (int i = 0; i < keys.length; i++)
+            {
+                keys[i] = randomWord(random, 1 + random.nextInt(8));
+                tree.addWord(keys[i], i);
+            }
+            if (round % 2 == 0)
+            {
+                tree.flush();
+            }
+            else
+            {
+                tree.flushRanges();
+            }
+            for (int i = 0; i < keys.length; i++)
+            {
+                if (random.nextInt(3) == 0)
+                {
+                    tree.remove(i);
+                }
+                else
+                {
+                    expected.addWord(keys[i], i);
+                }
+            }
+            expected.flush();
+            for (int q = 0; q < 20; q++)
+            {
+                String query = randomWord(random, random.nextInt(20));
+                SubstringMatch expect = expected.longestSubstring(query);
+                SubstringMatch actual = tree.longestSubstring(query);
+                if (expect == null)
+                {
+                    assertNull(actual);
+                    continue;
+                }
+                assertEquals(expect.getStart(), actual.getStart());
+                assertEquals(expect.getEnd(), actual.getEnd());
+                assertEquals(new HashSet<Integer>(expect.getResults()), new HashSet<Integer>(actual.getResults()));
+                assertEquals(expect.getResults().size(), actual.getResults().size());
+            }
+        }
+    }
+
+    public void testCompactForgetsRemovedKeys()
+    {
+        GSuffixTree materialized = new GSuffixTree();
+        GSuffixTree lazy = new GSuffixTree();
+        for (GSuffixTree tree : Arrays.asList(materialized, lazy))
+        {
+            tree.addWord("closedshop", 0);
+            tree.addWord("bakery", 1);
+        }
+        materialized.flush();
+        lazy.flushRanges();
+        for (GSuffixTree tree : Arrays.asList(materialized, lazy))
+        {
+            tree.remove(0);
+            tree.compact();
+            assertEquals("[4, 5) [1]", tree.longestSubstring("closedxyz").toString());
+            assertEquals("", tree.match("closed"));
+            assertEquals("e", Utils.findLongestSubstring(tree, "closedxyz"));
+            assertNull(tree.search("shop"));
+            // the cut keys can be added again later
+            tree.addWord("closedshop", 2);
+            tree.flush();
+            assertEquals("closed", tree.match("closed"));
+            assertEquals(Arrays.asList(2), new ArrayList<Integer>(tree.search("shop")));
+        }
+
+        Random random = new Random(37);
+        for (int round = 0; round < 40; round++)
+        {
+            GSuffixTree tree = new GSuffixTree();
+            GSuffixTree expected = new GSuffixTree();
+            List<String> keys = new ArrayList<String>();
+            for (int i = 0; i < 1 + random.nextInt(30); i++)
+            {
+                keys.add(randomWord(random, 1 + random.nextInt(8)));
+                tree.addWord(keys.get(i), i);
+            }
+            if (round % 2 == 0)
+            {
+                tree.flush();
+            }
+            else
+            {
+                tree.flushRanges();
+            }
+            for (int i = 0; i < keys.size(); i++)
+            {
+                if (random.nextInt(3) == 0)
+                {
+                    tree.remove(i);
+                }
+                else
+                {
+                    expected.addWord(keys.get(i), i);
+                }
+            }
+            tree.compact();
+            // and more keys after the compact, through the cut parts or not
+            for (int i = keys.size(); i < keys.size() + random.nextInt(5); i++)
+            {
+                String key = randomWord(random, 1 + random.nextInt(8));
+                tree.addWord(key, i);
+                expected.addWord(key, i);
+            }
+            tree.flush();
+            expected.flush();
+            for (int q = 0; q < 30; q++)
+            {
+                String query = randomWord(random, random.nextInt(12));
+                assertEquals(expected.match(query), tree.match(query));
+                assertTrue(Arrays.equals(expected.matchingStatistics(query), tree.matchingStatistics(query)));
+                assertEquals(String.valueOf(expected.longestSubstring(query)),
+                        String.valueOf(tree.longestSubstring(query)));
+                Collection<Integer> expect = expected.search(query);
+                Collection<Integer> actual = tree.search(query);
+                assertEquals(expect == null ? null : new ArrayList<Integer>(expect),
+                        actual == null ? null : new ArrayList<Integer>(actual));
+            }
+        }
+    }
+
+    private static Comparator<Integer> byScore(final float[] scores)
+    {
+        return new Comparator<Integer>()
+        {
+            public int compare(Integer a, Integer b)
+            {
+                int c = Float.compare(scores[b], scores[a]);
+                return c != 0 ? c : a.compareTo(b);
+            }
+        };
+    }
+
+    private static List<Integer> toList(Collection<Integer> results)
+    {
+        return results == null ? new ArrayList<Integer>() : new ArrayList<Integer>(results);
+    }
+
+    private static int[] toIntArray(Integer[] values)
+    {
+        int[] ret = new int[values.length];
+        for (int i = 0; i < values.length; i++)
+        {
+            ret[i] = values[i];
+        }
+        return ret;
+    }
+
+    public void testDeepTree()
+    {
+        // a run of the same char gives one node per length
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 3000; i++)
+        {
+            sb.append('a');
+        }
+        GSuffixTree in = new GSuffixTree();
+        in.addWord(sb.toString(), 0);
+        in.addWord("ab", 1);
+        in.flush();
+        assertTrue(in.search(sb.substring(100)).contains(0));
+        assertFalse(in.search("a").contains(2));
+        assertEquals(2, in.search("a").size());
+    }
+
     /* testing a test method :) */
     public void testGetSubstrings()
     {
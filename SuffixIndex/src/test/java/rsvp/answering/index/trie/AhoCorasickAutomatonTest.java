@@ -0,0 +1,119 @@
+/**
+ *
+ * Copyright 2013 University of Waterloo. All rights reserved.
+ * AhoCorasickAutomatonTest.java
+ *
+ */
+package rsvp.answering.index.trie;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * @author Kun Xiong (xiongkun04@gmail.com)
+ * @date 2026-10-18
+ */
+public class AhoCorasickAutomatonTest
+{
+    private static List<String> scan(final AhoCorasickAutomaton automaton, final String text)
+    {
+        final List<String> ret = new ArrayList<String>();
+        automaton.scan(text, new AhoCorasickAutomaton.Callback()
+        {
+            public void match(int start, int end, int wordId)
+            {
+                assertEquals(automaton.getWord(wordId), text.substring(start, end));
+                ret.add(start + ":" + text.substring(start, end));
+            }
+        });
+        return ret;
+    }
+
+    @Test
+    public void testScan()
+    {
+        TrieTree trie = new TrieTree(new String[]
+        { "he", "she", "his", "hers", "五道口", "道口", "五道口城铁" }).freeze();
+        AhoCorasickAutomaton automaton = new AhoCorasickAutomaton(trie);
+        assertEquals(7, automaton.getWordNum());
+
+        assertEquals("[1:she, 2:he, 2:hers]", scan(automaton, "ushers").toString());
+        assertEquals("[2:五道口, 3:道口, 2:五道口城铁]", scan(automaton, "北京五道口城铁站").toString());
+        assertEquals("[]", scan(automaton, "北京").toString());
+    }
+
+    @Test
+    public void testWordsEndingAtNodes()
+    {
+        // "ab" ends at the node created for "abc" and "abd"
+        TrieTree trie = new TrieTree(new String[]
+        { "abc", "abd", "ab", "b" }).freeze();
+        AhoCorasickAutomaton automaton = new AhoCorasickAutomaton(trie);
+        assertEquals("[0:ab, 1:b, 0:abd]", scan(automaton, "abd").toString());
+    }
+
+    @Test
+    public void testRandom()
+    {
+        Random random = new Random(3);
+        for (int round = 0; round < 20; round++)
+        {
+            Set<String> words = new HashSet<String>();
+            for (int i = 0; i < 30; i++)
+            {
+                words.add(randomWord(random, 1 + random.nextInt(5)));
+            }
+            AhoCorasickAutomaton automaton = new AhoCorasickAutomaton(new TrieTree(words.toArray(new String[0])).freeze());
+            assertEquals(words.size(), automaton.getWordNum());
+
+            String text = randomWord(random, 200);
+            Set<String> expect = new HashSet<String>();
+            for (int start = 0; start < text.length(); start++)
+            {
+                for (int end = start + 1; end <= text.length(); end++)
+                {
+                    if (words.contains(text.substring(start, end)))
+                    {
+                        expect.add(start + ":" + text.substring(start, end));
+                    }
+                }
+            }
+            List<String> actual = scan(automaton, text);
+            assertEquals(expect.size(), actual.size());
+            assertEquals(expect, new HashSet<String>(actual));
+        }
+    }
+
+    @Test
+    public void testRequiresFrozenTrie()
+    {
+        try
+        {
+            new AhoCorasickAutomaton(new TrieTree(new String[]
+            { "a" }));
+            fail();
+        }
+        catch (IllegalStateException e)
+        {
+            // expected
+        }
+    }
+
+    private static String randomWord(Random random, int length)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++)
+        {
+            sb.append((char) ('a' + random.nextInt(3)));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ *
+ * Copyright 2013 University of Waterloo. All rights reserved.
+ * DoubleArrayTrieTest.java
+ *
+ */
+package rsvp.answering.index.trie;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import rsvp.answering.index.common.IntList;
+import rsvp.answering.index.common.Utils;
+
+/**
+ * @author Kun Xiong (xiongkun04@gmail.com)
+ * @date 2026-10-18
+ */
+public class DoubleArrayTrieTest
+{
+    @Test
+    public void testSameAsTrie()
+    {
+        String[] words = new String[]
+        { "五道口", "五道口城铁", "五道口地铁站", "西直门", "东直门", "ab", "abc", "abd", "a", "libertypike", "franklintn" };
+        TrieTree trie = new TrieTree(words).freeze();
+        DoubleArrayTrie dat = new DoubleArrayTrie(trie);
+
+        for (String word : words)
+        {
+            assertTrue(dat.containsWord(word));
+            for (String s : Utils.getSubstrings(word))
+            {
+                assertEquals(trie.containsWord(s), dat.containsWord(s));
+                assertEquals(trie.containsPrefix(s), dat.containsPrefix(s));
+                assertEquals(trie.match(s).length(), dat.match(s));
+            }
+        }
+        assertFalse(dat.containsWord(""));
+        assertFalse(dat.containsPrefix("五道口城铁站"));
+        assertEquals(3, dat.match("五道口附近"));
+        assertEquals(0, dat.match("附近"));
+        assertEquals("[3, 5]", Arrays.toString(dat.commonPrefixSearch("北京五道口城铁站", 2)));
+        assertEquals("[1, 2, 3]", Arrays.toString(dat.commonPrefixSearch("abc", 0)));
+        assertEquals("[]", Arrays.toString(dat.commonPrefixSearch("北京", 0)));
+    }
+
+    @Test
+    public void testRandom()
+    {
+        Random random = new Random(5);
+        for (int round = 0; round < 20; round++)
+        {
+            Set<String> words = new HashSet<String>();
+            for (int i = 0; i < 200; i++)
+            {
+                words.add(randomWord(random, 1 + random.nextInt(8)));
+            }
+            TrieTree trie = new TrieTree(words.toArray(new String[0])).freeze();
+            DoubleArrayTrie dat = new DoubleArrayTrie(trie);
+            for (int q = 0; q < 200; q++)
+            {
+                String query = randomWord(random, random.nextInt(10));
+                assertEquals(query, words.contains(query), dat.containsWord(query));
+                assertEquals(query, trie.containsPrefix(query), dat.containsPrefix(query));
+                assertEquals(query, trie.match(query).length(), dat.match(query));
+
+                IntList expect = new IntList();
+                for (int end = 1; end <= query.length(); end++)
+                {
+                    if (words.contains(query.substring(0, end)))
+                    {
+                        expect.add(end);
+                    }
+                }
+                assertTrue(query, Arrays.equals(expect.toArray(), dat.commonPrefixSearch(query, 0)));
+            }
+        }
+    }
+
+    @Test
+    public void testRequiresFrozenTrie()
+    {
+        try
+        {
+            new DoubleArrayTrie(new TrieTree(new String[]
+            { "a" }));
+            fail();
+        }
+        catch (IllegalStateException e)
+        {
+            // expected
+        }
+    }
+
+    private static String randomWord(Random random, int length)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++)
+        {
+            // a few CJK chars among ASCII ones
+            sb.append(random.nextInt(5) == 0 ? (char) ('五' + random.nextInt(3)) : (char) ('a' + random.nextInt(4)));
+        }
+        return sb.toString();
+    }
+}
@@ -9,6 +9,20 @@ package rsvp.answering.index.trie;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Test;
 
@@ -53,4 +67,142 @@ public class TrieTreeTest
         }
     }
 
+    @Test
+    public void testWordEndingAtNode()
+    {
+        TrieTree tree = new TrieTree(new String[]
+        { "abc", "abd" });
+        assertFalse(tree.containsWord("ab"));
+        tree.addWord("ab");
+        assertTrue(tree.containsWord("ab"));
+        assertTrue(tree.containsWord("abc"));
+        assertFalse(tree.containsWord("a"));
+    }
+
+    @Test
+    public void testSeparateTries()
+    {
+        TrieTree cities = new TrieTree(new String[]
+        { "beijing", "shanghai" });
+        TrieTree stations = new TrieTree(new String[]
+        { "wudaokou", "xizhimen" });
+
+        assertTrue(cities.containsWord("beijing"));
+        assertFalse(cities.containsPrefix("wudao"));
+        assertTrue(stations.containsWord("xizhimen"));
+        assertFalse(stations.containsPrefix("shang"));
+        assertEquals("", stations.match("beijing"));
+    }
+
+    @Test
+    public void testFreeze() throws Exception
+    {
+        final String[] words = new String[]
+        { "libertypike", "franklintn", "carothersjohnhenryhouse", "carothersezealhouse", "dightonma", "dightonrock" };
+        final TrieTree tree = new TrieTree(words).freeze();
+        assertTrue(tree.isFrozen());
+        try
+        {
+            tree.addWord("dightonhouse");
+            fail();
+        }
+        catch (IllegalStateException e)
+        {
+            // expected
+        }
+        assertFalse(tree.containsPrefix("dightonh"));
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for (int t = 0; t < 8; t++)
+        {
+            results.add(pool.submit(new Callable<Boolean>()
+            {
+                public Boolean call()
+                {
+                    for (int n = 0; n < 1000; n++)
+                    {
+                        for (String word : words)
+                        {
+                            if (!tree.containsWord(word) || !word.equals(tree.match(word + "x")))
+                            {
+                                return false;
+                            }
+                        }
+                    }
+                    return true;
+                }
+            }));
+        }
+        for (Future<Boolean> result : results)
+        {
+            assertTrue(result.get());
+        }
+        pool.shutdown();
+    }
+
+    @Test
+    public void testComplete()
+    {
+        Random random = new Random(17);
+        TrieTree tree = new TrieTree();
+        Map<String, Float> weights = new HashMap<String, Float>();
+        Map<String, Integer> ids = new HashMap<String, Integer>();
+        for (int i = 0; i < 3000; i++)
+        {
+            StringBuilder word = new StringBuilder();
+            int length = 1 + random.nextInt(8);
+            for (int j = 0; j < length; j++)
+            {
+                word.append((char) ('a' + random.nextInt(4)));
+            }
+            // distinct weights, some of them lowered or raised by adding the word again
+            float weight = i * 7919 % 3001;
+            tree.addWord(word.toString(), i, weight);
+            weights.put(word.toString(), weight);
+            ids.put(word.toString(), i);
+        }
+        tree.addWord("ddddddddz");
+        weights.put("ddddddddz", 0f);
+        ids.put("ddddddddz", -1);
+
+        for (int round = 0; round < 2; round++)
+        {
+            for (String prefix : Arrays.asList("", "a", "ab", "abc", "abcd", "dddd", "ddddddddz", "e", "abcdabcdx"))
+            {
+                for (int k : new int[]
+                { 0, 1, 5, 50, 10000 })
+                {
+                    List<String> expect = new ArrayList<String>();
+                    for (String word : weights.keySet())
+                    {
+                        if (word.startsWith(prefix))
+                        {
+                            expect.add(word);
+                        }
+                    }
+                    final Map<String, Float> w = weights;
+                    Collections.sort(expect, new Comparator<String>()
+                    {
+                        public int compare(String o1, String o2)
+                        {
+                            return Float.compare(w.get(o2), w.get(o1));
+                        }
+                    });
+                    expect = expect.subList(0, Math.min(k, expect.size()));
+
+                    List<String> actual = new ArrayList<String>();
+                    for (Completion completion : tree.complete(prefix, k))
+                    {
+                        assertEquals(weights.get(completion.getWord()), completion.getWeight(), 0f);
+                        assertEquals(ids.get(completion.getWord()).intValue(), completion.getId());
+                        actual.add(completion.getWord());
+                    }
+                    assertEquals(prefix + " " + k, expect, actual);
+                }
+            }
+            tree.freeze();
+        }
+    }
+
 }